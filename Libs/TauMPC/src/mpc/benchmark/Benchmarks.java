@@ -0,0 +1,425 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import mpc.finite_field_math.Polynom;
+import mpc.finite_field_math.Shamir;
+import mpc.finite_field_math.Zp;
+import mpc.finite_field_math.ZpMatrix;
+import mpc.protocols.ReedSolomonDecoder;
+import mpc.protocols.WelchBerlekampDecoder;
+import mpc.sendables.SecretPolynomials;
+import mpc.sendables.Sendable;
+import mpc.sendables.ShareVector;
+
+/**
+ * <p>
+ * Micro benchmarks of the field math, sharing, decoding and serialization code, run headless from the
+ * command line (or with "ant benchmark"). Every benchmark is run for every prime and number of players,
+ * with the polynomial degree the protocols use for that number of players.
+ * </p>
+ * <p>
+ * Each measurement is a warm up followed by several timed samples; the reported time is the mean time of
+ * one operation with the standard deviation over the samples. Results are printed as a table, or as CSV
+ * with -csv so runs can be compared.
+ * </p>
+ * Arguments: [-filter name] [-primes 233,65521,...] [-players 7,25,...] [-warmup ms] [-time ms] [-samples n] [-csv]
+ */
+public class Benchmarks {
+
+    private static final int[] DEFAULT_PRIMES = {233, 65521, 2147483629};
+    private static final int[] DEFAULT_PLAYERS = {7, 25, 61};
+    private static final int FIELD_OPS_LENGTH = 1024;
+
+    /* Results of the benchmarked code are folded into this, so the JIT cannot drop the code as dead */
+    private static volatile int sink;
+    /* Benchmarks that do not depend on the number of players run only for the first one */
+    private static int firstPlayers;
+
+    /* A single benchmark. setUp is not timed; run does one operation and returns something derived from its result */
+    private static abstract class Benchmark {
+        final String name;
+
+        Benchmark(String name) {
+            this.name = name;
+        }
+
+        /* Returns false if the benchmark does not apply to the parameters */
+        boolean setUp(int prime, int players, Random random) {
+            return true;
+        }
+
+        abstract int run() throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String filter = null;
+        int[] primes = DEFAULT_PRIMES;
+        int[] players = DEFAULT_PLAYERS;
+        long warmupMS = 300;
+        long timeMS = 1000;
+        int samples = 5;
+        boolean csv = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-filter")) {
+                filter = args[++i];
+            } else if (args[i].equals("-primes")) {
+                primes = parseList(args[++i]);
+            } else if (args[i].equals("-players")) {
+                players = parseList(args[++i]);
+            } else if (args[i].equals("-warmup")) {
+                warmupMS = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-time")) {
+                timeMS = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-samples")) {
+                samples = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-csv")) {
+                csv = true;
+            } else {
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        firstPlayers = players[0];
+        if (csv) {
+            System.out.println("benchmark,prime,players,ns_per_op,stddev_ns");
+        } else {
+            System.out.println(String.format(Locale.US, "%-40s %11s %8s %16s %12s", "Benchmark", "Prime", "Players", "ns/op", "+-"));
+        }
+        for (Benchmark benchmark : getBenchmarks()) {
+            if (filter != null && !benchmark.name.contains(filter)) {
+                continue;
+            }
+            for (int prime : primes) {
+                for (int n : players) {
+                    if (!benchmark.setUp(prime, n, new Random(prime * 31 + n))) {
+                        continue;
+                    }
+                    double[] result = measure(benchmark, warmupMS, timeMS, samples);
+                    if (csv) {
+                        System.out.println(String.format(Locale.US, "%s,%d,%d,%.1f,%.1f", benchmark.name, prime, n, result[0], result[1]));
+                    } else {
+                        System.out.println(String.format(Locale.US, "%-40s %11d %8d %16.1f %12.1f", benchmark.name, prime, n, result[0], result[1]));
+                    }
+                }
+            }
+        }
+    }
+
+    /* Returns the mean and the standard deviation of the time of a single operation in ns */
+    private static double[] measure(Benchmark benchmark, long warmupMS, long timeMS, int samples) throws IOException {
+        long end = System.nanoTime() + warmupMS * 1000000L;
+        long calls = 0;
+        int result = 0;
+        while (System.nanoTime() < end || calls == 0) {
+            result += benchmark.run();
+            calls++;
+        }
+
+        double[] times = new double[samples];
+        long sampleNS = timeMS * 1000000L / samples;
+        for (int s = 0; s < samples; s++) {
+            long ops = 0;
+            long start = System.nanoTime();
+            long now;
+            do {
+                for (int i = 0; i < 16; i++) {
+                    result += benchmark.run();
+                }
+                ops += 16;
+                now = System.nanoTime();
+            } while (now - start < sampleNS);
+            times[s] = (double) (now - start) / ops;
+        }
+        sink += result;
+
+        double mean = 0;
+        for (double time : times) {
+            mean += time;
+        }
+        mean /= samples;
+        double variance = 0;
+        for (double time : times) {
+            variance += (time - mean) * (time - mean);
+        }
+        return new double[] {mean, samples > 1 ? Math.sqrt(variance / (samples - 1)) : 0};
+    }
+
+    private static int[] parseList(String list) {
+        String[] tokens = list.split(",");
+        int[] values = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            values[i] = Integer.parseInt(tokens[i].trim());
+        }
+        return values;
+    }
+
+    private static List<Zp> getRandomElements(int count, int prime, Random random) {
+        List<Zp> elements = new ArrayList<Zp>(count);
+        for (int i = 0; i < count; i++) {
+            elements.add(new Zp(prime, random.nextInt(prime)));
+        }
+        return elements;
+    }
+
+    private static List<Zp> getPoints(int count, int prime, boolean usePrimitive) {
+        List<Zp> points = new ArrayList<Zp>(count);
+        for (int point : Shamir.getEvaluationPoints(count, prime, usePrimitive)) {
+            points.add(new Zp(prime, point));
+        }
+        return points;
+    }
+
+    /* Vandermonde matrices of distinct points are invertible, random matrices may not be */
+    private static ZpMatrix getInvertibleMatrix(int size, int prime) {
+        return ZpMatrix.getVandermondeMatrix(size, getPoints(size, prime, false), prime);
+    }
+
+    private static List<Benchmark> getBenchmarks() {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+        /* The field operations run over FIELD_OPS_LENGTH elements, the number of players is ignored */
+        benchmarks.add(new Benchmark("Zp.mul x" + FIELD_OPS_LENGTH) {
+            List<Zp> a, b;
+            boolean setUp(int prime, int players, Random random) {
+                a = getRandomElements(FIELD_OPS_LENGTH, prime, random);
+                b = getRandomElements(FIELD_OPS_LENGTH, prime, random);
+                return players == firstPlayers;
+            }
+            int run() {
+                Zp acc = new Zp(a.get(0));
+                for (int i = 0; i < FIELD_OPS_LENGTH; i++) {
+                    acc.add(a.get(i).constMul(b.get(i)));
+                }
+                return acc.getValue();
+            }
+        });
+        benchmarks.add(new Benchmark("Zp.divide x" + FIELD_OPS_LENGTH) {
+            List<Zp> a, b;
+            boolean setUp(int prime, int players, Random random) {
+                a = getRandomElements(FIELD_OPS_LENGTH, prime, random);
+                b = new ArrayList<Zp>();
+                for (int i = 0; i < FIELD_OPS_LENGTH; i++) {
+                    b.add(new Zp(prime, 1 + random.nextInt(prime - 1)));
+                }
+                return players == firstPlayers;
+            }
+            int run() {
+                int acc = 0;
+                for (int i = 0; i < FIELD_OPS_LENGTH; i++) {
+                    acc += a.get(i).constDvide(b.get(i)).getValue();
+                }
+                return acc;
+            }
+        });
+
+        benchmarks.add(new Benchmark("ZpMatrix.getInverse") {
+            ZpMatrix matrix;
+            boolean setUp(int prime, int players, Random random) {
+                matrix = getInvertibleMatrix(players, prime);
+                return players < prime;
+            }
+            int run() {
+                return matrix.getInverse().getContent()[0][0];
+            }
+        });
+        benchmarks.add(new Benchmark("ZpMatrix.times") {
+            ZpMatrix a, b;
+            boolean setUp(int prime, int players, Random random) {
+                a = ZpMatrix.getRandomMatrix(players, players, prime);
+                b = ZpMatrix.getRandomMatrix(players, players, prime);
+                return true;
+            }
+            int run() {
+                return a.times(b).getContent()[0][0];
+            }
+        });
+        benchmarks.add(new Benchmark("ZpMatrix.solve") {
+            ZpMatrix matrix;
+            Zp[] vector;
+            boolean setUp(int prime, int players, Random random) {
+                matrix = getInvertibleMatrix(players, prime);
+                vector = getRandomElements(players, prime, random).toArray(new Zp[players]);
+                return players < prime;
+            }
+            int run() {
+                return matrix.solve(vector)[0].getValue();
+            }
+        });
+
+        benchmarks.add(new Benchmark("Shamir.share") {
+            Zp secret;
+            int players, degree;
+            boolean setUp(int prime, int players, Random random) {
+                secret = new Zp(prime, random.nextInt(prime));
+                this.players = players;
+                degree = (players - 1) / 2;
+                return players < prime;
+            }
+            int run() {
+                return Shamir.share(secret, players, degree).get(0).getValue();
+            }
+        });
+        benchmarks.add(new Benchmark("Shamir.recombine") {
+            List<Zp> shares;
+            int prime, degree;
+            boolean setUp(int prime, int players, Random random) {
+                this.prime = prime;
+                degree = (players - 1) / 2;
+                if (players >= prime) {
+                    return false;
+                }
+                shares = Shamir.share(new Zp(prime, random.nextInt(prime)), players, degree);
+                return true;
+            }
+            int run() {
+                return Shamir.recombine(shares, degree, prime).getValue();
+            }
+        });
+        benchmarks.add(new Benchmark("Shamir.shareByzantineCase") {
+            Zp secret;
+            int players, degree;
+            boolean setUp(int prime, int players, Random random) {
+                secret = new Zp(prime, random.nextInt(prime));
+                this.players = players;
+                degree = (players - 1) / 4;
+                return players < prime && players >= 5;
+            }
+            int run() {
+                List<SecretPolynomials> polynomials = Shamir.shareByzantineCase(secret, players, degree);
+                return polynomials.get(0).getFi_xPolynomial().get(0).getValue();
+            }
+        });
+
+        /* Decoding a primitive sharing with the maximal number of errors the Byzantine protocol corrects */
+        benchmarks.add(new Benchmark("WelchBerlekampDecoder.decode") {
+            List<Zp> points, codeWord;
+            int prime, degree;
+            boolean setUp(int prime, int players, Random random) {
+                if (players >= prime || players < 5) {
+                    return false;
+                }
+                this.prime = prime;
+                degree = (players - 1) / 4;
+                points = getPoints(players, prime, true);
+                codeWord = Shamir.primitiveShare(new Zp(prime, random.nextInt(prime)), players, degree);
+                for (int i = 0; i < degree; i++) {
+                    int position = random.nextInt(players);
+                    codeWord.set(position, new Zp(prime, codeWord.get(position).getValue() + 1));
+                }
+                return true;
+            }
+            int run() {
+                return WelchBerlekampDecoder.decode(points, codeWord, degree, degree, prime).get(0).getValue();
+            }
+        });
+
+        /* The same errors with Gao's decoder, and an honest code word, which only takes the parity check */
+        benchmarks.add(new Benchmark("ReedSolomonDecoder.decode") {
+            List<Zp> codeWord;
+            ReedSolomonDecoder decoder;
+            int degree;
+            boolean setUp(int prime, int players, Random random) {
+                if (players >= prime || players < 5) {
+                    return false;
+                }
+                degree = (players - 1) / 4;
+                decoder = ReedSolomonDecoder.getPrimitiveInstance(players, degree, prime);
+                codeWord = Shamir.primitiveShare(new Zp(prime, random.nextInt(prime)), players, degree);
+                for (int i = 0; i < degree; i++) {
+                    int position = random.nextInt(players);
+                    codeWord.set(position, new Zp(prime, codeWord.get(position).getValue() + 1));
+                }
+                return true;
+            }
+            int run() {
+                return decoder.decode(codeWord, degree).get(0).getValue();
+            }
+        });
+        benchmarks.add(new Benchmark("ReedSolomonDecoder.decode (no errors)") {
+            List<Zp> codeWord;
+            ReedSolomonDecoder decoder;
+            int degree;
+            boolean setUp(int prime, int players, Random random) {
+                if (players >= prime || players < 5) {
+                    return false;
+                }
+                degree = (players - 1) / 4;
+                decoder = ReedSolomonDecoder.getPrimitiveInstance(players, degree, prime);
+                codeWord = Shamir.primitiveShare(new Zp(prime, random.nextInt(prime)), players, degree);
+                return true;
+            }
+            int run() {
+                return decoder.decode(codeWord, degree).get(0).getValue();
+            }
+        });
+
+        /* The polynomials are of the degree of a sharing among the players */
+        benchmarks.add(new Benchmark("Polynom.Sample") {
+            Polynom polynom;
+            Zp point;
+            boolean setUp(int prime, int players, Random random) {
+                polynom = new Polynom(getRandomElements((players - 1) / 2 + 1, prime, random));
+                point = new Zp(prime, random.nextInt(prime));
+                return polynom.getDegree() >= 0;
+            }
+            int run() {
+                return polynom.Sample(point).getValue();
+            }
+        });
+        benchmarks.add(new Benchmark("Polynom.divideWithRemainder") {
+            Polynom product, divisor;
+            boolean setUp(int prime, int players, Random random) {
+                List<Zp> dividendCoeffs = getRandomElements(players, prime, random);
+                List<Zp> divisorCoeffs = getRandomElements(players / 2, prime, random);
+                dividendCoeffs.set(dividendCoeffs.size() - 1, new Zp(prime, 1));
+                divisorCoeffs.set(divisorCoeffs.size() - 1, new Zp(prime, 1));
+                divisor = new Polynom(divisorCoeffs);
+                product = new Polynom(dividendCoeffs).multiply(divisor);
+                return true;
+            }
+            int run() {
+                return product.divideWithRemainder(divisor).getDegree();
+            }
+        });
+
+        /* Serialization of what a player sends another in one round */
+        benchmarks.add(new Benchmark("BitStream ShareVector round trip") {
+            ShareVector vector;
+            int prime;
+            boolean setUp(int prime, int players, Random random) {
+                this.prime = prime;
+                vector = new ShareVector(getRandomElements(players * players, prime, random));
+                return true;
+            }
+            int run() throws IOException {
+                byte[] bytes = vector.writeToByteArray();
+                return bytes.length + ((ShareVector) Sendable.loadFromByteArray(bytes, prime)).getShares().size();
+            }
+        });
+        benchmarks.add(new Benchmark("BitStream SecretPolynomials round trip") {
+            SecretPolynomials polynomials;
+            int prime;
+            boolean setUp(int prime, int players, Random random) {
+                this.prime = prime;
+                polynomials = new SecretPolynomials();
+                polynomials.setFi_xPolynomial(getRandomElements(players, prime, random));
+                polynomials.setGi_yPolynomial(getRandomElements(players, prime, random));
+                return true;
+            }
+            int run() throws IOException {
+                byte[] bytes = polynomials.writeToByteArray();
+                return bytes.length + ((SecretPolynomials) Sendable.loadFromByteArray(bytes, prime)).getFi_xPolynomialLength();
+            }
+        });
+        return benchmarks;
+    }
+}
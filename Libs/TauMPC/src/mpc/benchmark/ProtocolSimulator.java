@@ -0,0 +1,380 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import mpc.circuit.Circuit;
+import mpc.circuit.ParallelGateEvaluator;
+import mpc.communication.LoopbackNetwork;
+import mpc.compiler.Parser;
+import mpc.finite_field_math.Zp;
+import mpc.protocols.MPCProtocol;
+import mpc.protocols.MPCProtocolByzantineCase;
+import mpc.ui.ProgressLog;
+
+/**
+ * <p>
+ * Runs all the players of a circuit in one JVM, each in its own thread, connected by a LoopbackNetwork,
+ * and reports the time of the whole calculation and the traffic it needed. The inputs are random (from a
+ * fixed seed, so runs are repeatable) and the results of every player are checked against a local
+ * calculation of the circuit.
+ * </p>
+ * <p>
+ * The circuit is a file, or the text of a circuit with ';' between the lines. The number of players is the
+ * number of inputs of the circuit, or n with -players n - the inputs are then dealt to the players as
+ * Circuit.getPlayerInputOffsets says and every player calculates with all its inputs (see MPCProtocol.calculate(List)). With -beaver the players first make the multiplication triples the circuit
+ * needs; the preprocessing is timed separately and its traffic is not counted with the calculation. With -optimize
+ * the circuit is optimized first (see CircuitOptimizer). With -batch n every player has n inputs and the
+ * instances are calculated together (see MPCProtocol.calculateBatch), with -packed k the batch is calculated on
+ * packed shares of k instances (see MPCProtocol.setPackingFactor). With -batchverify the Byzantine input stage
+ * cross-checks a random combination of the sharings first (see MPCProtocolByzantineCase.setBatchVerification).
+ * With -threads n the players calculate their local gates on a shared ForkJoinPool of n threads (see ParallelGateEvaluator).
+ * With -nonzerodivisors the shared divisors are declared non zero (see MPCProtocol.setNonZeroDivisors).
+ * </p>
+ * Arguments: -circuit fileOrText [-prime p] [-byzantine] [-batchverify] [-beaver] [-latency ms] [-bandwidth bytesPerSecond]
+ * [-optimize] [-nonzerodivisors] [-players n] [-threads n] [-batch n] [-packed k] [-runs n] [-seed s] [-verbose] [-csv]
+ */
+public class ProtocolSimulator {
+
+    private static final int DEFAULT_PRIME = 65521;
+
+    private final String circuitSource;
+    private final int prime;
+    private final boolean isByzantine;
+    private boolean isBeaver = false;
+    private boolean isOptimizing = false;
+    private boolean isBatchVerification = false;
+    private boolean isDivisorNonZero = false;
+    private int playerCount = 0;    // 0 - a player per input
+    private int threads = 0;    // 0 - the local gates are calculated by the thread of the player
+    private int batchSize = 0;  // 0 - a single calculation with MPCProtocol.calculate
+    private int packingFactor = 1;
+    private long latencyMS = 0;
+    private long bytesPerSecond = 0;
+    private boolean isVerbose = false;
+
+    /* The result of a single run */
+    public static class Result {
+        public final long preprocessingNS;
+        public final long wallTimeNS;
+        public final long messages;
+        public final long bytes;
+        public final boolean isCorrect;
+
+        Result(long preprocessingNS, long wallTimeNS, long messages, long bytes, boolean isCorrect) {
+            this.preprocessingNS = preprocessingNS;
+            this.wallTimeNS = wallTimeNS;
+            this.messages = messages;
+            this.bytes = bytes;
+            this.isCorrect = isCorrect;
+        }
+    }
+
+    public ProtocolSimulator(String circuitFileOrText, int prime, boolean isByzantine) {
+        this.circuitSource = new File(circuitFileOrText).exists() ? circuitFileOrText : circuitFileOrText.replace(';', '\n');
+        this.prime = prime;
+        this.isByzantine = isByzantine;
+    }
+
+    /* Multiply with triples made in a preprocessing phase (semi-honest protocol only) */
+    public void setBeaver(boolean isBeaver) {
+        this.isBeaver = isBeaver;
+    }
+
+    /* Deal the inputs of the circuit to playerCount players, each giving several inputs */
+    public void setPlayerCount(int playerCount) {
+        this.playerCount = playerCount;
+    }
+
+    /* Calculate the local gates on a ForkJoinPool of this many threads */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /* Calculate a batch of instances with MPCProtocol.calculateBatch, every player with batchSize inputs */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /* Pack k instances of the batch in every share */
+    public void setPackingFactor(int packingFactor) {
+        this.packingFactor = packingFactor;
+    }
+
+    /* Declare the shared divisors of the circuit non zero, so the inversion may reveal zeros */
+    public void setNonZeroDivisors(boolean isDivisorNonZero) {
+        this.isDivisorNonZero = isDivisorNonZero;
+    }
+
+    /* Verify a random combination of the sharings in the Byzantine input stage */
+    public void setBatchVerification(boolean isBatchVerification) {
+        this.isBatchVerification = isBatchVerification;
+    }
+
+    /* Run the CircuitOptimizer on the circuit */
+    public void setOptimizing(boolean isOptimizing) {
+        this.isOptimizing = isOptimizing;
+    }
+
+    public void setLatency(long latencyMS) {
+        this.latencyMS = latencyMS;
+    }
+
+    public void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /* Prints the progress logs of the players */
+    public void setVerbose(boolean isVerbose) {
+        this.isVerbose = isVerbose;
+    }
+
+    /* Every player parses the circuit itself - the gates hold the values of the player's calculation */
+    private Circuit parseCircuit() throws Exception {
+        Parser parser = new Parser(circuitSource, prime);
+        parser.setOptimizing(isOptimizing);
+        if (!parser.parse()) {
+            throw new IllegalArgumentException("Could not parse the circuit");
+        }
+        return parser.getCircuit();
+    }
+
+    /* The gate counts and depth before and after the optimization, or null if the circuit is not optimized */
+    public String getOptimizationReport() throws Exception {
+        Parser parser = new Parser(circuitSource, prime);
+        parser.setOptimizing(isOptimizing);
+        parser.parse();
+        return parser.getOptimizationReport();
+    }
+
+    public Result run(Random random) throws Exception {
+        Circuit localCircuit = parseCircuit();
+        final int inputCount = localCircuit.getCircuitInputSize();
+        final int numberOfPlayers = playerCount > 0 ? playerCount : inputCount;
+        final int instances = Math.max(batchSize, 1);
+        int[] offsets = localCircuit.getPlayerInputOffsets(numberOfPlayers);
+        /* inputs.get(j) holds the inputs of player j - one per instance, or all its inputs with -players */
+        final List<List<Zp>> inputs = new ArrayList<List<Zp>>();
+        for (int j = 0; j < numberOfPlayers; j++) {
+            inputs.add(new ArrayList<Zp>());
+        }
+        List<List<Zp>> expected = new ArrayList<List<Zp>>();
+        for (int k = 0; k < instances; k++) {
+            StringBuilder inputsString = new StringBuilder();
+            for (int i = 0, j = 0; i < inputCount; i++) {
+                while (offsets[j + 1] <= i) {
+                    j++;
+                }
+                Zp input = new Zp(prime, 1 + random.nextInt(prime - 1));    // not 0, so a division in the circuit is defined
+                inputs.get(j).add(input);
+                inputsString.append(i == 0 ? "" : ",").append(input.getValue());
+            }
+            expected.add(localCircuit.internalCalculate(inputsString.toString(), prime));
+        }
+
+        final ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads) : null;
+        final ParallelGateEvaluator evaluator = pool != null ? new ParallelGateEvaluator(pool) : null;
+        final LoopbackNetwork network = new LoopbackNetwork(numberOfPlayers, expected.get(0).size());
+        network.setLatency(latencyMS);
+        network.setBandwidth(bytesPerSecond);
+        /* the calculation starts when all the players finished the preprocessing */
+        final long[] onlineStart = new long[1];
+        final CyclicBarrier preprocessingDone = new CyclicBarrier(numberOfPlayers, new Runnable() {
+            public void run() {
+                network.resetCounters();
+                onlineStart[0] = System.nanoTime();
+            }
+        });
+        List<Callable<List<Map<Integer, Zp>>>> players = new ArrayList<Callable<List<Map<Integer, Zp>>>>();
+        for (int i = 0; i < numberOfPlayers; i++) {
+            final int index = i;
+            final Circuit circuit = parseCircuit();
+            players.add(new Callable<List<Map<Integer, Zp>>>() {
+                public List<Map<Integer, Zp>> call() throws Exception {
+                    ProgressLog proglog = new ProgressLog(isVerbose ? System.out : null);
+                    MPCProtocol protocol = isByzantine ? new MPCProtocolByzantineCase(circuit, proglog, index, prime, numberOfPlayers)
+                                                       : new MPCProtocol(circuit, proglog, index, prime, numberOfPlayers);
+                    if (!protocol.init(network.getController(index))) {
+                        throw new IllegalStateException("Player " + index + " could not be initialized");
+                    }
+                    try {
+                        try {
+                            protocol.setPackingFactor(packingFactor);
+                            protocol.setParallelEvaluator(evaluator);
+                            protocol.setNonZeroDivisors(isDivisorNonZero);
+                            if (isBatchVerification) {
+                                ((MPCProtocolByzantineCase) protocol).setBatchVerification(true);
+                            }
+                            if (isBeaver) {
+                                protocol.generateTriples(protocol.getRequiredTriples() * instances);
+                            }
+                        } catch (Exception ex) {
+                            preprocessingDone.reset();  // the other players must not wait for this one
+                            throw ex;
+                        }
+                        preprocessingDone.await();
+                        if (batchSize > 0) {
+                            return protocol.calculateBatch(inputs.get(index));
+                        }
+                        List<Map<Integer, Zp>> outputs = new ArrayList<Map<Integer, Zp>>();
+                        outputs.add(playerCount > 0 ? protocol.calculate(inputs.get(index)) : protocol.calculate(inputs.get(index).get(0)));
+                        return outputs;
+                    } finally {
+                        protocol.close();
+                    }
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfPlayers);
+        try {
+            long start = System.nanoTime();
+            List<Future<List<Map<Integer, Zp>>>> futures = new ArrayList<Future<List<Map<Integer, Zp>>>>();
+            for (Callable<List<Map<Integer, Zp>>> player : players) {
+                futures.add(executor.submit(player));
+            }
+            boolean isCorrect = true;
+            for (Future<List<Map<Integer, Zp>>> future : futures) {
+                List<Map<Integer, Zp>> outputs;
+                try {
+                    outputs = future.get();
+                } catch (ExecutionException ex) {
+                    throw new Exception("A player failed: " + ex.getCause(), ex.getCause());
+                }
+                isCorrect &= outputs != null && outputs.size() == instances;
+                for (int k = 0; isCorrect && k < instances; k++) {
+                    for (int i = 0; i < expected.get(k).size(); i++) {
+                        isCorrect &= expected.get(k).get(i).equals(outputs.get(k).get(i));
+                    }
+                }
+            }
+            long end = System.nanoTime();
+            return new Result(onlineStart[0] - start, end - onlineStart[0], network.getMessagesSent(), network.getBytesSent(), isCorrect);
+        } finally {
+            executor.shutdownNow();
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String circuit = null;
+        int prime = DEFAULT_PRIME;
+        boolean isByzantine = false;
+        boolean isBeaver = false;
+        boolean isOptimizing = false;
+        boolean isBatchVerification = false;
+        boolean isDivisorNonZero = false;
+        int playerCount = 0;
+        int threads = 0;
+        int batchSize = 0;
+        int packingFactor = 1;
+        long latencyMS = 0;
+        long bytesPerSecond = 0;
+        int runs = 3;
+        long seed = 1;
+        boolean verbose = false;
+        boolean csv = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-circuit")) {
+                circuit = args[++i];
+            } else if (args[i].equals("-prime")) {
+                prime = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-byzantine")) {
+                isByzantine = true;
+            } else if (args[i].equals("-batchverify")) {
+                isBatchVerification = true;
+            } else if (args[i].equals("-beaver")) {
+                isBeaver = true;
+            } else if (args[i].equals("-optimize")) {
+                isOptimizing = true;
+            } else if (args[i].equals("-nonzerodivisors")) {
+                isDivisorNonZero = true;
+            } else if (args[i].equals("-players")) {
+                playerCount = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-batch")) {
+                batchSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-packed")) {
+                packingFactor = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-latency")) {
+                latencyMS = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-bandwidth")) {
+                bytesPerSecond = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-runs")) {
+                runs = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-verbose")) {
+                verbose = true;
+            } else if (args[i].equals("-csv")) {
+                csv = true;
+            } else {
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (circuit == null) {
+            throw new IllegalArgumentException("Missing -circuit");
+        }
+        if (isBatchVerification && !isByzantine) {
+            throw new IllegalArgumentException("-batchverify needs -byzantine");
+        }
+        if (playerCount > 0 && batchSize > 0) {
+            throw new IllegalArgumentException("-players cannot be used with -batch");
+        }
+
+        ProtocolSimulator simulator = new ProtocolSimulator(circuit, prime, isByzantine);
+        simulator.setBeaver(isBeaver);
+        simulator.setOptimizing(isOptimizing);
+        simulator.setBatchVerification(isBatchVerification);
+        simulator.setNonZeroDivisors(isDivisorNonZero);
+        simulator.setPlayerCount(playerCount);
+        simulator.setThreads(threads);
+        simulator.setBatchSize(batchSize);
+        simulator.setPackingFactor(packingFactor);
+        simulator.setLatency(latencyMS);
+        simulator.setBandwidth(bytesPerSecond);
+        simulator.setVerbose(verbose);
+        Random random = new Random(seed);
+        if (isOptimizing && !csv) {
+            System.out.println(simulator.getOptimizationReport());
+        }
+        if (csv) {
+            System.out.println("run,preprocessing_ms,ms,messages,bytes,correct");
+        } else {
+            System.out.println(String.format(Locale.US, "%-6s %12s %12s %10s %12s %8s", "Run", "Prep. ms", "ms", "Messages", "Bytes", "Correct"));
+        }
+        boolean allCorrect = true;
+        for (int run = 0; run < runs; run++) {
+            Result result = simulator.run(random);
+            allCorrect &= result.isCorrect;
+            double preprocessingMS = result.preprocessingNS / 1e6;
+            double ms = result.wallTimeNS / 1e6;
+            if (csv) {
+                System.out.println(String.format(Locale.US, "%d,%.1f,%.1f,%d,%d,%b", run, preprocessingMS, ms, result.messages, result.bytes, result.isCorrect));
+            } else {
+                System.out.println(String.format(Locale.US, "%-6d %12.1f %12.1f %10d %12d %8b", run, preprocessingMS, ms, result.messages, result.bytes, result.isCorrect));
+            }
+        }
+        if (!allCorrect) {
+            System.exit(1);
+        }
+    }
+}
@@ -21,10 +21,17 @@ import mpc.circuit.Gate.Operation;
 
 
 public class Circuit {
-    private static Map<Integer, Circuit> exponentialGates = new HashMap<Integer, Circuit>();
+    /* The exponent circuits hold the values of the calculation in their gates, so every thread (player) has its own */
+    private static final ThreadLocal<Map<String, Circuit>> exponentialGates = new ThreadLocal<Map<String, Circuit>>() {
+        @Override
+        protected Map<String, Circuit> initialValue() {
+            return new HashMap<String, Circuit>();
+        }
+    };
     protected List<Gate> gates;
     protected List<String> inputs;
     protected int p;
+    private CompiledCircuit compiled;   // created on first use
 
     public Circuit(int p, List<Gate> gates, List<String> inputs) {
         this.p = p;
@@ -34,6 +41,7 @@ public class Circuit {
 
     public void setGates(List<Gate> gates) {
         this.gates = gates;
+        this.compiled = null;
     }        
     
     public List<Gate> getGates() {
@@ -49,6 +57,14 @@ public class Circuit {
         return inputs;
     }        
     
+    /* The flat form of the circuit, for calculations that do not allocate per gate */
+    public synchronized CompiledCircuit getCompiled() {
+        if (compiled == null) {
+            compiled = new CompiledCircuit(this);
+        }
+        return compiled;
+    }
+
     //returns a map of all outputs (the int is the output index)
     public Map<Integer, Zp> getOutputs() {
         Map<Integer, Zp> result = new HashMap<Integer, Zp>();
@@ -63,6 +79,53 @@ public class Circuit {
         return result;
     }
     
+    /* Splits the gates into levels by multiplicative depth: a gate is in level l if the longest
+     * path to it passes through l gates that need communication (see Gate.isCommunicationNeeded).
+     * The communication of the gates of a level is independent, so it can be done together.
+     * Inside each level the gates keep their original (topological) order. */
+    public List<List<Gate>> getMultiplicationLevels() {
+        Map<Gate, Integer> levelOf = new HashMap<Gate, Integer>();
+        List<List<Gate>> levels = new ArrayList<List<Gate>>();
+        for (Gate gate : getGates()) {
+            int level = 0;
+            for (Wire wire : gate.getInputWires()) {
+                Gate source = wire.getSourceGate();
+                if (wire.isInput() || wire.getConstValue() != null || source == null) {
+                    continue;
+                }
+                Integer sourceLevel = levelOf.get(source);
+                assert sourceLevel != null : "gates are not in topological order";
+                level = Math.max(level, sourceLevel + (source.isCommunicationNeeded() ? 1 : 0));
+            }
+            levelOf.put(gate, level);
+            while (levels.size() <= level) {
+                levels.add(new ArrayList<Gate>());
+            }
+            levels.get(level).add(gate);
+        }
+        return levels;
+    }
+
+    /* The number of communication rounds the gates need one after the other - the largest number of gates
+     * that need communication on a path of the circuit */
+    public int getMultiplicativeDepth() {
+        Map<Gate, Integer> depthOf = new HashMap<Gate, Integer>();
+        int depth = 0;
+        for (Gate gate : getGates()) {
+            int gateDepth = 0;
+            for (Wire wire : gate.getInputWires()) {
+                Gate source = wire.getSourceGate();
+                if (!wire.isInput() && wire.getConstValue() == null && source != null) {
+                    gateDepth = Math.max(gateDepth, depthOf.get(source));
+                }
+            }
+            gateDepth += gate.isCommunicationNeeded() ? 1 : 0;
+            depthOf.put(gate, gateDepth);
+            depth = Math.max(depth, gateDepth);
+        }
+        return depth;
+    }
+
     //returns the number of inputs declared in code - not all inputs must be used in curcuit
     public int getCircuitInputSize(){
         return inputs.size();        
@@ -80,9 +143,21 @@ public class Circuit {
         return currInputs.size();        
     }
     
+    /* The inputs of every player when the players give several inputs each - the inputs are dealt in their order, each
+     * player gets a run of consecutive inputs and the first (inputs % numberOfPlayers) players get one more. Player j
+     * gives the inputs offsets[j] .. offsets[j+1]-1, so with an input per player, player j gives input j */
+    public int[] getPlayerInputOffsets(int numberOfPlayers){
+        int inputCount = getCompiled().getInputCount();
+        int[] offsets = new int[numberOfPlayers + 1];
+        for (int j = 0; j < numberOfPlayers; j++){
+            offsets[j + 1] = offsets[j] + inputCount / numberOfPlayers + (j < inputCount % numberOfPlayers ? 1 : 0);
+        }
+        return offsets;
+    }
+
     public boolean isMultipleContained(){
         for (Gate gate : gates){
-            if (gate.getOperation() == Operation.MUL || gate.getOperation() == Gate.Operation.DIV){
+            if (gate.getOperation() == Operation.MUL || gate.getOperation() == Gate.Operation.DIV || gate.getOperation() == Gate.Operation.NORMALIZE){
                 return true;
             }
         }
@@ -154,14 +229,25 @@ public class Circuit {
         return sb.toString();
     }
     
+    /* x^(p-2) - the inverse of x, or 0 if x is 0 */
     public static Circuit getDivisionExponentialCircuit(int p){
-        Circuit c = exponentialGates.get(p);
+        return getExponentialCircuit(p, p - 2);
+    }
+
+    /* x^(p-1) - 1 if x is not 0, or 0 if it is */
+    public static Circuit getNormalizationExponentialCircuit(int p){
+        return getExponentialCircuit(p, p - 1);
+    }
+
+    private static Circuit getExponentialCircuit(int p, int exp){
+        String key = p + "^" + exp;
+        Circuit c = exponentialGates.get().get(key);
         if (c == null){            
-            c = new ExponentCircuit(p, p - 2).getCircuit();
+            c = new ExponentCircuit(p, exp).getCircuit();
             if (c == null){
-                c = createExponentCircuit(p - 2, p);                
+                c = createExponentCircuit(exp, p);                
             }          
-            exponentialGates.put(p, c);
+            exponentialGates.get().put(key, c);
             return c;
         }
         c.emptyResult();
@@ -235,18 +321,13 @@ public class Circuit {
             if (max == 0){
                 throw new RuntimeException("Cannot find 2 exponential");
             }            
-            int i = 1;
-            for (i = 1; i <= max; i = 2 * i){}
-            return i/2;
+            // doubling a counter past max overflows for exponents near 2^31
+            return Integer.highestOneBit(max);
         }
         
         private int get2Log(int num){
             assert num == getBiggest2Exponential(num);
-            int j = 0;
-            for (int i = 1; i <= num; i = 2 * i){
-                j++;
-            }
-            return j - 1;
+            return 31 - Integer.numberOfLeadingZeros(num);
         }
         
     }
@@ -287,19 +368,14 @@ public class Circuit {
               usersInputs.add( new Zp(prime, Integer.parseInt(tokens[i])));
          }
 
-        for (Gate gate : getGates()){
-            gate.internalCalculate(usersInputs);
-        }
-
-        Map<Integer, Zp> outputsMap = getOutputs();
+        CompiledCircuit compiledCircuit = getCompiled();
+        int[] values = compiledCircuit.newValues();
+        compiledCircuit.setInputs(values, usersInputs);
+        compiledCircuit.calculate(values);
 
-        int numOfOutputs = outputsMap.size();
-        Zp tempRes = null;
         List<Zp> resultList = new ArrayList<Zp>();
-
-        for (int i = 0; i < numOfOutputs; i++){
-            tempRes = outputsMap.get(new Integer(i));
-            resultList.add(tempRes);
+        for (int i = 0; i < compiledCircuit.getOutputCount(); i++){
+            resultList.add(new Zp(prime, compiledCircuit.getOutputValue(values, i)));
         }
         return resultList;
     }
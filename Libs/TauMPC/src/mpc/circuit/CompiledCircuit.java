@@ -0,0 +1,487 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.circuit;
+
+import mpc.circuit.Gate.Operation;
+import mpc.finite_field_math.FieldContext;
+import mpc.finite_field_math.Zp;
+import mpc.finite_field_math.ZpArithmetic;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A circuit compiled to flat arrays, for calculations that do not allocate per gate. Every value of the
+ * calculation has a slot in an int[] (see newValues) - the inputs come first, then the outputs of the gates
+ * in topological order, and then the constants of the circuit. A gate is an opcode and the slots of its
+ * operands, so calculating it reads and writes ints only.
+ * </p>
+ * <p>
+ * A calculation may run a batch of instances of the circuit together. Then every slot holds a value per
+ * instance - the value of slot s in instance k is values[s * batchSize + k] (see getIndex) - and every gate
+ * is calculated for the whole batch at once.
+ * </p>
+ * <p>
+ * The gates are also grouped by multiplication level (see Circuit.getMultiplicationLevels), which is the
+ * order the protocol calculates them in. Inside a level the local gates the communication of the level needs come
+ * first, then the gates that need communication, and last the local gates that do not depend on the communication
+ * of the level - the protocol calculates those while the messages of the level are in flight (see
+ * getLevelDeferredStart). Each of the two runs of local gates is ordered in waves of gates that do not read each
+ * other's outputs (see getWaveEnd), so the gates of a wave may be calculated in parallel. A compiled circuit does not change, so it may be used by several
+ * threads, each with its own values.
+ * </p>
+ */
+public final class CompiledCircuit {
+    public static final byte OP_ADD = 0;
+    public static final byte OP_SUB = 1;
+    public static final byte OP_MUL = 2;
+    public static final byte OP_DIV = 3;
+    public static final byte OP_NORMALIZE = 4;
+
+    private static final byte REDUCTION_NEEDED = 1;
+    private static final byte COMMUNICATION_NEEDED = 2;
+
+    private final int prime;
+    private final ZpArithmetic field;
+    private final FieldContext fieldContext;
+    private final int inputCount;
+    private final int gateCount;
+    private final int constantsStart;   // the slot of the first constant
+    private final int[] constants;
+    private final int[] constantInverses; // 0 for 0, like a division by 0
+    private final byte[] opcodes;
+    private final byte[] flags;
+    private final int[] operandOffsets; // the operands of gate g are operands[operandOffsets[g] .. operandOffsets[g + 1])
+    private final int[] operands;
+    private final int[] outputSlots;    // by output index
+    private final int[] levelOffsets;   // the gates of level l are levelGates[levelOffsets[l] .. levelOffsets[l + 1])
+    private final int[] levelGates;
+    private final int[] levelCommunication; // the first position of the gates of level l that need communication
+    private final int[] levelDeferred;  // the first position of the local gates the communication of level l does not need
+    private final int[] waveEnds;       // by position - the end of the wave of the gate at the position
+
+    public CompiledCircuit(Circuit circuit) {
+        List<Gate> gates = circuit.getGates();
+        this.prime = circuit.p;
+        this.field = ZpArithmetic.getInstance(prime);
+        this.fieldContext = FieldContext.getInstance(prime);
+        this.gateCount = gates.size();
+
+        int maxInput = circuit.getCircuitInputSize() - 1;
+        int operandCount = 0;
+        for (Gate gate : gates) {
+            for (Wire wire : gate.getInputWires()) {
+                if (wire.isInput()) {
+                    maxInput = Math.max(maxInput, wire.getInputIndex());
+                }
+            }
+            operandCount += gate.getInputWires().size();
+        }
+        this.inputCount = maxInput + 1;
+        this.constantsStart = inputCount + gateCount;
+
+        Map<Gate, Integer> gateIndexes = new HashMap<Gate, Integer>();
+        Map<Integer, Integer> constantSlots = new HashMap<Integer, Integer>();
+        List<Integer> constantList = new ArrayList<Integer>();
+        Map<Integer, Integer> outputs = new HashMap<Integer, Integer>();
+        opcodes = new byte[gateCount];
+        flags = new byte[gateCount];
+        operandOffsets = new int[gateCount + 1];
+        operands = new int[operandCount];
+        int offset = 0;
+        for (int g = 0; g < gateCount; g++) {
+            Gate gate = gates.get(g);
+            gateIndexes.put(gate, g);
+            opcodes[g] = getOpcode(gate.getOperation());
+            flags[g] = (byte) ((gate.isPolynomDegreeReducingNeeded() ? REDUCTION_NEEDED : 0)
+                             | (gate.isCommunicationNeeded() ? COMMUNICATION_NEEDED : 0));
+            operandOffsets[g] = offset;
+            for (Wire wire : gate.getInputWires()) {
+                int slot;
+                if (wire.isInput()) {
+                    slot = wire.getInputIndex();
+                } else if (wire.getConstValue() != null) {
+                    int value = wire.getConstValue().getValue();
+                    Integer constantSlot = constantSlots.get(value);
+                    if (constantSlot == null) {
+                        constantSlot = constantsStart + constantList.size();
+                        constantSlots.put(value, constantSlot);
+                        constantList.add(value);
+                    }
+                    slot = constantSlot;
+                } else {
+                    Integer source = gateIndexes.get(wire.getSourceGate());
+                    if (source == null) {
+                        throw new IllegalArgumentException("The gates of the circuit are not in topological order");
+                    }
+                    slot = inputCount + source;
+                }
+                operands[offset++] = slot;
+            }
+            for (Wire wire : gate.getOutputWires()) {
+                if (wire.isOutput()) {
+                    outputs.put(wire.getOutputIndex(), inputCount + g);
+                }
+            }
+        }
+        operandOffsets[gateCount] = offset;
+
+        constants = new int[constantList.size()];
+        constantInverses = new int[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            constants[i] = constantList.get(i);
+            constantInverses[i] = fieldContext.inverse(constants[i]);
+        }
+        outputSlots = new int[outputs.size()];
+        for (int i = 0; i < outputSlots.length; i++) {
+            Integer slot = outputs.get(i);
+            if (slot == null) {
+                throw new IllegalArgumentException("Output " + i + " is missing");
+            }
+            outputSlots[i] = slot;
+        }
+
+        List<List<Gate>> levels = circuit.getMultiplicationLevels();
+        levelOffsets = new int[levels.size() + 1];
+        levelGates = new int[gateCount];
+        levelCommunication = new int[levels.size()];
+        levelDeferred = new int[levels.size()];
+        int[] gateLevels = new int[gateCount];
+        for (int l = 0; l < levels.size(); l++) {
+            for (Gate gate : levels.get(l)) {
+                gateLevels[gateIndexes.get(gate)] = l;
+            }
+        }
+        boolean[] isNeeded = new boolean[gateCount];   // the gate is needed by the communication of its level
+        int position = 0;
+        for (int l = 0; l < levels.size(); l++) {
+            List<Gate> level = levels.get(l);
+            // the gates of a level are in topological order, so a gate is marked before its sources are visited
+            for (int i = level.size() - 1; i >= 0; i--) {
+                int g = gateIndexes.get(level.get(i));
+                isNeeded[g] |= isCommunicationNeeded(g);
+                if (!isNeeded[g]) {
+                    continue;
+                }
+                for (int j = operandOffsets[g]; j < operandOffsets[g + 1]; j++) {
+                    int source = operands[j] - inputCount;
+                    if (source >= 0 && source < gateCount && gateLevels[source] == l) {
+                        isNeeded[source] = true;
+                    }
+                }
+            }
+            levelOffsets[l] = position;
+            for (int pass = 0; pass < 3; pass++) {
+                if (pass == 1) {
+                    levelCommunication[l] = position;
+                } else if (pass == 2) {
+                    levelDeferred[l] = position;
+                }
+                for (Gate gate : level) {
+                    int g = gateIndexes.get(gate);
+                    boolean isCommunication = isCommunicationNeeded(g);
+                    if ((pass == 0 && isNeeded[g] && !isCommunication) || (pass == 1 && isCommunication) || (pass == 2 && !isNeeded[g])) {
+                        levelGates[position++] = g;
+                    }
+                }
+            }
+        }
+        levelOffsets[levels.size()] = position;
+
+        waveEnds = new int[gateCount];
+        for (int l = 0; l < levels.size(); l++) {
+            orderWaves(levelOffsets[l], levelCommunication[l], gateLevels);
+            for (int p = levelCommunication[l]; p < levelDeferred[l]; p++) {
+                waveEnds[p] = p + 1;
+            }
+            orderWaves(levelDeferred[l], levelOffsets[l + 1], gateLevels);
+        }
+    }
+
+    /* Orders the local gates at the positions from .. to-1 by their depth in the run - the number of gates of the run on
+     * the longest path to them. A gate only reads gates of a smaller depth, so the order stays topological and the gates
+     * of the same depth are a wave */
+    private void orderWaves(int from, int to, int[] gateLevels) {
+        int[] depths = new int[to - from];
+        Map<Integer, Integer> runPositions = new HashMap<Integer, Integer>();
+        int maxDepth = 0;
+        for (int p = from; p < to; p++) {
+            int g = levelGates[p];
+            for (int j = operandOffsets[g]; j < operandOffsets[g + 1]; j++) {
+                Integer source = runPositions.get(operands[j] - inputCount);
+                if (source != null) {
+                    depths[p - from] = Math.max(depths[p - from], depths[source] + 1);
+                }
+            }
+            runPositions.put(g, p - from);
+            maxDepth = Math.max(maxDepth, depths[p - from]);
+        }
+        int[] run = Arrays.copyOfRange(levelGates, from, to);
+        int position = from;
+        for (int depth = 0; depth <= maxDepth && from < to; depth++) {
+            int waveStart = position;
+            for (int i = 0; i < run.length; i++) {
+                if (depths[i] == depth) {
+                    levelGates[position++] = run[i];
+                }
+            }
+            for (int p = waveStart; p < position; p++) {
+                waveEnds[p] = position;
+            }
+        }
+    }
+
+    private static byte getOpcode(Operation operation) {
+        switch (operation) {
+            case ADD:
+                return OP_ADD;
+            case SUB:
+                return OP_SUB;
+            case MUL:
+                return OP_MUL;
+            case DIV:
+                return OP_DIV;
+            case NORMALIZE:
+                return OP_NORMALIZE;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    public int getPrime() {
+        return prime;
+    }
+
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    public int getGateCount() {
+        return gateCount;
+    }
+
+    public int getOutputCount() {
+        return outputSlots.length;
+    }
+
+    /* The slots of a calculation, with the constants in place */
+    public int[] newValues() {
+        return newValues(1);
+    }
+
+    /* The slots of a calculation of batchSize instances, with the constants in place */
+    public int[] newValues(int batchSize) {
+        int[] values = new int[(constantsStart + constants.length) * batchSize];
+        for (int i = 0; i < constants.length; i++) {
+            int index = (constantsStart + i) * batchSize;
+            Arrays.fill(values, index, index + batchSize, constants[i]);
+        }
+        return values;
+    }
+
+    /* The index of the value of a slot in an instance of a batch */
+    public static int getIndex(int slot, int batchSize, int instance) {
+        return slot * batchSize + instance;
+    }
+
+    /* Copies the inputs (shares or plain values) to their slots. A missing input is 0 */
+    public void setInputs(int[] values, List<Zp> inputs) {
+        if (inputs.size() < inputCount) {
+            throw new RuntimeException("Input " + (inputCount - 1) + " is expected - not found in the list given");
+        }
+        for (int i = 0; i < inputCount; i++) {
+            Zp input = inputs.get(i);
+            values[i] = input == null ? 0 : input.getValue();
+        }
+    }
+
+    public int getOutputSlot(int output) {
+        return outputSlots[output];
+    }
+
+    public int getOutputValue(int[] values, int output) {
+        return values[outputSlots[output]];
+    }
+
+    public Map<Integer, Zp> getOutputs(int[] values) {
+        Map<Integer, Zp> result = new HashMap<Integer, Zp>();
+        for (int i = 0; i < outputSlots.length; i++) {
+            result.put(i, new Zp(prime, values[outputSlots[i]]));
+        }
+        return result;
+    }
+
+    /* ---- the gates ---- */
+
+    public int getLevelCount() {
+        return levelOffsets.length - 1;
+    }
+
+    public int getLevelStart(int level) {
+        return levelOffsets[level];
+    }
+
+    public int getLevelEnd(int level) {
+        return levelOffsets[level + 1];
+    }
+
+    /* The gates from the level start to this position are local, and from here to getLevelDeferredStart they need communication */
+    public int getLevelCommunicationStart(int level) {
+        return levelCommunication[level];
+    }
+
+    /* The gates from this position to the end of the level are local gates the communication of the level does not need */
+    public int getLevelDeferredStart(int level) {
+        return levelDeferred[level];
+    }
+
+    /* The end of the wave of the local gate at a position - the gates from the position to the end do not read each other */
+    public int getWaveEnd(int position) {
+        return waveEnds[position];
+    }
+
+    /* The gate at a position of the level order (see getLevelStart) */
+    public int getLevelGate(int position) {
+        return levelGates[position];
+    }
+
+    public byte getOpcode(int gate) {
+        return opcodes[gate];
+    }
+
+    public boolean isReductionNeeded(int gate) {
+        return (flags[gate] & REDUCTION_NEEDED) != 0;
+    }
+
+    public boolean isCommunicationNeeded(int gate) {
+        return (flags[gate] & COMMUNICATION_NEEDED) != 0;
+    }
+
+    public int getGateSlot(int gate) {
+        return inputCount + gate;
+    }
+
+    public int getOperandCount(int gate) {
+        return operandOffsets[gate + 1] - operandOffsets[gate];
+    }
+
+    public int getOperandSlot(int gate, int operand) {
+        return operands[operandOffsets[gate] + operand];
+    }
+
+    public boolean isConstantSlot(int slot) {
+        return slot >= constantsStart;
+    }
+
+    /* The inverse of a constant, or 0 for 0 */
+    public int getConstantInverse(int slot) {
+        return constantInverses[slot - constantsStart];
+    }
+
+    /* ---- local calculation ---- */
+
+    /* Calculates all the gates in the clear - the calculation of Circuit.internalCalculate */
+    public void calculate(int[] values) {
+        for (int g = 0; g < gateCount; g++) {
+            calculateGate(g, values, 1);
+        }
+    }
+
+    /* The outputs of the circuit for the given inputs, in the clear */
+    public int[] calculate(int[] inputs, int[] values) {
+        System.arraycopy(inputs, 0, values, 0, inputCount);
+        calculate(values);
+        int[] results = new int[outputSlots.length];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = values[outputSlots[i]];
+        }
+        return results;
+    }
+
+    /* Calculates a gate for a batch from the values of its operands. Divisors are inverted locally (0 for 0),
+     * so for shares this is right only if the divisors are constants; a product of shares still needs its reduction */
+    public void calculateGate(int gate, int[] values, int batchSize) {
+        calculateGate(gate, values, batchSize, 0, batchSize);
+    }
+
+    /* Calculates a gate for the instances from .. to-1 of the batch only */
+    public void calculateGate(int gate, int[] values, int batchSize, int from, int to) {
+        int start = operandOffsets[gate];
+        int end = operandOffsets[gate + 1];
+        int out = (inputCount + gate) * batchSize;
+        System.arraycopy(values, operands[start] * batchSize + from, values, out + from, to - from);
+        byte opcode = opcodes[gate];
+        if (opcode == OP_NORMALIZE) {
+            for (int k = from; k < to; k++) {
+                values[out + k] = values[out + k] == 0 ? 0 : 1;
+            }
+            return;
+        }
+        for (int i = start + 1; i < end; i++) {
+            int slot = operands[i];
+            int in = slot * batchSize;
+            switch (opcode) {
+                case OP_ADD:
+                    for (int k = from; k < to; k++) {
+                        values[out + k] = field.add(values[out + k], values[in + k]);
+                    }
+                    break;
+                case OP_SUB:
+                    for (int k = from; k < to; k++) {
+                        values[out + k] = field.sub(values[out + k], values[in + k]);
+                    }
+                    break;
+                case OP_MUL:
+                    for (int k = from; k < to; k++) {
+                        values[out + k] = field.mul(values[out + k], values[in + k]);
+                    }
+                    break;
+                case OP_DIV:
+                    if (slot >= constantsStart) {
+                        int inverse = constantInverses[slot - constantsStart];
+                        for (int k = from; k < to; k++) {
+                            values[out + k] = field.mul(values[out + k], inverse);
+                        }
+                    } else {
+                        for (int k = from; k < to; k++) {
+                            int divisor = values[in + k];
+                            values[out + k] = field.mul(values[out + k], fieldContext.inverse(divisor));
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown opcode " + opcode);
+            }
+        }
+    }
+
+    /* The product of the operands of a gate in an instance of a batch. For a DIV gate the shared divisors are
+     * replaced by their inverses - the inverse of shared divisor d of the gate is
+     * inverses[inverseOffset + d * batchSize + instance] */
+    public int multiplyOperands(int gate, int[] values, int batchSize, int instance, int[] inverses, int inverseOffset) {
+        int start = operandOffsets[gate];
+        int end = operandOffsets[gate + 1];
+        int result = values[operands[start] * batchSize + instance];
+        boolean isDivision = opcodes[gate] == OP_DIV;
+        int divisor = 0;
+        for (int i = start + 1; i < end; i++) {
+            int slot = operands[i];
+            int operand;
+            if (!isDivision) {
+                operand = values[slot * batchSize + instance];
+            } else if (slot >= constantsStart) {
+                operand = constantInverses[slot - constantsStart];
+            } else {
+                operand = inverses[inverseOffset + (divisor++) * batchSize + instance];
+            }
+            result = field.mul(result, operand);
+        }
+        return result;
+    }
+}
@@ -6,13 +6,11 @@
 package mpc.circuit;
 
 import mpc.protocols.MPCProtocol;
-import mpc.protocols.MPCProtocolByzantineCase;
 import mpc.finite_field_math.Zp;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import mpc.protocols.MPCProtocolMultStepCheaterPlayer;
 
 
 public class Gate {
@@ -37,7 +35,8 @@ public class Gate {
         MUL("*"),
         ADD("+"),
         DIV("/"),
-        SUB("-");
+        SUB("-"),
+        NORMALIZE("!=0");  // a single input - 1 if it is not 0, or 0 if it is. Used for conditions
         private String displayName;
         private Operation(String displayName) {
             this.displayName = displayName;
@@ -74,6 +73,10 @@ public class Gate {
         return outputValue;
     }
 
+    public void setOutputValue(Zp outputValue) {
+        this.outputValue = outputValue;
+    }
+
     public void deleteOutputValue() {
         this.outputValue = null;
     }
@@ -82,6 +85,44 @@ public class Gate {
             
     //inputs are all the inputs to the circuit. Gate should know to choose the inputs it needs.
     public Zp calculate(List<Zp> inputs, MPCProtocol protocol, String gatePrefix) throws IOException{
+        calculateBeforeReduction(inputs, protocol, gatePrefix);
+        if (isPolynomDegreeReducingNeeded()){
+                        outputValue = protocol.reductionRandomizationStep(outputValue);
+        }
+        return outputValue;
+    }
+
+    /* Calculates the gate without the degree reduction step, so the reduction of several gates
+     * can be done together - the caller must set the reduced value with setOutputValue */
+    public Zp calculateBeforeReduction(List<Zp> inputs, MPCProtocol protocol, String gatePrefix) throws IOException{
+        return calculateFromOperands(calculateOperands(inputs, protocol, gatePrefix));
+    }
+
+    /* The values the gate operates on - for a DIV gate the divisors are replaced by their inverses,
+     * so the gate is a multiplication of the operands. The inverses are calculated by the players together. */
+    public List<Zp> calculateOperands(List<Zp> inputs, MPCProtocol protocol, String gatePrefix) throws IOException{
+        List<Zp> values = getInputValues(inputs);
+        List<Zp> operands = new ArrayList<Zp>(values.size());
+        if (operation == Operation.NORMALIZE){
+            // x^(p-1) - for p = 2 that is x itself
+            Zp value = values.get(0);
+            operands.add(p == 2 ? new Zp(value) : new Zp(p, createSubProtocol(protocol, Circuit.getNormalizationExponentialCircuit(p)).calculate(value, true, gatePrefix).get(0).getValue()));
+            return operands;
+        }
+        operands.add(new Zp(values.get(0)));
+        for (Zp value : values.subList(1, values.size())) {
+            if (operation == Operation.DIV){
+                MPCProtocol divProtocol = createSubProtocol(protocol, Circuit.getDivisionExponentialCircuit(p));
+                operands.add(new Zp(p, divProtocol.calculate(value, true, gatePrefix).get(0).getValue()));
+            }else{
+                operands.add(new Zp(p, value.getValue()));
+            }
+        }
+        return operands;
+    }
+
+    /* The values on the input wires, in order */
+    public List<Zp> getInputValues(List<Zp> inputs){
         List<Zp> values = new ArrayList<Zp>();
         for (Wire wire : inputWires){
             if (wire.isInput()){
@@ -94,28 +135,19 @@ public class Gate {
                 values.add(wire.getConstValue() != null ? wire.getConstValue() : wire.getSourceGate().getOutputValue());
             }
         }
-        outputValue = new Zp(values.get(0));
-        values.remove( 0 );
+        return values;
+    }
 
-        for (Zp value : values) {
-            Zp currValue;
-            if (operation == Operation.DIV){
-                MPCProtocol divProtocol;
-                if (protocol  instanceof  MPCProtocolMultStepCheaterPlayer) {
-                        divProtocol = new MPCProtocolMultStepCheaterPlayer((MPCProtocolMultStepCheaterPlayer) protocol, Circuit.getDivisionExponentialCircuit(p));
-                } else if (protocol  instanceof MPCProtocolByzantineCase){
-                        divProtocol = new MPCProtocolByzantineCase((MPCProtocolByzantineCase) protocol, Circuit.getDivisionExponentialCircuit(p));
-                }else{
-                        divProtocol = new MPCProtocol(protocol, Circuit.getDivisionExponentialCircuit(p));
-                }
-                currValue = new Zp(p, divProtocol.calculate(value, true, gatePrefix).get(0).getValue());
-            }else{
-                currValue = new Zp(p, value.getValue());
-            }
-            outputValue.Calculate(currValue, operation == Operation.DIV ? Operation.MUL : operation);
-        }        
-        if (isPolynomDegreeReducingNeeded()){
-                        outputValue = protocol.reductionRandomizationStep(outputValue);
+    /* A protocol of the same kind as protocol for a sub circuit (the exponent circuits of DIV and NORMALIZE) */
+    private MPCProtocol createSubProtocol(MPCProtocol protocol, Circuit circuit){
+        return protocol.createSubProtocol(circuit);
+    }
+
+    /* Calculates the gate locally from its operands (see calculateOperands) */
+    public Zp calculateFromOperands(List<Zp> operands){
+        outputValue = new Zp(operands.get(0));
+        for (Zp operand : operands.subList(1, operands.size())) {
+            outputValue.Calculate(operand, operation == Operation.DIV ? Operation.MUL : operation);
         }
         return outputValue;
     }
@@ -124,17 +156,10 @@ public class Gate {
 
         //inputs are all the inputs to the circuit. Gate should know to choose the inputs it needs. - for internal use only
     public Zp internalCalculate(List<Zp> inputs)  {
-        List<Zp> values = new ArrayList<Zp>();
-        for (Wire wire : inputWires){
-            if (wire.isInput()){
-                if (inputs.size() <= wire.getInputIndex()){
-                    throw new RuntimeException("Input " + wire.getInputIndex() + " is expected - not found in the list given");
-                }
-                values.add(inputs.get(wire.getInputIndex()));
-            }else{
-                assert wire.getSourceGate() != null && wire.getSourceGate().isOutputReady();
-                values.add(wire.getConstValue() != null ? wire.getConstValue() : wire.getSourceGate().getOutputValue());
-            }
+        List<Zp> values = getInputValues(inputs);
+        if (operation == Operation.NORMALIZE){
+            outputValue = new Zp(p, values.get(0).getValue() == 0 ? 0 : 1);
+            return outputValue;
         }
         outputValue = new Zp(values.get(0));
         values.remove( 0 );
@@ -164,6 +189,25 @@ public class Gate {
         return false;
     }
 
+    /* True if calculating the gate needs the players to communicate - a degree reduction, an inversion
+     * of a shared divisor or a normalization */
+    public boolean isCommunicationNeeded(){
+        if (isPolynomDegreeReducingNeeded()){
+            return true;
+        }
+        if (operation == Operation.NORMALIZE){
+            return inputWires.get(0).getConstValue() == null;
+        }
+        if (operation == Operation.DIV){
+            for (Wire wire : inputWires.subList(1, inputWires.size())){
+                if (wire.getConstValue() == null){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     public List<Wire> getInputWires() {
         return inputWires;
     }
@@ -0,0 +1,239 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.circuit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import mpc.compiler.Parser;
+import mpc.finite_field_math.Zp;
+
+/**
+ * <p>
+ * Calculates runs of local gates of a compiled circuit (see CompiledCircuit.getLevelCommunicationStart) on the threads of
+ * an executor. The instances of a batch are independent, so a batch with enough instances is split by instances - every
+ * task calculates all the gates of the run for its part of the batch. A smaller batch is split by gates, one wave at a
+ * time (see CompiledCircuit.getWaveEnd). Work too small to pay for the tasks is done on the calling thread.
+ * </p>
+ * <p>
+ * The calling thread may be given a Poller to run between the gates it calculates and while it waits for the tasks -
+ * e.g. to add up the shares of a reduction step that arrive meanwhile.
+ * </p>
+ * <p>
+ * The tasks only calculate, so one evaluator may be shared by several calculations (e.g. all the players of a
+ * simulation), but it must not be used from the threads of its own executor.
+ * </p>
+ */
+public final class ParallelGateEvaluator {
+
+    /* The fewest values (gates times instances) a task calculates */
+    public static final int MIN_TASK_VALUES = 4096;
+
+    /* How long the calling thread waits for a task before it polls again */
+    private static final long POLL_INTERVAL_MICROS = 100;
+
+    /* Work the calling thread does while the local gates are calculated. Must not block */
+    public interface Poller {
+        void poll() throws IOException;
+    }
+
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    public ParallelGateEvaluator(ExecutorService executor, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Illegal parallelism " + parallelism);
+        }
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    public ParallelGateEvaluator(ForkJoinPool pool) {
+        this(pool, pool.getParallelism());
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /* Calculates the local gates at the positions from .. to-1 of the level order (see CompiledCircuit.getLevelGate) */
+    public void calculate(CompiledCircuit compiled, int[] values, int batchSize, int from, int to) {
+        try {
+            calculate(compiled, values, batchSize, from, to, null);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);    // only a poller throws
+        }
+    }
+
+    /* Calculates the local gates at the positions from .. to-1 of the level order, and polls (if not null) after every
+     * gate calculated on the calling thread and while waiting for the tasks */
+    public void calculate(final CompiledCircuit compiled, final int[] values, final int batchSize, final int from, final int to,
+            Poller poller) throws IOException {
+        int tasks = getTaskCount((long) (to - from) * batchSize);
+        if (tasks < 2) {
+            calculateSerially(compiled, values, batchSize, from, to, poller);
+            return;
+        }
+        List<Callable<Void>> parts = new ArrayList<Callable<Void>>();
+        if (batchSize >= tasks) {
+            for (int t = 0; t < tasks; t++) {
+                final int first = (int) ((long) batchSize * t / tasks);
+                final int last = (int) ((long) batchSize * (t + 1) / tasks);
+                parts.add(new Callable<Void>() {
+                    public Void call() {
+                        for (int position = from; position < to; position++) {
+                            compiled.calculateGate(compiled.getLevelGate(position), values, batchSize, first, last);
+                        }
+                        return null;
+                    }
+                });
+            }
+            run(parts, poller);
+            return;
+        }
+        for (int position = from; position < to; ) {
+            int waveEnd = compiled.getWaveEnd(position);
+            int waveTasks = getTaskCount((long) (waveEnd - position) * batchSize);
+            if (waveTasks < 2) {
+                calculateSerially(compiled, values, batchSize, position, waveEnd, poller);
+                position = waveEnd;
+                continue;
+            }
+            parts.clear();
+            for (int t = 0; t < waveTasks; t++) {
+                final int first = position + (waveEnd - position) * t / waveTasks;
+                final int last = position + (waveEnd - position) * (t + 1) / waveTasks;
+                parts.add(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        calculateSerially(compiled, values, batchSize, first, last, null);
+                        return null;
+                    }
+                });
+            }
+            run(parts, poller);
+            position = waveEnd;
+        }
+    }
+
+    private int getTaskCount(long valueCount) {
+        return (int) Math.min(parallelism, valueCount / MIN_TASK_VALUES);
+    }
+
+    private static void calculateSerially(CompiledCircuit compiled, int[] values, int batchSize, int from, int to,
+            Poller poller) throws IOException {
+        for (int position = from; position < to; position++) {
+            compiled.calculateGate(compiled.getLevelGate(position), values, batchSize);
+            if (poller != null) {
+                poller.poll();
+            }
+        }
+    }
+
+    /* Runs the tasks and waits for all of them, polling meanwhile - the writes of the tasks are seen by the caller when
+     * it returns. If the poller throws, the tasks that did not start yet are cancelled */
+    private void run(List<Callable<Void>> parts, Poller poller) throws IOException {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(parts.size());
+        try {
+            for (Callable<Void> part : parts) {
+                futures.add(executor.submit(part));
+            }
+            for (Future<Void> future : futures) {
+                if (poller == null) {
+                    future.get();
+                    continue;
+                }
+                while (true) {
+                    poller.poll();
+                    try {
+                        future.get(POLL_INTERVAL_MICROS, TimeUnit.MICROSECONDS);
+                        break;
+                    } catch (TimeoutException ex) {
+                        // the task is still running
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while calculating the local gates", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /* Compares the split by instances (a large batch) and the split by waves (a small batch) to the serial calculation,
+     * on a circuit with thousands of independent local gates around a product */
+    public static void main(String[] args) throws Exception {
+        int prime = 65521, parallelism = 4, lines = 3000;
+        StringBuilder text = new StringBuilder("Inputs=a,b,c\nOutputs=x");
+        for (int i = 0; i < lines; i++) {
+            text.append(",l").append(i);
+        }
+        text.append("\nx=a*b*c");
+        for (int i = 0; i < lines; i++) {
+            text.append("\nl").append(i).append("=a*").append(i + 2).append("+b-c");
+        }
+        Parser parser = new Parser(text.toString(), prime);
+        parser.parse();
+        CompiledCircuit compiled = new CompiledCircuit(parser.getCircuit());
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        ParallelGateEvaluator evaluator = new ParallelGateEvaluator(pool);
+        final int[] polls = new int[1];
+        Poller poller = new Poller() {
+            public void poll() {
+                polls[0]++;
+            }
+        };
+        try {
+            for (int batchSize : new int[] {64, 3}) {     // 64 >= parallelism - by instances, 3 < parallelism - by waves
+                int[] expected = compiled.newValues(batchSize);
+                for (int k = 0; k < batchSize; k++) {
+                    for (int i = 0; i < compiled.getInputCount(); i++) {
+                        expected[CompiledCircuit.getIndex(i, batchSize, k)] = new Zp(prime, (int) (Math.random() * prime)).getValue();
+                    }
+                }
+                int[] values = Arrays.copyOf(expected, expected.length);
+                for (int g = 0; g < compiled.getGateCount(); g++) {
+                    compiled.calculateGate(g, expected, batchSize);
+                }
+                polls[0] = 0;
+                for (int level = 0; level < compiled.getLevelCount(); level++) {
+                    int communicationStart = compiled.getLevelCommunicationStart(level);
+                    int deferredStart = compiled.getLevelDeferredStart(level);
+                    evaluator.calculate(compiled, values, batchSize, compiled.getLevelStart(level), communicationStart);
+                    calculateSerially(compiled, values, batchSize, communicationStart, deferredStart, null);
+                    evaluator.calculate(compiled, values, batchSize, deferredStart, compiled.getLevelEnd(level), poller);
+                }
+                if (!Arrays.equals(values, expected)) {
+                    System.out.println("FAILED - the parallel calculation of a batch of " + batchSize + " differs from the serial one");
+                    return;
+                }
+                if (polls[0] == 0) {
+                    System.out.println("FAILED - no polls while calculating a batch of " + batchSize);
+                    return;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println("Test Ended");
+    }
+}
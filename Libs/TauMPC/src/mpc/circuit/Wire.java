@@ -122,7 +122,9 @@ public class Wire {
     @Override
     public Wire clone(){
         Wire wire = new Wire(inputIndex, outputIndex);
-        wire.setSourceGate(sourceGate);
+        if (inputIndex == null){   // an input wire has no source gate
+            wire.setSourceGate(sourceGate);
+        }
         wire.setTargetGate(targetGate);     
         wire.setConstValue(constValue);
         if (wire.getSourceGate() != null){
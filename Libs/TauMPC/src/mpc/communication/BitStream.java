@@ -6,7 +6,6 @@
 package mpc.communication;
 
 import mpc.finite_field_math.Zp;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -25,16 +24,25 @@ public class BitStream {
     public static final int BOOLEAN_LENGTH = 1;    
     public static final int STRING_LENGTH = 8;
     public static final int LIST_LENGTH = 7;//2^(LIST_LENGTH-1) should be the maximal legnth of a list
-    public static final int LENGTH_OF_SECRET = 16;
     public static final int LENGTH_OF_GATE_INDEX = 16;  
     public static final int MESSAGE_TYPE_LENGTH = 6;
     
-    ByteArrayOutputStream outputStream = null;
-    ByteArrayInputStream inputStream = null;
+    /* Version 1 wrote lengths in fixed width fields (LIST_LENGTH bits for a list of secrets). Version 2 writes
+     * them as varints and marks the message type with the top bit of the type field, so both can be decoded.
+     * Version 2 also packs lists of secrets byte aligned (see writeList) */
+    public static final int LEGACY_FORMAT_VERSION = 1;
+    public static final int FORMAT_VERSION = 2;
+    private static final int FORMAT_VERSION_2_FLAG = 1 << (MESSAGE_TYPE_LENGTH - 1);
+    private static final int VARINT_GROUP_LENGTH = 7;
+    
+    private byte[] outputBuffer = null;
+    private int outputLength = 0;
+    private byte[] inputBuffer = null;
     private int offset;
     private int offsetLength = 0;
     private final int inputLength;
     private int readPos = 0;
+    private int formatVersion = FORMAT_VERSION;
     public static final int[] masks; 
 
     static {
@@ -55,55 +63,47 @@ public class BitStream {
     }
     
     public BitStream() {
-        outputStream = new ByteArrayOutputStream();
+        outputBuffer = new byte[32];
         inputLength = 0;
     }
     
      public BitStream(byte[] bytes) {
-        inputStream = new ByteArrayInputStream(bytes);
+        inputBuffer = bytes;
         inputLength = bytes.length;
     }
     
     private void checkWrite(boolean write) throws IOException {
-        if (write && outputStream == null || !write && inputStream == null) {
+        if (write && outputBuffer == null || !write && inputBuffer == null) {
             throw new IOException("Invalid operation");
         }
     }
     
-    private int getPosition()
-    {
-        return inputLength - inputStream.available();
+    private void ensureOutputCapacity(int bytesToAdd) {
+        if (outputLength + bytesToAdd > outputBuffer.length) {
+            byte[] newBuffer = new byte[Math.max(2 * outputBuffer.length, outputLength + bytesToAdd)];
+            System.arraycopy(outputBuffer, 0, newBuffer, 0, outputLength);
+            outputBuffer = newBuffer;
+        }
     }
 
+    /* Writes the lengthInBits (at most 32) low bits of numToWrite, most significant bit first */
     public void writeInt(int numToWrite, int lengthInBits){
-  //      assert 0 <= lengthInBits && lengthInBits <= 32;
-        if (lengthInBits + offsetLength < 8){ //Not enough bits to create new Byte. Adding the new bits to the offset
-            offset =  ((offset << lengthInBits) | (numToWrite & masks[lengthInBits]));
-            offsetLength += lengthInBits;
-            return;
+        long bits = ((long) offset << lengthInBits) | (numToWrite & 0xFFFFFFFFL & ((1L << lengthInBits) - 1));
+        int bitsLength = offsetLength + lengthInBits;
+        ensureOutputCapacity(bitsLength / BYTE_LENGTH);
+        while (bitsLength >= BYTE_LENGTH) {
+            bitsLength -= BYTE_LENGTH;
+            outputBuffer[outputLength++] = (byte) (bits >>> bitsLength);
+        }
+        offset = (int) bits & masks[bitsLength];
+        offsetLength = bitsLength;
+    }
+    
+    /* Pads with zero bits up to the next byte */
+    public void alignToByte() {
+        if (offsetLength > 0) {
+            writeInt(0, BYTE_LENGTH - offsetLength);
         }
-        //first take 8 bits from the numToWrite (or less if lengthInBits < 8)
-        int firstByte = lengthInBits <= 8 ? (numToWrite & masks[lengthInBits]) << (8 - lengthInBits) : (numToWrite >> (lengthInBits - 8)) & masks[8];
-        int numOfBitsToWrite = 8 - offsetLength;
-
-        //move the bits to write from the number to the right (by offsetLength)
-        int toWriteFromInput = ((firstByte >> offsetLength) & masks[numOfBitsToWrite]);
-
-        //prepare the byte to write. Contains the offset and the new bits from numToWrite
-        int toWrite = ((offset << (8 - offsetLength)) | toWriteFromInput);
-        outputStream.write(toWrite);
-
-        //calculate the new offsetLength
-        offsetLength = lengthInBits > 8 ? offsetLength : lengthInBits + offsetLength - 8;
-
-        //calculate the new offset. Should be composed of all the bits we did not write from firstByte
-        offset = (firstByte >> (8 - (numOfBitsToWrite + offsetLength))) & masks[offsetLength];
-
-        //create the new numToWrite for the recursive call.
-        numToWrite = numToWrite & masks[lengthInBits - numOfBitsToWrite];
-
-        //do recursive call to continue writing
-        writeInt(numToWrite, Math.max(lengthInBits - 8, 0));
     }
     
     public void writeBoolean(boolean b) {
@@ -116,7 +116,39 @@ public class BitStream {
     }
     
     public void writeMessageType(MessageType messageType){
-        writeInt(messageType.code, MESSAGE_TYPE_LENGTH);        
+        writeInt(formatVersion >= FORMAT_VERSION ? messageType.code | FORMAT_VERSION_2_FLAG : messageType.code, MESSAGE_TYPE_LENGTH);
+    }
+
+    public int getFormatVersion() {
+        return formatVersion;
+    }
+
+    /* Set before writing to talk to a peer that only reads the legacy format. When reading, the version is taken from the message type */
+    public void setFormatVersion(int formatVersion) {
+        if (formatVersion != LEGACY_FORMAT_VERSION && formatVersion != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown format version " + formatVersion);
+        }
+        this.formatVersion = formatVersion;
+    }
+
+    /* A length - legacyLengthInBits wide in the legacy format, otherwise a varint of 7 bit groups, each preceded by a "more groups" bit */
+    public void writeLength(int length, int legacyLengthInBits) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length " + length);
+        }
+        if (formatVersion == LEGACY_FORMAT_VERSION) {
+            if (length >= (1 << legacyLengthInBits)) {
+                throw new IllegalArgumentException("Length " + length + " does not fit in the legacy format (" + legacyLengthInBits + " bits)");
+            }
+            writeInt(length, legacyLengthInBits);
+            return;
+        }
+        do {
+            int group = length & masks[VARINT_GROUP_LENGTH];
+            length >>>= VARINT_GROUP_LENGTH;
+            writeBoolean(length != 0);
+            writeInt(group, VARINT_GROUP_LENGTH);
+        } while (length != 0);
     }
 
        public void writeString(String st) {
@@ -139,19 +171,103 @@ public class BitStream {
     }
 
     public void writeBytes(byte[] bytes) {
+        if (offsetLength == 0) {
+            ensureOutputCapacity(bytes.length);
+            System.arraycopy(bytes, 0, outputBuffer, outputLength, bytes.length);
+            outputLength += bytes.length;
+            return;
+        }
         for (int i = 0; i < bytes.length; i++) {
             writeByte(bytes[i]);
         }
     }
     
+    /* Number of bits needed for an element of Z_prime */
+    public static int getSecretLength(int prime){
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(prime - 1));
+    }
+
+    /* Number of bytes of an element of Z_prime in the packed encoding */
+    public static int getSecretWordLength(int prime){
+        return (getSecretLength(prime) + BYTE_LENGTH - 1) / BYTE_LENGTH;
+    }
+
+    public void writeSecret(Zp zp){
+        writeInt(zp.getValue(), getSecretLength(zp.prime));
+    }
+
+    /* In the legacy format every secret is preceded by a "not null" bit. Otherwise a "has nulls" bit, then
+     * (byte aligned) a bitmap of the non null entries if there are nulls, then the non null secrets packed */
     public void writeList(List<Zp> valuesToWrite){
-        writeInt(valuesToWrite.size(), LIST_LENGTH);
-        for(Zp zp : valuesToWrite){
-            writeBoolean(zp != null);
-            if(zp != null){
-                writeInt(zp.getValue(), LENGTH_OF_SECRET);                
-            }            
-        }       
+        writeLength(valuesToWrite.size(), LIST_LENGTH);
+        if (formatVersion == LEGACY_FORMAT_VERSION) {
+            for(Zp zp : valuesToWrite){
+                writeBoolean(zp != null);
+                if(zp != null){
+                    writeSecret(zp);                
+                }            
+            }
+            return;
+        }
+        int prime = 0;
+        int nonNulls = 0;
+        for (Zp zp : valuesToWrite) {
+            if (zp != null) {
+                prime = zp.prime;
+                nonNulls++;
+            }
+        }
+        boolean hasNulls = nonNulls < valuesToWrite.size();
+        writeBoolean(hasNulls);
+        alignToByte();
+        if (hasNulls) {
+            byte[] bitmap = new byte[(valuesToWrite.size() + BYTE_LENGTH - 1) / BYTE_LENGTH];
+            for (int i = 0; i < valuesToWrite.size(); i++) {
+                if (valuesToWrite.get(i) != null) {
+                    bitmap[i / BYTE_LENGTH] |= 1 << (i % BYTE_LENGTH);
+                }
+            }
+            writeBytes(bitmap);
+        }
+        if (nonNulls > 0) {
+            int[] values = new int[nonNulls];
+            int i = 0;
+            for (Zp zp : valuesToWrite) {
+                if (zp != null) {
+                    values[i++] = zp.getValue();
+                }
+            }
+            writeSecrets(values, values.length, prime);
+        }
+    }
+
+    /* Packed encoding of a vector of secrets without nulls */
+    public void writeSecrets(List<Zp> values){
+        int[] ints = new int[values.size()];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = values.get(i).getValue();
+        }
+        alignToByte();
+        if (ints.length > 0) {
+            writeSecrets(ints, ints.length, values.get(0).prime);
+        }
+    }
+
+    /* Packed encoding of field elements - aligned to a byte, then each value as a little-endian word of getSecretWordLength(prime) bytes */
+    public void writeSecrets(int[] values, int count, int prime){
+        alignToByte();
+        int wordLength = getSecretWordLength(prime);
+        ensureOutputCapacity(count * wordLength);
+        byte[] buffer = outputBuffer;
+        int position = outputLength;
+        for (int i = 0; i < count; i++) {
+            int value = values[i];
+            for (int k = 0; k < wordLength; k++) {
+                buffer[position++] = (byte) value;
+                value >>>= BYTE_LENGTH;
+            }
+        }
+        outputLength = position;
     }
     
 
@@ -177,6 +293,13 @@ public class BitStream {
     }
 
     public byte[] readBytes(int numberOfBytes) throws IOException {
+        checkWrite(false);
+        if (readPos % BYTE_LENGTH == 0 && numberOfBytes <= inputLength - readPos / BYTE_LENGTH) {
+            byte[] bytes = new byte[numberOfBytes];
+            System.arraycopy(inputBuffer, readPos / BYTE_LENGTH, bytes, 0, numberOfBytes);
+            readPos += numberOfBytes * BYTE_LENGTH;
+            return bytes;
+        }
         byte[] bytes = new byte[numberOfBytes];
         for (int i = 0; i < numberOfBytes; i++) {
             bytes[i] = readByte();
@@ -185,22 +308,96 @@ public class BitStream {
     }
     
     public MessageType readMessageType() throws IOException{
-        return MessageType.getByCode(readInt(MESSAGE_TYPE_LENGTH));
+        int code = readInt(MESSAGE_TYPE_LENGTH);
+        formatVersion = (code & FORMAT_VERSION_2_FLAG) != 0 ? FORMAT_VERSION : LEGACY_FORMAT_VERSION;
+        return MessageType.getByCode(code & ~FORMAT_VERSION_2_FLAG);
+    }
+
+    public int readLength(int legacyLengthInBits) throws IOException{
+        if (formatVersion == LEGACY_FORMAT_VERSION) {
+            return readInt(legacyLengthInBits);
+        }
+        int length = 0;
+        for (int shift = 0; ; shift += VARINT_GROUP_LENGTH) {
+            boolean hasMoreGroups = readBoolean();
+            int group = readInt(VARINT_GROUP_LENGTH);
+            if (shift >= Integer.SIZE || shift > Integer.SIZE - 1 - VARINT_GROUP_LENGTH && (group >>> (Integer.SIZE - 1 - shift)) != 0) {
+                throw new IOException("Length is too long");
+            }
+            length |= group << shift;
+            if (!hasMoreGroups) {
+                return length;
+            }
+        }
     }
     
+    public Zp readSecret(int prime) throws IOException{
+        return new Zp(prime, readInt(getSecretLength(prime)));
+    }
+
     public List<Zp> readList(int prime) throws IOException{
-        int length = readInt(LIST_LENGTH);
+        int length = readLength(LIST_LENGTH);
         List<Zp> valuesRead = new ArrayList<Zp>();
-        for (int i = 0; i < length; i++){
-            if (readBoolean()){
-                valuesRead.add(new Zp(prime, readInt(LENGTH_OF_SECRET)));                                        
-            }else{
+        if (formatVersion == LEGACY_FORMAT_VERSION) {
+            for (int i = 0; i < length; i++){
+                if (readBoolean()){
+                    valuesRead.add(readSecret(prime));                                        
+                }else{
+                    valuesRead.add(null);
+                }            
+            }
+            return valuesRead;
+        }
+        boolean hasNulls = readBoolean();
+        alignToByteForRead();
+        byte[] bitmap = null;
+        int nonNulls = length;
+        if (hasNulls) {
+            bitmap = readBytes((length + BYTE_LENGTH - 1) / BYTE_LENGTH);
+            nonNulls = 0;
+            for (byte b : bitmap) {
+                nonNulls += Integer.bitCount(b & 0xFF);
+            }
+        }
+        int[] values = readSecrets(nonNulls, prime);
+        int k = 0;
+        for (int i = 0; i < length; i++) {
+            if (bitmap == null || (bitmap[i / BYTE_LENGTH] & (1 << (i % BYTE_LENGTH))) != 0) {
+                valuesRead.add(new Zp(prime, values[k++]));
+            } else {
                 valuesRead.add(null);
-            }            
+            }
         }
         return valuesRead;
     }
 
+    /* Reads count values written by writeSecrets */
+    public int[] readSecrets(int count, int prime) throws IOException{
+        checkWrite(false);
+        alignToByteForRead();
+        int wordLength = getSecretWordLength(prime);
+        int position = readPos / BYTE_LENGTH;
+        if (count < 0 || (long) count * wordLength > inputLength - position) {
+            throw new IOException("Cannot read " + count + " secrets");
+        }
+        byte[] buffer = inputBuffer;
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            int value = 0;
+            for (int k = 0; k < wordLength; k++) {
+                value |= (buffer[position++] & 0xFF) << (k * BYTE_LENGTH);
+            }
+            values[i] = value;
+        }
+        readPos = position * BYTE_LENGTH;
+        return values;
+    }
+
+    /* Skips the padding written by alignToByte */
+    public void alignToByteForRead() {
+        readPos = (readPos + BYTE_LENGTH - 1) / BYTE_LENGTH * BYTE_LENGTH;
+    }
+
     public String readString() throws IOException {
         int length = readByte();
         if (length == 0) {
@@ -218,44 +415,23 @@ public class BitStream {
 
     public int readInt(int numberOfBits) throws IOException {
         checkWrite(false);
-        inputStream.mark(inputStream.available());
         if (readPos + numberOfBits > inputLength * BYTE_LENGTH) {
             throw new RuntimeException("Cannot read " + numberOfBits + " bits");
         }
-        byte[] bytes = new byte[5];
-        inputStream.read(bytes, 0, 5);
-        int readPosInByte = readPos % BYTE_LENGTH;
-        int value = getIntegerFromByteBuffer(bytes, readPosInByte, numberOfBits);
+        if (numberOfBits == 0) {
+            return 0;
+        }
+        int bytePos = readPos / BYTE_LENGTH;
+        int bitsToRead = readPos % BYTE_LENGTH + numberOfBits;
+        long bits = 0;
+        for (int read = 0; read < bitsToRead; read += BYTE_LENGTH) {
+            bits = (bits << BYTE_LENGTH) | (inputBuffer[bytePos++] & 0xFF);
+        }
+        int unusedBits = (BYTE_LENGTH - bitsToRead % BYTE_LENGTH) % BYTE_LENGTH;
         readPos += numberOfBits;
-        inputStream.reset();
-        inputStream.read(bytes, 0, (readPosInByte + numberOfBits) / BYTE_LENGTH);        
-        return value;
-    }
-
-    private int getIntegerFromByteBuffer(byte[] bb, int bitPosition, int numOfBits) {
-     //   assert numOfBits > 0;
-        int bytePos = bitPosition / 8;
-        int rightBitOff = 40 - numOfBits - (bitPosition % 8);
-        byte byte1 = bb.length > bytePos + 1 ? bb[bytePos + 1] : (byte) 0;
-        byte byte2 = bb.length > bytePos + 2 ? bb[bytePos + 2] : (byte) 0;
-        byte byte3 = bb.length > bytePos + 3 ? bb[bytePos + 3] : (byte) 0;
-        byte byte4 = bb.length > bytePos + 4 ? bb[bytePos + 4] : (byte) 0;
-        long rawLong = makeLong(bb[bytePos], byte1, byte2, byte3, byte4);
-        int mask1 = BitStream.masks[numOfBits];
-        int result = (int)((rawLong >> rightBitOff) & mask1);
-        return result;
-
+        return (int) ((bits >>> unusedBits) & ((1L << numberOfBits) - 1));
     }
 
-    private long makeLong(byte b1, byte b2, byte b3, byte b4, byte b5) {
-        return (long)((int)b1 & 0xff) << 32 |
-                (long)(b2 & 0xff) << 24 |
-                (long)(b3 & 0xff) << 16 |
-                (long)(b4 & 0xff) << 8 |
-                (long)(b5 & 0xff);
-
-    }
-    
     public boolean canRead() throws IOException {
         return canRead(0);
     }
@@ -266,18 +442,19 @@ public class BitStream {
     }
 
     public void close() throws IOException {
-        if (offsetLength > 0){
-            int toWrite = offset << (8 - offsetLength);
-            outputStream.write(toWrite);
-        }        
-        outputStream.close();
+        alignToByte();
     }
 
     public byte[] getByteArray() {
-        return outputStream.toByteArray();
+        byte[] bytes = new byte[outputLength];
+        System.arraycopy(outputBuffer, 0, bytes, 0, outputLength);
+        return bytes;
     }
     
+    /* A copy of the bytes written so far */
     public ByteArrayOutputStream getStream(){
-        return outputStream;
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(outputLength);
+        stream.write(outputBuffer, 0, outputLength);
+        return stream;
     } 
 }
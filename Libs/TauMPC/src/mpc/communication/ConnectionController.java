@@ -14,10 +14,22 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import javax.net.ServerSocketFactory;
 import javax.net.SocketFactory;
 
@@ -33,6 +45,10 @@ public abstract class ConnectionController
     protected ServerSocket serverSocket;
     protected File sslKeyFile;
     protected Integer myIndex;
+    protected boolean isConcurrentExchange = true;
+    protected int exchangeTimeoutMS = 0;    // 0 - wait as long as the sockets do
+    private ExecutorService receiveExecutor;
+    private final Set<Integer> droppedPlayers = new HashSet<Integer>();  // players that missed an exchange time out
 
     public ConnectionController()
     {
@@ -66,6 +82,11 @@ public abstract class ConnectionController
         Player player = indexToPlayer.get(index);
         
         // close socket and replace it with null
+        if (player.channel != null)
+        {
+            player.channel.close();
+            player.channel = null;
+        }
         player.socket.close();
         player.socket = null;
         
@@ -81,6 +102,11 @@ public abstract class ConnectionController
         CancellCreateConnections();
         for (Player player : indexToPlayer.values())
         {
+            if (player.channel != null)
+            {
+                player.channel.close();
+                player.channel = null;
+            }
             if (player.socket != null)
             {
                 player.socket.close();
@@ -90,6 +116,14 @@ public abstract class ConnectionController
         {
             serverSocket.close();
         }
+        synchronized (this)
+        {
+            if (receiveExecutor != null)
+            {
+                receiveExecutor.shutdownNow();
+                receiveExecutor = null;
+            }
+        }
         isInitialized = false;
 
     }
@@ -115,6 +149,7 @@ public abstract class ConnectionController
         return true;
     }
 
+    /* The time out also bounds a whole concurrent exchange, not only each read */
     public void setTimeOut(int timeoutValueMS) throws SocketException
     {
         for (Player player : indexToPlayer.values())
@@ -124,6 +159,17 @@ public abstract class ConnectionController
                 player.socket.setSoTimeout(timeoutValueMS);
             }
         }
+        exchangeTimeoutMS = timeoutValueMS;
+    }
+
+    /**
+     * <p> In the concurrent mode (the default) shareSecrets waits for all the players at once and handles
+     * the messages in the order they arrive, so a slow player does not hold up the ones that already answered.
+     * Otherwise the players are read one after the other in index order. </p>
+     */
+    public void setConcurrentExchange(boolean isConcurrentExchange)
+    {
+        this.isConcurrentExchange = isConcurrentExchange;
     }
 
     /**
@@ -237,19 +283,7 @@ public abstract class ConnectionController
         Player player = indexToPlayer.get(index);
         if (player.socket != null)
         {
-            DataOutputStream outToPlayer = new DataOutputStream(player.socket.getOutputStream());
-            byte[] toSend = sharedSecret.writeToByteArray();
-            try
-            {
-            BitStream bs = new BitStream();
-            bs.writeInt(toSend.length,BITS_FOR_MESSAGE_LENGTH);
-            outToPlayer.write(bs.getByteArray());//todo - we should send a more general Object with header containing more data
-            outToPlayer.write(toSend, 0, toSend.length);//todo - we should send a more general Object with header containing more data
-            }
-            catch (Exception e)
-            {
-                // do nothing. just ignore player
-            }
+            getChannel(player, index).send(sharedSecret.writeToByteArray());
         }
         else
         {
@@ -270,33 +304,32 @@ public abstract class ConnectionController
         Player player = indexToPlayer.get(index);
         if (player.socket != null)
         {
-            DataInputStream inFromPlayer = new DataInputStream(player.socket.getInputStream());
-        
-            byte[] ba;
-            try
-            {
-            byte[] lengthArray = new byte[BITS_FOR_MESSAGE_LENGTH/8];
-            inFromPlayer.read(lengthArray, 0, BITS_FOR_MESSAGE_LENGTH/8);
-            BitStream bs = new BitStream(lengthArray);
-            int length = bs.readInt(BITS_FOR_MESSAGE_LENGTH);
-             ba = new byte[length];
-        
-                inFromPlayer.read(ba, 0, ba.length);
-            }
-            catch(Exception ex)
+            byte[] ba = getChannel(player, index).receive();
+            if (ba == null)
             {
                 return null;
             }
-            
-            Sendable value = Sendable.loadFromByteArray(ba, p);
-            return value;
-
+            return Sendable.loadFromByteArray(ba, p);
         } else
         {
             throw new RuntimeException("Trying to recieve secret to self!");
         }
     }
 
+    /* The channel is opened on the first message, after the socket was connected and the index was exchanged */
+    private synchronized PeerChannel getChannel(Player player, int index) throws IOException
+    {
+        if (player.channel == null || player.channel.getSocket() != player.socket)
+        {
+            if (player.channel != null)
+            {
+                player.channel.close();
+            }
+            player.channel = new PeerChannel(player.socket, index);
+        }
+        return player.channel;
+    }
+
     /**
      * 
      * @param sharedSecret
@@ -391,12 +424,26 @@ public abstract class ConnectionController
 
     
     public List<? extends Sendable> shareSecrets(List<? extends Sendable> sharedSecrets, int prime, boolean[] IndexToSend) throws IOException
+    {
+        return startExchange(sharedSecrets, prime, IndexToSend).finish();
+    }
+
+    /**
+     * <p> Sends sharedSecrets.get(j) to every player j in IndexToSend and returns without waiting for the answers, which
+     * are received in the background in the concurrent mode - the caller may work while the messages are in flight and
+     * handle the answers in the order they arrive (see Exchange). </p>
+     */
+    public Exchange startExchange(List<? extends Sendable> sharedSecrets, int prime, boolean[] IndexToSend) throws IOException
     {
         assert IndexToSend.length == indexToPlayer.size();
         Sendable MyShareObject = null;
         
         for (int index = 0; index < IndexToSend.length; index++)
         {// send to all but self
+            if (IndexToSend[index] == true && droppedPlayers.contains(index))
+            {
+                continue;
+            }
             if (IndexToSend[index] == true) 
             {
                 if (index != myIndex)
@@ -409,29 +456,236 @@ public abstract class ConnectionController
                 }
             }
         }
-        
-        List<Sendable> receivedSecrets = new ArrayList<Sendable>();
-        for (int index = 0; index < IndexToSend.length; index++)
+        return new Exchange(IndexToSend, prime, MyShareObject);
+    }
+
+    public Exchange startExchange(List<? extends Sendable> sharedSecrets, int prime) throws IOException
+    {
+        return startExchange(sharedSecrets, prime, getAllPlayers(sharedSecrets.size()));
+    }
+
+    /**
+     * <p> Called for a player that did not answer before a concurrent exchange timed out. Its receive task may still be
+     * blocked on the connection, and would take the message of the next exchange from that player as the answer to this
+     * one. So the connection to the player is given up (which releases the blocked read), and from now on the player is
+     * treated as one that does not answer - later exchanges neither send to it nor wait for it. </p>
+     */
+    protected void dropPlayer(int index)
+    {
+        droppedPlayers.add(index);
+        Player player = indexToPlayer.get(index);
+        synchronized (this)
         {
-            if (IndexToSend[index] == true)
+            if (player.channel != null)
             {
-                    if (index != myIndex)
+                player.channel.abandon();
+            }
+        }
+    }
+
+    /**
+     * <p> The answers of an exchange that was started (see startExchange). In the concurrent mode every answer is received
+     * by its own task, and poll and take return the players in the order their answers arrived; otherwise take reads the
+     * players one after the other in index order. The time out of the connections bounds the whole exchange - the players
+     * that did not answer by then are dropped (see dropPlayer). </p>
+     */
+    public class Exchange
+    {
+        private final List<Sendable> receivedSecrets = new ArrayList<Sendable>();
+        private final List<Integer> toReceive = new ArrayList<Integer>();   // the players to read in the sequential mode
+        private final CompletionService<Sendable> completionService;       // null in the sequential mode
+        private final Map<Future<Sendable>, Integer> futureToIndex = new HashMap<Future<Sendable>, Integer>();
+        private final int prime;
+        private final long deadline;
+        private int pending;
+
+        private Exchange(boolean[] IndexToSend, final int prime, Sendable MyShareObject)
+        {
+            this.prime = prime;
+            completionService = isConcurrentExchange ? new ExecutorCompletionService<Sendable>(getReceiveExecutor()) : null;
+            for (int index = 0; index < IndexToSend.length; index++)
+            {
+                receivedSecrets.add(null);
+                if (IndexToSend[index] == true && index == myIndex)
+                {
+                    receivedSecrets.set(index, MyShareObject);
+                }
+                else if (droppedPlayers.contains(index))
+                {
+                    // left null - the player does not answer any more
+                }
+                else if (IndexToSend[index] == true)
+                {
+                    if (completionService == null)
                     {
-                        Sendable value = recieveSecrets(index, prime);
-                        receivedSecrets.add(value);
+                        toReceive.add(index);
+                        continue;
                     }
-                    else
+                    final int from = index;
+                    futureToIndex.put(completionService.submit(new Callable<Sendable>()
                     {
-                        receivedSecrets.add(MyShareObject);
+                        public Sendable call() throws IOException
+                        {
+                            return recieveSecrets(from, prime);
+                        }
+                    }), index);
+                }
+            }
+            pending = futureToIndex.size() + toReceive.size();
+            deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(exchangeTimeoutMS);
+        }
+
+        /* The number of answers that were not taken yet */
+        public int getPendingCount()
+        {
+            return pending;
+        }
+
+        /* The index of a player whose answer arrived and was not taken yet, or -1 if there is none. Does not block */
+        public int poll() throws IOException
+        {
+            if (pending == 0 || completionService == null)
+            {
+                return -1;
+            }
+            return complete(completionService.poll());
+        }
+
+        /* Waits for the next answer and returns the index of its player, or -1 if all the answers were taken or the exchange
+         * timed out - then the players that did not answer yet are left null */
+        public int take() throws IOException
+        {
+            if (pending == 0)
+            {
+                return -1;
+            }
+            if (completionService == null)
+            {
+                int index = toReceive.get(toReceive.size() - pending);
+                pending--;
+                receivedSecrets.set(index, recieveSecrets(index, prime));
+                return index;
+            }
+            try
+            {
+                Future<Sendable> future;
+                if (exchangeTimeoutMS > 0)
+                {
+                    future = completionService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (future == null)
+                    {
+                        pending = 0;
+                        dropUnansweredPlayers();
+                        cancel();
+                        return -1;
                     }
+                }
+                else
+                {
+                    future = completionService.take();
+                }
+                return complete(future);
             }
-            else
+            catch (InterruptedException ex)
             {
-                    receivedSecrets.add(null);
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while receiving from the players", ex);
             }
         }
-        
-        return receivedSecrets;
+
+        /* The answer of a player - null if it was not taken yet, or the player did not answer */
+        public Sendable get(int index)
+        {
+            return receivedSecrets.get(index);
+        }
+
+        /* Waits for all the answers that were not taken yet. Returns the answers in index order, with null for players
+         * that were not asked, did not send, or did not send before the exchange time out */
+        public List<Sendable> finish() throws IOException
+        {
+            try
+            {
+                while (take() != -1)
+                {
+                }
+            }
+            finally
+            {
+                cancel();
+            }
+            return receivedSecrets;
+        }
+
+        private int complete(Future<Sendable> future) throws IOException
+        {
+            if (future == null)
+            {
+                return -1;
+            }
+            pending--;
+            int index = futureToIndex.get(future);
+            try
+            {
+                receivedSecrets.set(index, future.get());
+            }
+            catch (InterruptedException ex)
+            {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while receiving from the players", ex);
+            }
+            catch (ExecutionException ex)
+            {
+                cancel();
+                if (ex.getCause() instanceof IOException)
+                {
+                    throw (IOException) ex.getCause();
+                }
+                if (ex.getCause() instanceof RuntimeException)
+                {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new IOException(ex.getCause());
+            }
+            return index;
+        }
+
+        private void dropUnansweredPlayers()
+        {
+            for (Map.Entry<Future<Sendable>, Integer> entry : futureToIndex.entrySet())
+            {
+                if (!entry.getKey().isDone())
+                {
+                    dropPlayer(entry.getValue());
+                }
+            }
+        }
+
+        private void cancel()
+        {
+            for (Future<Sendable> future : futureToIndex.keySet())
+            {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private synchronized ExecutorService getReceiveExecutor()
+    {
+        if (receiveExecutor == null)
+        {
+            receiveExecutor = Executors.newCachedThreadPool(new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "Receiver of player " + myIndex);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return receiveExecutor;
     }
     
     
@@ -439,13 +693,17 @@ public abstract class ConnectionController
     {
         assert sharedSecrets.size() == indexToPlayer.size() && sharedSecrets.size() > 0;
         
-        boolean[] IndexToSend = new boolean [sharedSecrets.size()];
+        return shareSecrets(sharedSecrets, prime, getAllPlayers(sharedSecrets.size()));
+    }
+
+    private static boolean[] getAllPlayers(int numOfPlayers)
+    {
+        boolean[] IndexToSend = new boolean [numOfPlayers];
         for (int i = 0; i<IndexToSend.length; i++)
         {
             IndexToSend[i] = true;
         }
-        
-        return shareSecrets(sharedSecrets,prime,IndexToSend);        
+        return IndexToSend;
     }
 
     
@@ -458,6 +716,7 @@ public abstract class ConnectionController
         public final int port;
         public Socket socket = null;
         public final List<Integer> outputIndexes;
+        PeerChannel channel = null;
         //public final boolean isThisMe;
         public Player(String ip, int port, List<Integer> outputIndexes)
         {
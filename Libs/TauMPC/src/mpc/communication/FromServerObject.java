@@ -41,6 +41,7 @@ public class FromServerObject extends SendableList<ToServerObject> {
     @Override
     public void writeToBitStreamNoHeader(BitStream bs)
     {
+        bs.setFormatVersion(BitStream.LEGACY_FORMAT_VERSION);// players of older versions read the server's answer too
         super.writeToBitStreamNoHeader(bs);
         bs.writeBoolean(isValid);
         bs.writeString(serverMsg);
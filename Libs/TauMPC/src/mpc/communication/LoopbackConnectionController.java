@@ -0,0 +1,102 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package mpc.communication;
+
+import mpc.ui.ProgressLog;
+import mpc.sendables.Sendable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * The connections of a single player in a LoopbackNetwork. It is connected when created - there are no
+ * sockets, so it can be used as is by MPCProtocol.init(ConnectionController).
+ * </p>
+ */
+public class LoopbackConnectionController extends ConnectionController
+{
+    private final LoopbackNetwork network;
+
+    LoopbackConnectionController(LoopbackNetwork network, int myIndex, List<Integer> outputIndexes)
+    {
+        this.network = network;
+        for (int index = 0; index < network.getNumberOfPlayers(); index++)
+        {
+            addPlayer(new Player("loopback", 0, outputIndexes), index);
+        }
+        setMyIndex(myIndex);
+        isInitialized = true;
+    }
+
+    @Override
+    public boolean CreateConnections(ProgressLog proglog)
+    {
+        return true;
+    }
+
+    @Override
+    public void sendSercrets(Sendable sharedSecret, int index) throws IOException
+    {
+        if (!isInitialized)
+        {
+            throw new RuntimeException("Connections have not been initialized");
+        }
+        network.send(myIndex, index, sharedSecret.writeToByteArray());
+    }
+
+    /* Returns null if nothing arrived within the time out (if one was set), like a socket read that timed out */
+    @Override
+    public Sendable recieveSecrets(int index, int p) throws IOException
+    {
+        BlockingDeque<LoopbackNetwork.Delivery> link = network.getLink(index, myIndex);
+        LoopbackNetwork.Delivery delivery;
+        try
+        {
+            if (exchangeTimeoutMS > 0)
+            {
+                delivery = link.poll(exchangeTimeoutMS, TimeUnit.MILLISECONDS);
+            }
+            else
+            {
+                delivery = link.take();
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (delivery == null)
+        {
+            return null;
+        }
+        try
+        {
+            long waitNS = delivery.deliverAtNS - System.nanoTime();
+            if (waitNS > 0)
+            {
+                TimeUnit.NANOSECONDS.sleep(waitNS);
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            link.addFirst(delivery);// an abandoned receive must not lose the message
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return Sendable.loadFromByteArray(delivery.payload, p);
+    }
+
+    @Override
+    public void removePlayer(int index) throws IOException
+    {
+        if ((index >= indexToPlayer.size()) || (index < 0))
+        {
+            throw new IllegalArgumentException("Illegal  index");
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package mpc.communication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * An in memory network between players that run in the same JVM - every ordered pair of players has a queue
+ * of messages. Messages are serialized as on a real connection, so their sizes and encodings are the real ones.
+ * </p>
+ * <p>
+ * A latency and a bandwidth can be set to model a real network: a message is delivered after the link from the
+ * sender has finished transmitting the previous messages and this one (length / bandwidth), plus the latency.
+ * </p>
+ */
+public class LoopbackNetwork
+{
+    private final int numberOfPlayers;
+    private final List<List<BlockingDeque<Delivery>>> links;
+    private final long[][] linkFreeAtNS;
+    private final LoopbackConnectionController[] controllers;
+    private volatile long latencyNS = 0;
+    private volatile long bytesPerSecond = 0;  // 0 - unlimited
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    /* A message on its way, and the time it arrives */
+    static class Delivery
+    {
+        final byte[] payload;
+        final long deliverAtNS;
+
+        Delivery(byte[] payload, long deliverAtNS)
+        {
+            this.payload = payload;
+            this.deliverAtNS = deliverAtNS;
+        }
+    }
+
+    /**
+     * @param numberOfPlayers
+     * @param numberOfOutputs - every player is allowed to learn all the outputs
+     */
+    public LoopbackNetwork(int numberOfPlayers, int numberOfOutputs)
+    {
+        this.numberOfPlayers = numberOfPlayers;
+        links = new ArrayList<List<BlockingDeque<Delivery>>>();
+        for (int from = 0; from < numberOfPlayers; from++)
+        {
+            List<BlockingDeque<Delivery>> fromLinks = new ArrayList<BlockingDeque<Delivery>>();
+            for (int to = 0; to < numberOfPlayers; to++)
+            {
+                fromLinks.add(new LinkedBlockingDeque<Delivery>());
+            }
+            links.add(fromLinks);
+        }
+        linkFreeAtNS = new long[numberOfPlayers][numberOfPlayers];
+        List<Integer> outputIndexes = new ArrayList<Integer>();
+        for (int i = 0; i < numberOfOutputs; i++)
+        {
+            outputIndexes.add(i);
+        }
+        controllers = new LoopbackConnectionController[numberOfPlayers];
+        for (int index = 0; index < numberOfPlayers; index++)
+        {
+            controllers[index] = new LoopbackConnectionController(this, index, outputIndexes);
+        }
+    }
+
+    public int getNumberOfPlayers()
+    {
+        return numberOfPlayers;
+    }
+
+    /* The controller of the player with this index */
+    public LoopbackConnectionController getController(int index)
+    {
+        return controllers[index];
+    }
+
+    public void setLatency(long latencyMS)
+    {
+        this.latencyNS = latencyMS * 1000000L;
+    }
+
+    /* 0 means unlimited */
+    public void setBandwidth(long bytesPerSecond)
+    {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getMessagesSent()
+    {
+        return messagesSent.get();
+    }
+
+    public long getBytesSent()
+    {
+        return bytesSent.get();
+    }
+
+    public void resetCounters()
+    {
+        messagesSent.set(0);
+        bytesSent.set(0);
+    }
+
+    void send(int from, int to, byte[] payload)
+    {
+        long now = System.nanoTime();
+        long deliverAt;
+        synchronized (linkFreeAtNS[from])
+        {
+            long transmitFrom = Math.max(now, linkFreeAtNS[from][to]);
+            long transmitNS = bytesPerSecond > 0 ? payload.length * 1000000000L / bytesPerSecond : 0;
+            linkFreeAtNS[from][to] = transmitFrom + transmitNS;
+            deliverAt = transmitFrom + transmitNS + latencyNS;
+        }
+        messagesSent.incrementAndGet();
+        bytesSent.addAndGet(payload.length + ConnectionController.BITS_FOR_MESSAGE_LENGTH / 8);
+        links.get(from).get(to).add(new Delivery(payload, deliverAt));
+    }
+
+    BlockingDeque<Delivery> getLink(int from, int to)
+    {
+        return links.get(from).get(to);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package mpc.communication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * <p>
+ * The framed connection to a single player. The streams are created once for the socket and kept for
+ * the whole calculation. A message of 1 to MAX_FRAME_LENGTH bytes is a frame of the 16 bit length header
+ * followed by the payload, exactly as in older versions. Longer (or empty) messages, which older versions
+ * could not send, start with a zero length header - older versions never send an empty frame, since every
+ * message holds at least its type - followed by the 32 bit length of the message and the message itself.
+ * So every frame of an older player is read as before, but a message longer than MAX_FRAME_LENGTH cannot
+ * be sent to an older player.
+ * </p>
+ * <p>
+ * Sending only queues the frame - a writer thread per player writes the queued frames into a buffered
+ * stream and flushes once the queue is empty, so a frame (or a run of frames) costs a single socket
+ * write, and a player that is slow to read cannot block the sends to the other players.
+ * Receiving reads the whole frame (readFully), so a frame split by TCP is never cut short.
+ * </p>
+ * <p>
+ * The sockets are SSL sockets, which cannot be registered with a selector, so the channel uses a
+ * thread per player rather than non blocking IO.
+ * </p>
+ */
+final class PeerChannel
+{
+    private static final int MAX_FRAME_LENGTH = (1 << ConnectionController.BITS_FOR_MESSAGE_LENGTH) - 1;
+    private static final int HEADER_LENGTH = ConnectionController.BITS_FOR_MESSAGE_LENGTH / 8;
+    private static final byte[] CLOSE_FRAME = new byte[0];
+    private static final int LONG_MESSAGE_MARKER = 0;
+    private static final int CLOSE_TIMEOUT_MS = 5000;
+    private static final int MAX_MESSAGE_LENGTH = 1 << 26;    // guards against a player that announces a huge message
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+    private final BlockingQueue<byte[]> sendQueue = new LinkedBlockingQueue<byte[]>();
+    private final WriterThread writer;
+    private volatile boolean isSendBroken = false;
+    private volatile boolean isReceiveBroken = false;
+
+    PeerChannel(Socket socket, int playerIndex) throws IOException
+    {
+        this.socket = socket;
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), HEADER_LENGTH + MAX_FRAME_LENGTH));
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        writer = new WriterThread(playerIndex);
+        writer.start();
+    }
+
+    Socket getSocket()
+    {
+        return socket;
+    }
+
+    /* Queues the payload to be sent. Errors are not reported - a player we cannot send to is ignored */
+    void send(byte[] payload)
+    {
+        if (payload.length > MAX_MESSAGE_LENGTH)
+        {
+            throw new IllegalArgumentException("Message of " + payload.length + " bytes is longer than " + MAX_MESSAGE_LENGTH);
+        }
+        if (!isSendBroken)
+        {
+            sendQueue.add(payload);
+        }
+    }
+
+    /**
+     * @return the payload of the next frame, or null if the player did not send in time or the connection failed.
+     * A time out in the middle of a frame leaves the stream out of sync, so the channel is not read from again.
+     * Synchronized since an abandoned concurrent receive may still be reading when the next one starts.
+     */
+    synchronized byte[] receive()
+    {
+        if (isReceiveBroken)
+        {
+            return null;
+        }
+        int first;
+        try
+        {
+            first = in.read();
+        }
+        catch (SocketTimeoutException ex)
+        {
+            return null;// nothing was read - the stream is still in sync
+        }
+        catch (IOException ex)
+        {
+            isReceiveBroken = true;
+            return null;
+        }
+        if (first < 0)
+        {
+            isReceiveBroken = true;
+            return null;
+        }
+        try
+        {
+            int length = (first << 8) | in.readUnsignedByte();
+            if (length == LONG_MESSAGE_MARKER)
+            {
+                length = in.readInt();
+                if (length < 0 || length > MAX_MESSAGE_LENGTH)
+                {
+                    throw new IOException("Message of " + length + " bytes is longer than " + MAX_MESSAGE_LENGTH);
+                }
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            return payload;
+        }
+        catch (IOException ex)
+        {
+            isReceiveBroken = true;
+            return null;
+        }
+    }
+
+    /* Gives up the connection without waiting for the queued frames - a receive that is blocked on it returns null, and
+     * nothing is sent or received from now on */
+    void abandon()
+    {
+        isReceiveBroken = true;
+        isSendBroken = true;
+        sendQueue.clear();
+        writer.interrupt();
+        try
+        {
+            socket.close();
+        }
+        catch (IOException ex)
+        {
+            // closed anyway
+        }
+    }
+
+    /* Stops the writer after the frames already queued were sent - the other player may still be waiting for them */
+    void close()
+    {
+        sendQueue.add(CLOSE_FRAME);
+        try
+        {
+            writer.join(CLOSE_TIMEOUT_MS);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class WriterThread extends Thread
+    {
+        public WriterThread(int playerIndex)
+        {
+            super("Writer to player " + playerIndex);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while (true)
+                {
+                    byte[] payload = sendQueue.take();
+                    if (payload == CLOSE_FRAME)
+                    {
+                        out.flush();
+                        return;
+                    }
+                    writeFrame(payload);
+                    if (sendQueue.isEmpty())
+                    {
+                        out.flush();
+                    }
+                }
+            }
+            catch (InterruptedException ex)
+            {
+                // closing
+            }
+            catch (IOException ex)
+            {
+                // the player is ignored from now on, like a player that does not answer
+                isSendBroken = true;
+                sendQueue.clear();
+            }
+        }
+
+        private void writeFrame(byte[] payload) throws IOException
+        {
+            if (payload.length == LONG_MESSAGE_MARKER || payload.length > MAX_FRAME_LENGTH)
+            {
+                out.writeShort(LONG_MESSAGE_MARKER);
+                out.writeInt(payload.length);
+            }
+            else
+            {
+                out.writeShort(payload.length);
+            }
+            out.write(payload);
+        }
+    }
+}
@@ -13,6 +13,7 @@ import mpc.sendables.Sendable;
 
 public class ToServerObject extends Sendable{
     
+    public static final int PRIME_LENGTH = 31;    // bits - up to the prime 2^31-1
     public int MyPort;
     public String MyIp;
     public int MyIndex;
@@ -40,6 +41,7 @@ public class ToServerObject extends Sendable{
     public byte[] writeToByteArray() throws IOException
     {
         BitStream bs = new BitStream();
+        bs.setFormatVersion(BitStream.LEGACY_FORMAT_VERSION);// the server reads the legacy format
         bs.writeMessageType(MessageType.TO_SERVER_OBJECT);
         writeToBitStreamNoHeader(bs);        
         bs.close();
@@ -53,7 +55,7 @@ public class ToServerObject extends Sendable{
         MyIndex = bs.readInt(30);
         MyPort = bs.readInt(30);
         MyIp = bs.readString();
-        MyPrime = bs.readInt(30);
+        MyPrime = bs.readInt(PRIME_LENGTH);
         MyOutputs = new LinkedList<List<Integer>>();
         for(int i=0; i<ExpectedPlayers; i++)
         {     
@@ -80,7 +82,7 @@ public class ToServerObject extends Sendable{
         bs.writeInt(MyIndex, 30);
         bs.writeInt(MyPort, 30);
         bs.writeString(MyIp);
-        bs.writeInt(MyPrime,30);
+        bs.writeInt(MyPrime, PRIME_LENGTH);
         for (List<Integer> intList : MyOutputs)
         {
             if(intList==null)
@@ -0,0 +1,534 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.compiler;
+
+import mpc.circuit.Circuit;
+import mpc.circuit.Gate;
+import mpc.circuit.Gate.Operation;
+import mpc.circuit.Wire;
+import mpc.finite_field_math.Zp;
+import mpc.finite_field_math.ZpArithmetic;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * Rewrites a circuit into an equivalent one with fewer multiplications and a smaller multiplicative depth
+ * (the number of communication rounds of the protocol). The passes are:
+ * </p>
+ * <ul>
+ * <li>constant folding - gates of constants, multiplications by constants, divisions by constants;</li>
+ * <li>linear merging - a tree of ADD, SUB and constant multiplications becomes a single affine combination
+ * of its non linear terms, emitted as one n-ary ADD (and SUB for the negative terms);</li>
+ * <li>common subexpression elimination - equal expressions (up to the order of commutative operands) are
+ * calculated once;</li>
+ * <li>product balancing - a chain of multiplications is rebuilt as a tree of minimal depth. Products that
+ * are used more than once are kept as they are, so balancing never adds multiplications;</li>
+ * <li>dead gate elimination - gates that do not lead to an output are dropped.</li>
+ * </ul>
+ * <p>
+ * The semantics are those of Gate.internalCalculate: a division by 0 is 0.
+ * </p>
+ */
+public class CircuitOptimizer {
+
+    private enum Kind {
+        INPUT, CONST, LINEAR, MUL, DIV, NORMALIZE;
+    }
+
+    /* An expression. Nodes are unique - an equal expression is always the same node - and the id of a
+     * node is larger than the ids of its children */
+    private static final class Node {
+        final int id;
+        final Kind kind;
+        final int value;            // the input index, the constant, or the constant term of a LINEAR
+        final List<Node> children;
+        final int[] coefficients;   // of the children of a LINEAR
+        final int depth;            // multiplicative depth
+
+        Node(int id, Kind kind, int value, List<Node> children, int[] coefficients, int depth) {
+            this.id = id;
+            this.kind = kind;
+            this.value = value;
+            this.children = children;
+            this.coefficients = coefficients;
+            this.depth = depth;
+        }
+    }
+
+    private static final Comparator<Node> BY_DEPTH = new Comparator<Node>() {
+        public int compare(Node n1, Node n2) {
+            return n1.depth != n2.depth ? n1.depth - n2.depth : n1.id - n2.id;
+        }
+    };
+
+    /* Gate count, multiplication count and depth of a circuit */
+    public static class Statistics {
+        public final int gates;
+        public final int communicationGates;
+        public final int depth;
+
+        public Statistics(Circuit circuit) {
+            int count = 0;
+            for (Gate gate : circuit.getGates()) {
+                if (gate.isCommunicationNeeded()) {
+                    count++;
+                }
+            }
+            this.gates = circuit.getGates().size();
+            this.communicationGates = count;
+            this.depth = circuit.getMultiplicativeDepth();
+        }
+
+        @Override
+        public String toString() {
+            return gates + " gates, " + communicationGates + " multiplications (gates that need communication), depth " + depth;
+        }
+    }
+
+    private final int prime;
+    private final ZpArithmetic field;
+    private final Map<String, Node> nodes = new HashMap<String, Node>();
+    private int nextId = 0;
+    private Statistics before;
+    private Statistics after;
+
+    public CircuitOptimizer(int prime) {
+        this.prime = prime;
+        this.field = ZpArithmetic.getInstance(prime);
+    }
+
+    public Circuit optimize(Circuit circuit) {
+        before = new Statistics(circuit);
+        nodes.clear();
+
+        /* the expressions of the outputs, simplified gate by gate */
+        Map<Gate, Node> gateNodes = new HashMap<Gate, Node>();
+        Map<Integer, Node> outputs = new TreeMap<Integer, Node>();
+        for (Gate gate : circuit.getGates()) {
+            List<Node> operands = new ArrayList<Node>();
+            for (Wire wire : gate.getInputWires()) {
+                operands.add(getNode(wire, gateNodes));
+            }
+            Node node = createGateNode(gate.getOperation(), operands);
+            gateNodes.put(gate, node);
+            for (Wire wire : gate.getOutputWires()) {
+                if (wire.isOutput()) {
+                    outputs.put(wire.getOutputIndex(), node);
+                }
+            }
+        }
+
+        /* balancing needs the number of uses of the products, so it is a second pass */
+        balance(outputs);
+
+        Circuit optimized = createCircuit(outputs, circuit.getInputs());
+        after = new Statistics(optimized);
+        return optimized;
+    }
+
+    /* The statistics of the circuit before and after the last optimize */
+    public String getReport() {
+        return "before: " + before + "\nafter:  " + after;
+    }
+
+    public Statistics getStatisticsBefore() {
+        return before;
+    }
+
+    public Statistics getStatisticsAfter() {
+        return after;
+    }
+
+    private Node getNode(Wire wire, Map<Gate, Node> gateNodes) {
+        if (wire.isInput()) {
+            return createNode(Kind.INPUT, wire.getInputIndex(), Collections.<Node>emptyList(), null);
+        }
+        if (wire.getConstValue() != null) {
+            return constant(wire.getConstValue().getValue());
+        }
+        Node node = gateNodes.get(wire.getSourceGate());
+        assert node != null : "gates are not in topological order";
+        return node;
+    }
+
+    private Node createGateNode(Operation operation, List<Node> operands) {
+        Node result = operands.get(0);
+        if (operation == Operation.NORMALIZE) {
+            return normalize(result);
+        }
+        for (Node operand : operands.subList(1, operands.size())) {
+            switch (operation) {
+                case ADD:
+                    result = linear(result, 1, operand, 1);
+                    break;
+                case SUB:
+                    result = linear(result, 1, operand, prime - 1);
+                    break;
+                case MUL:
+                    result = multiply(result, operand);
+                    break;
+                case DIV:
+                    result = divide(result, operand);
+                    break;
+                default:
+                    assert false;
+            }
+        }
+        return result;
+    }
+
+    /* ---- node factories, each simplifies what it can ---- */
+
+    private Node createNode(Kind kind, int value, List<Node> children, int[] coefficients) {
+        StringBuilder key = new StringBuilder().append(kind.ordinal()).append(':').append(value);
+        for (int i = 0; i < children.size(); i++) {
+            key.append(',').append(children.get(i).id);
+            if (coefficients != null) {
+                key.append('x').append(coefficients[i]);
+            }
+        }
+        Node node = nodes.get(key.toString());
+        if (node == null) {
+            int depth = 0;
+            for (Node child : children) {
+                depth = Math.max(depth, child.depth);
+            }
+            if (kind == Kind.MUL || kind == Kind.DIV || kind == Kind.NORMALIZE) {
+                depth++;
+            }
+            node = new Node(nextId++, kind, value, children, coefficients, depth);
+            nodes.put(key.toString(), node);
+        }
+        return node;
+    }
+
+    private Node constant(int value) {
+        return createNode(Kind.CONST, field.reduce(value), Collections.<Node>emptyList(), null);
+    }
+
+    private Node linear(Node first, int firstCoefficient, Node second, int secondCoefficient) {
+        Map<Node, Integer> terms = new TreeMap<Node, Integer>(BY_ID);
+        int constant = addTerm(terms, 0, first, firstCoefficient);
+        constant = addTerm(terms, constant, second, secondCoefficient);
+        return linear(terms, constant);
+    }
+
+    private Node scale(Node node, int coefficient) {
+        Map<Node, Integer> terms = new TreeMap<Node, Integer>(BY_ID);
+        return linear(terms, addTerm(terms, 0, node, coefficient));
+    }
+
+    /* Adds coefficient * node to the terms, flattening a LINEAR node, and returns the new constant term */
+    private int addTerm(Map<Node, Integer> terms, int constant, Node node, int coefficient) {
+        if (node.kind == Kind.CONST) {
+            return field.mulAdd(constant, coefficient, node.value);
+        }
+        if (node.kind == Kind.LINEAR) {
+            for (int i = 0; i < node.children.size(); i++) {
+                addTerm(terms, 0, node.children.get(i), field.mul(coefficient, node.coefficients[i]));
+            }
+            return field.mulAdd(constant, coefficient, node.value);
+        }
+        Integer current = terms.get(node);
+        terms.put(node, field.add(current == null ? 0 : current, coefficient));
+        return constant;
+    }
+
+    private Node linear(Map<Node, Integer> terms, int constant) {
+        List<Node> children = new ArrayList<Node>();
+        List<Integer> coefficients = new ArrayList<Integer>();
+        for (Map.Entry<Node, Integer> term : terms.entrySet()) {
+            if (term.getValue() != 0) {
+                children.add(term.getKey());
+                coefficients.add(term.getValue());
+            }
+        }
+        if (children.isEmpty()) {
+            return constant(constant);
+        }
+        if (children.size() == 1 && coefficients.get(0) == 1 && constant == 0) {
+            return children.get(0);
+        }
+        int[] array = new int[coefficients.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = coefficients.get(i);
+        }
+        return createNode(Kind.LINEAR, constant, children, array);
+    }
+
+    private Node multiply(Node first, Node second) {
+        if (first.kind == Kind.CONST) {
+            return scale(second, first.value);
+        }
+        if (second.kind == Kind.CONST) {
+            return scale(first, second.value);
+        }
+        return first.id <= second.id ? createNode(Kind.MUL, 0, Arrays.asList(first, second), null)
+                                     : createNode(Kind.MUL, 0, Arrays.asList(second, first), null);
+    }
+
+    private Node divide(Node dividend, Node divisor) {
+        if (divisor.kind == Kind.CONST) {
+            return scale(dividend, divisor.value == 0 ? 0 : field.inverse(divisor.value));
+        }
+        if (dividend.kind == Kind.CONST && dividend.value == 0) {
+            return dividend;
+        }
+        if (dividend == divisor) {
+            return normalize(divisor);   // x/x is 1, or 0 for x = 0
+        }
+        return createNode(Kind.DIV, 0, Arrays.asList(dividend, divisor), null);
+    }
+
+    private Node normalize(Node node) {
+        if (node.kind == Kind.CONST) {
+            return constant(node.value == 0 ? 0 : 1);
+        }
+        if (node.kind == Kind.NORMALIZE) {
+            return node;
+        }
+        if (node.kind == Kind.LINEAR && node.children.size() == 1 && node.value == 0) {
+            return normalize(node.children.get(0));   // c*x is 0 exactly when x is
+        }
+        return createNode(Kind.NORMALIZE, 0, Collections.singletonList(node), null);
+    }
+
+    private static final Comparator<Node> BY_ID = new Comparator<Node>() {
+        public int compare(Node n1, Node n2) {
+            return n1.id - n2.id;
+        }
+    };
+
+    /* ---- product balancing ---- */
+
+    private Map<Node, Integer> countUses(Iterable<Node> outputs) {
+        Map<Node, Integer> uses = new HashMap<Node, Integer>();
+        List<Node> toVisit = new ArrayList<Node>();
+        for (Node output : outputs) {
+            uses.put(output, 2);    // an output is used outside of the circuit
+            toVisit.add(output);
+        }
+        while (!toVisit.isEmpty()) {
+            Node node = toVisit.remove(toVisit.size() - 1);
+            for (Node child : node.children) {
+                Integer count = uses.get(child);
+                uses.put(child, count == null ? 1 : count + 1);
+                if (count == null) {
+                    toVisit.add(child);
+                }
+            }
+        }
+        return uses;
+    }
+
+    /* The outputs rebuilt with balanced products. The nodes are rebuilt in id order, so the children of a node
+     * are rebuilt before it */
+    private void balance(Map<Integer, Node> outputs) {
+        Map<Node, Integer> uses = countUses(outputs.values());
+        List<Node> used = new ArrayList<Node>(uses.keySet());
+        Collections.sort(used, BY_ID);
+        Map<Node, Node> balanced = new HashMap<Node, Node>();
+        for (Node node : used) {
+            Node result;
+            switch (node.kind) {
+                case LINEAR:
+                    Map<Node, Integer> terms = new TreeMap<Node, Integer>(BY_ID);
+                    int constant = node.value;
+                    for (int i = 0; i < node.children.size(); i++) {
+                        constant = addTerm(terms, constant, balanced.get(node.children.get(i)), node.coefficients[i]);
+                    }
+                    result = linear(terms, constant);
+                    break;
+                case MUL:
+                    List<Node> factors = new ArrayList<Node>();
+                    int coefficient = 1;
+                    for (Node child : node.children) {
+                        coefficient = field.mul(coefficient, collectFactors(child, uses, factors));
+                    }
+                    List<Node> balancedFactors = new ArrayList<Node>();
+                    for (Node factor : factors) {
+                        balancedFactors.add(balanced.get(factor));
+                    }
+                    result = scale(multiplyBalanced(balancedFactors), coefficient);
+                    break;
+                case DIV:
+                    result = divide(balanced.get(node.children.get(0)), balanced.get(node.children.get(1)));
+                    break;
+                case NORMALIZE:
+                    result = normalize(balanced.get(node.children.get(0)));
+                    break;
+                default:
+                    result = node;
+            }
+            balanced.put(node, result);
+        }
+        for (Map.Entry<Integer, Node> output : outputs.entrySet()) {
+            output.setValue(balanced.get(output.getValue()));
+        }
+    }
+
+    /* Adds the factors of a product that is used only once, and returns its constant coefficient */
+    private int collectFactors(Node node, Map<Node, Integer> uses, List<Node> factors) {
+        if (uses.get(node) == 1) {
+            if (node.kind == Kind.MUL) {
+                int coefficient = 1;
+                for (Node child : node.children) {
+                    coefficient = field.mul(coefficient, collectFactors(child, uses, factors));
+                }
+                return coefficient;
+            }
+            if (node.kind == Kind.LINEAR && node.children.size() == 1 && node.value == 0) {
+                return field.mul(node.coefficients[0], collectFactors(node.children.get(0), uses, factors));
+            }
+        }
+        factors.add(node);
+        return 1;
+    }
+
+    /* Multiplies the two shallowest factors until one is left - a product tree of minimal depth */
+    private Node multiplyBalanced(List<Node> factors) {
+        PriorityQueue<Node> queue = new PriorityQueue<Node>(factors.size(), BY_DEPTH);
+        queue.addAll(factors);
+        while (queue.size() > 1) {
+            queue.add(multiply(queue.poll(), queue.poll()));
+        }
+        return queue.poll();
+    }
+
+    /* ---- back to gates ---- */
+
+    private Circuit createCircuit(Map<Integer, Node> outputs, List<String> inputs) {
+        /* the nodes that lead to an output, in topological (id) order */
+        List<Node> used = new ArrayList<Node>(countUses(outputs.values()).keySet());
+        Collections.sort(used, BY_ID);
+
+        List<Gate> gates = new ArrayList<Gate>();
+        Map<Node, Gate> nodeGates = new HashMap<Node, Gate>();
+        for (Node node : used) {
+            Gate gate;
+            switch (node.kind) {
+                case INPUT:
+                case CONST:
+                    continue;
+                case LINEAR:
+                    gate = createLinearGates(node, nodeGates, gates);
+                    break;
+                case MUL:
+                    gate = createGate(node.children, Operation.MUL, nodeGates, gates);
+                    break;
+                case DIV:
+                    gate = createGate(node.children, Operation.DIV, nodeGates, gates);
+                    break;
+                case NORMALIZE:
+                    gate = createGate(node.children, Operation.NORMALIZE, nodeGates, gates);
+                    break;
+                default:
+                    throw new AssertionError(node.kind);
+            }
+            nodeGates.put(node, gate);
+        }
+
+        for (Map.Entry<Integer, Node> output : outputs.entrySet()) {
+            Gate gate = nodeGates.get(output.getValue());
+            if (gate == null) {
+                /* an output that is an input or a constant - a single input ADD passes it on */
+                gate = createGate(Arrays.asList(output.getValue()), Operation.ADD, nodeGates, gates);
+            }
+            Wire wire = new Wire(gate, output.getKey());
+            gate.addOutputWire(wire);
+        }
+        return new Circuit(prime, gates, inputs);
+    }
+
+    /* An affine combination: the terms with coefficient 1 and the constant are added, and the terms with
+     * coefficient -1 subtracted, in a single gate each. Other coefficients are constant multiplications. */
+    private Gate createLinearGates(Node node, Map<Node, Gate> nodeGates, List<Gate> gates) {
+        if (node.children.size() == 1 && node.value == 0) {
+            return createGate(Arrays.asList(createWire(node.children.get(0), nodeGates), new Wire(new Zp(prime, node.coefficients[0]))), Operation.MUL, gates);
+        }
+        List<Wire> added = new ArrayList<Wire>();
+        List<Wire> subtracted = new ArrayList<Wire>();
+        for (int i = 0; i < node.children.size(); i++) {
+            Node term = node.children.get(i);
+            int coefficient = node.coefficients[i];
+            boolean isNegative = coefficient > prime / 2;
+            int magnitude = isNegative ? prime - coefficient : coefficient;
+            Wire wire = createWire(term, nodeGates);
+            if (magnitude != 1) {
+                Gate scaled = createGate(Arrays.asList(wire, new Wire(new Zp(prime, magnitude))), Operation.MUL, gates);
+                wire = createWire(scaled);
+            }
+            (isNegative ? subtracted : added).add(wire);
+        }
+        if (node.value != 0) {
+            added.add(new Wire(new Zp(prime, node.value)));
+        }
+        if (subtracted.isEmpty()) {
+            return createGate(added, Operation.ADD, gates);
+        }
+        List<Wire> operands = new ArrayList<Wire>();
+        if (added.isEmpty()) {
+            operands.add(new Wire(new Zp(prime, 0)));
+        } else if (added.size() == 1) {
+            operands.add(added.get(0));
+        } else {
+            operands.add(createWire(createGate(added, Operation.ADD, gates)));
+        }
+        operands.addAll(subtracted);
+        return createGate(operands, Operation.SUB, gates);
+    }
+
+    private Gate createGate(List<Node> operands, Operation operation, Map<Node, Gate> nodeGates, List<Gate> gates) {
+        List<Wire> wires = new ArrayList<Wire>();
+        for (Node operand : operands) {
+            wires.add(createWire(operand, nodeGates));
+        }
+        return createGate(wires, operation, gates);
+    }
+
+    private Gate createGate(List<Wire> inputWires, Operation operation, List<Gate> gates) {
+        Gate gate = new Gate(inputWires, new ArrayList<Wire>(), operation, prime);
+        for (Wire wire : inputWires) {
+            wire.setTargetGate(gate);
+        }
+        gates.add(gate);
+        return gate;
+    }
+
+    private Wire createWire(Node node, Map<Node, Gate> nodeGates) {
+        if (node.kind == Kind.INPUT) {
+            return new Wire(node.value, true);
+        }
+        if (node.kind == Kind.CONST) {
+            return new Wire(new Zp(prime, node.value));
+        }
+        return createWire(nodeGates.get(node));
+    }
+
+    private Wire createWire(Gate source) {
+        Wire wire = new Wire();
+        wire.setSourceGate(source);
+        source.addOutputWire(wire);
+        return wire;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Parser parser = new Parser("Inputs=a,b,c,d\nOutputs=x,y\nx=a*b*c*d+2*(a+1)-a\ny=(a*b*c*d) ? c : 3*c/3", 65521);
+        parser.parse();
+        CircuitOptimizer optimizer = new CircuitOptimizer(65521);
+        Circuit optimized = optimizer.optimize(parser.getCircuit());
+        System.out.println(optimized);
+        System.out.println(optimizer.getReport());
+    }
+}
@@ -17,8 +17,10 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import mpc.circuit.Gate;
@@ -42,6 +44,7 @@ public class Parser {
     private int prime;
     private Circuit circuit;
     private List<String> inputs = new ArrayList<String>();
+    private CircuitOptimizer optimizer;  // null - the circuit is not optimized
 
     public Parser(String fileNameOrPath, int prime) {
         this.fileNameOrString = fileNameOrPath;
@@ -85,12 +88,25 @@ public class Parser {
             }            
         }        
         circuit = createCircuit(new ArrayList<Wire>(getOutputWires()), prime, inputs);
+        if (optimizer != null){
+            circuit = optimizer.optimize(circuit);
+        }
         return circuit != null;
     }
 
     public Circuit getCircuit() {
         return circuit;
     }        
+
+    /* Run the CircuitOptimizer on the parsed circuit */
+    public void setOptimizing(boolean isOptimizing) {
+        optimizer = isOptimizing ? new CircuitOptimizer(prime) : null;
+    }
+
+    /* The gate counts and depth before and after the optimization, or null if the circuit was not optimized */
+    public String getOptimizationReport() {
+        return optimizer == null || circuit == null ? null : optimizer.getReport();
+    }
     
     private void readLine(String line) throws ParseException{
         LineType lineType = getLineType(line);
@@ -129,25 +145,22 @@ public class Parser {
         Wire firstWire = getWireFromExpression(line.substring(index1 + 1, index2));
         Wire secondWire = getWireFromExpression(line.substring(index2 + 1));
         
-        //normalizedConditionWire = conditionWire/conditionWire
+        //normalizedConditionWire = conditionWire != 0 ? 1 : 0
         Wire normalizedConditionWire = new Wire();
-        setGate(Arrays.asList(conditionWire, conditionWire), normalizedConditionWire, Operation.DIV);
-        
-        //reverseCondition = 1 - normalizedConditionWire
-        Wire reverseCondition = new Wire();
-        setGate(Arrays.asList(new Wire(new Zp(prime, 1)), normalizedConditionWire), reverseCondition, Operation.SUB);
+        setGate(Arrays.asList(conditionWire), normalizedConditionWire, Operation.NORMALIZE);
         
-        //firstWireMultiplied = firstWire * normalizedConditionWire
-        Wire firstWireMultiplied = new Wire();                
-        setGate(Arrays.asList(firstWire, normalizedConditionWire), firstWireMultiplied, Operation.MUL);
+        //difference = firstWire - secondWire
+        Wire differenceWire = new Wire();
+        setGate(Arrays.asList(firstWire, secondWire), differenceWire, Operation.SUB);
         
-        //secondWireMultiplied = secondWire * reverseCondition
-        Wire secondWireMultiplied = new Wire();
-        setGate(Arrays.asList(secondWire, reverseCondition), secondWireMultiplied, Operation.MUL);
+        //differenceMultiplied = normalizedConditionWire * difference - one multiplication instead of
+        //firstWire * normalizedConditionWire + secondWire * (1 - normalizedConditionWire)
+        Wire differenceMultiplied = new Wire();
+        setGate(Arrays.asList(normalizedConditionWire, differenceWire), differenceMultiplied, Operation.MUL);
         
-        //result = firstWireMultiplied + secondWireMultiplied
+        //result = secondWire + differenceMultiplied
         Wire resultWire = new Wire();
-        setGate(Arrays.asList(firstWireMultiplied, secondWireMultiplied), resultWire, Operation.ADD);
+        setGate(Arrays.asList(secondWire, differenceMultiplied), resultWire, Operation.ADD);
         return resultWire;                                                        
     }
     
@@ -234,7 +247,7 @@ public class Parser {
             return createAddGates(line.substring(addIndex), firstWire);            
         }
    
-        assert parIndex == 0 || mulIndex < parIndex;//this exp should start with ( or * must be before (
+        assert parIndex <= 0 || mulIndex < parIndex;//this exp should start with ( or * must be before (
 
         if (parIndex == 0) {
             return createParenthesesWire(line, true);
@@ -263,7 +276,7 @@ public class Parser {
         Wire compareWire = new Wire();
         setGate(Arrays.asList(firstWire, secondWire), compareWire, Operation.SUB);
         Wire normilizedWire = new Wire();
-        setGate(Arrays.asList(compareWire, compareWire), normilizedWire, Operation.DIV);
+        setGate(Arrays.asList(compareWire), normilizedWire, Operation.NORMALIZE);
         Wire resultWire = new Wire();
         setGate(Arrays.asList(new Wire(new Zp(prime, 1)), normilizedWire), resultWire, Operation.SUB);
         return resultWire;        
@@ -502,12 +515,16 @@ public class Parser {
         return null;        
     }
     
+    /* Collects the gates from the outputs back, a level of wires at a time. A gate found again goes to the front, and its
+     * input wires are visited again in the next level, so the gates end up after the gates of their inputs. A wire is
+     * kept once per level - a list with a copy per path grows exponentially on circuits that reuse values, such as
+     * the exponent circuits of large primes */
     public static  Circuit createCircuit(List<Wire> outputWires, int prime, List<String> inputs) throws ParseException{
-        List<Wire> currWires = new ArrayList<Wire>(outputWires);
+        Set<Wire> currWires = new LinkedHashSet<Wire>(outputWires);
         List<Gate> gates = new ArrayList<Gate>();
         while(!currWires.isEmpty()){
             List<Wire> toRemove = new ArrayList<Wire>();
-            List<Wire> toAdd = new ArrayList<Wire>();
+            Set<Wire> toAdd = new LinkedHashSet<Wire>();
             for (Wire wire : currWires) {
                 if (wire.isInput() || wire.getConstValue() != null) {
                     if (wire.isOutput() && wire.isInput()){
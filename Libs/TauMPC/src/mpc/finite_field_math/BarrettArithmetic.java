@@ -0,0 +1,29 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.finite_field_math;
+
+/* Arithmetic for any prime that fits in an int. For a prime of k bits we keep
+ * mu = floor(2^(2k) / p), so every product of two reduced values (< 2^(2k)) is
+ * reduced with two multiplications and a shift instead of a division */
+final class BarrettArithmetic extends ZpArithmetic {
+
+    private final long mu;          // floor(2^(2k) / prime)
+
+    BarrettArithmetic(int prime) {
+        super(prime);
+        this.mu = (1L << (2 * bits)) / prime;
+    }
+
+    @Override
+    protected int reduceProduct(long x) {
+        long q = ((x >>> (bits - 1)) * mu) >>> (bits + 1);
+        long r = x - q * prime;
+        while (r >= prime) {
+            r -= prime;
+        }
+        return (int) r;
+    }
+}
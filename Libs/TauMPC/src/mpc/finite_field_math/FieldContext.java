@@ -0,0 +1,188 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.finite_field_math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/* What the protocols keep asking of Z_p that depends only on p - the minimal generator of the multiplicative group,
+ * its powers w^i (the evaluation points of the players, see Shamir.getEvaluationPoints), inverses and powers.
+ * There is one context per prime (see getInstance), made on first use. A context never changes what it returned -
+ * the table of the powers of the generator only grows - so it is shared between threads without locking. */
+public final class FieldContext {
+
+    /* Primes below the bound keep a table of all the inverses (256KB at the bound) */
+    public static final int INVERSE_TABLE_BOUND = 1 << 16;
+    private static final int MIN_POWERS = 64;
+
+    private static final Map<Integer, FieldContext> instances = new HashMap<Integer, FieldContext>();
+    private static volatile FieldContext lastUsed;
+
+    public final int prime;
+    private final ZpArithmetic field;
+    private final int generator;            // 0 if the prime is 2 or not a prime
+    private final int[] inverses;           // null above INVERSE_TABLE_BOUND
+    private volatile int[] generatorPowers; // w^i for i < length
+
+    private FieldContext(int prime) {
+        this.prime = prime;
+        this.field = ZpArithmetic.getInstance(prime);
+        this.generator = (prime > 2 && Zp.isPrime(prime)) ? findGenerator(prime) : 0;
+        this.inverses = prime < INVERSE_TABLE_BOUND ? Zp.getFieldInverseArr(prime) : null;
+        this.generatorPowers = generator != 0 ? getPowers(generator, Math.min(MIN_POWERS, prime - 1)) : new int[0];
+    }
+
+    /* Returns the (shared) context of Z_prime */
+    public static FieldContext getInstance(int prime) {
+        FieldContext last = lastUsed;
+        if (last != null && last.prime == prime) {
+            return last;
+        }
+        synchronized (instances) {
+            last = instances.get(prime);
+            if (last == null) {
+                last = new FieldContext(prime);
+                instances.put(prime, last);
+            }
+        }
+        lastUsed = last;
+        return last;
+    }
+
+    public ZpArithmetic getArithmetic() {
+        return field;
+    }
+
+    /* The minimal generator w of the multiplicative group */
+    public int getGenerator() {
+        if (generator == 0) {
+            throw new IllegalArgumentException("Cannot find field primitive for a field from non prime number.");
+        }
+        return generator;
+    }
+
+    /* w^i */
+    public int getGeneratorPower(int i) {
+        int[] powers = generatorPowers;
+        if (i >= 0 && i < powers.length) {
+            return powers[i];
+        }
+        return field.pow(getGenerator(), i);
+    }
+
+    /* w^0, ..., w^(count-1) - a new array the caller may change */
+    public int[] getGeneratorPowers(int count) {
+        int[] powers = generatorPowers;
+        if (powers.length < count) {
+            powers = growGeneratorPowers(count);
+        }
+        return Arrays.copyOf(powers, count);
+    }
+
+    /* The inverse of a, or 0 for 0 */
+    public int inverse(int a) {
+        a = field.reduce(a);
+        if (inverses != null) {
+            return inverses[a];
+        }
+        return a == 0 ? 0 : field.inverse(a);
+    }
+
+    /* Square and multiply */
+    public int pow(int base, long exp) {
+        return field.pow(field.reduce(base), exp);
+    }
+
+    private synchronized int[] growGeneratorPowers(int count) {
+        int[] powers = generatorPowers;
+        if (powers.length < count) {
+            getGenerator();
+            powers = getPowers(generator, Math.max(count, 2 * powers.length));
+            generatorPowers = powers;
+        }
+        return powers;
+    }
+
+    private int[] getPowers(int base, int count) {
+        int[] powers = new int[count];
+        int power = 1;
+        for (int i = 0; i < count; i++) {
+            powers[i] = power;
+            power = field.mul(power, base);
+        }
+        return powers;
+    }
+
+    /* w generates the multiplicative group iff w^((p-1)/q) != 1 for every prime factor q of p-1 */
+    private static int findGenerator(int prime) {
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        List<Integer> factors = getPrimeFactors(prime - 1);
+        for (int w = 2; w < prime; w++) {
+            boolean isGenerator = true;
+            for (int q : factors) {
+                if (field.pow(w, (prime - 1) / q) == 1) {
+                    isGenerator = false;
+                    break;
+                }
+            }
+            if (isGenerator) {
+                return w;
+            }
+        }
+        return 0;
+    }
+
+    private static List<Integer> getPrimeFactors(int num) {
+        List<Integer> factors = new ArrayList<Integer>();
+        for (int q = 2; (long) q * q <= num; q++) {
+            if (num % q == 0) {
+                factors.add(q);
+                while (num % q == 0) {
+                    num /= q;
+                }
+            }
+        }
+        if (num > 1) {
+            factors.add(num);
+        }
+        return factors;
+    }
+
+    public static void main(String[] args) {
+        int[] primes = {3, 233, 1231, 65521, 1000003, ZpArithmetic.MERSENNE_31};
+        for (int prime : primes) {
+            FieldContext context = getInstance(prime);
+            ZpArithmetic field = context.getArithmetic();
+            int w = context.getGenerator();
+            // w^i != 1 for 0 < i < p-1 is too slow for the large primes - check the order on the prime factors instead
+            for (int q : getPrimeFactors(prime - 1)) {
+                if (field.pow(w, (prime - 1) / q) == 1) {
+                    System.out.println("FAILED - " + w + " is not a generator of " + prime);
+                    return;
+                }
+            }
+            int count = Math.min(prime - 1, 5000);
+            int[] powers = context.getGeneratorPowers(count);
+            for (int i = 0; i < count; i++) {
+                if (powers[i] != field.pow(w, i) || context.getGeneratorPower(i) != powers[i]) {
+                    System.out.println("FAILED - power " + i + " of " + w + " in Z_" + prime);
+                    return;
+                }
+            }
+            for (int a = 0; a < Math.min(prime, 5000); a++) {
+                int inverse = context.inverse(a);
+                if ((a == 0 && inverse != 0) || (a != 0 && field.mul(a, inverse) != 1)) {
+                    System.out.println("FAILED - inverse of " + a + " in Z_" + prime);
+                    return;
+                }
+            }
+        }
+        System.out.println("Test Ended");
+    }
+}
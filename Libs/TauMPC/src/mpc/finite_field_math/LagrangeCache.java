@@ -0,0 +1,194 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.finite_field_math;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/* Cache of interpolation coefficients per (prime, evaluation points).
+ * For points x_0..x_(m-1) the m-by-m coefficient table C is the inverse of the
+ * transposed Vandermonde matrix, so the k-th coefficient of the interpolated
+ * polynomial is sum_i C[k][i] * y_i, and row 0 holds the Lagrange weights at 0.
+ * A table is built once in O(m^2) and after that recombination or degree reduction
+ * is a single dot product. The returned arrays are shared and must not be modified. */
+public final class LagrangeCache {
+
+    private static final int MAX_ENTRIES = 256;
+
+    private static final Map<Key, Coefficients> cache = new LinkedHashMap<Key, Coefficients>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Coefficients> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private LagrangeCache() {
+    }
+
+    /* Lagrange weights at 0 - the secret is sum(weights[i] * share_i) */
+    public static int[] getRecombinationWeights(int prime, int[] points) {
+        return getCoefficients(prime, points).getWeightsAtZero();
+    }
+
+    /* Lagrange weights at x - the value at x of the polynomial through the points is sum(weights[i] * y_i).
+     * Used by the packed sharing, where the secrets are not at 0 (see Shamir.packedShare) */
+    public static int[] getWeightsAt(int prime, int[] points, int x) {
+        if (x == 0) {
+            return getRecombinationWeights(prime, points);
+        }
+        return getCoefficients(prime, points).getWeightsAt(x);
+    }
+
+    /* The row-th row of the inverse of the transposed Vandermonde matrix of the points */
+    public static int[] getCoefficientRow(int prime, int[] points, int row) {
+        if (row < 0 || row >= points.length) {
+            throw new IllegalArgumentException("Illegal coefficient row " + row);
+        }
+        if (row == 0) {
+            return getRecombinationWeights(prime, points);
+        }
+        return getCoefficients(prime, points).getTable()[row];
+    }
+
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private static Coefficients getCoefficients(int prime, int[] points) {
+        Key key = new Key(prime, points);
+        synchronized (cache) {
+            Coefficients entry = cache.get(key);
+            if (entry == null) {
+                entry = new Coefficients(ZpArithmetic.getInstance(prime), key.points);
+                cache.put(key, entry);
+            }
+            return entry;
+        }
+    }
+
+    private static final class Key {
+        final int prime;
+        final int[] points;
+        final int hash;
+
+        Key(int prime, int[] points) {
+            this.prime = prime;
+            this.points = points.clone();
+            this.hash = 31 * prime + Arrays.hashCode(points);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return prime == other.prime && Arrays.equals(points, other.points);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Coefficients {
+        private final ZpArithmetic field;
+        private final int[] points;
+        private int[] weightsAtZero;
+        private Map<Integer, int[]> weightsAt;
+        private int[][] table;
+
+        Coefficients(ZpArithmetic field, int[] points) {
+            this.field = field;
+            this.points = points;
+        }
+
+        synchronized int[] getWeightsAtZero() {
+            if (weightsAtZero == null) {
+                // the points of the Byzantine case are powers of a primitive element, which have an O(m) formula
+                weightsAtZero = isGeometric() ? NumberTheoreticTransform.getGeometricWeightsAtZero(points[1], points.length, field.prime)
+                                              : field.getLagrangeWeights(points, 0);
+            }
+            return weightsAtZero;
+        }
+
+        /* points[i] = q^i */
+        private boolean isGeometric() {
+            if (points.length < 2 || points[0] != 1) {
+                return false;
+            }
+            for (int i = 2; i < points.length; i++) {
+                if (points[i] != field.mul(points[i - 1], points[1])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        synchronized int[] getWeightsAt(int x) {
+            if (weightsAt == null) {
+                weightsAt = new HashMap<Integer, int[]>();
+            }
+            int[] weights = weightsAt.get(x);
+            if (weights == null) {
+                weights = field.getLagrangeWeights(points, x);
+                weightsAt.put(x, weights);
+            }
+            return weights;
+        }
+
+        /* table[k][i] is the coefficient of x^k in the Lagrange basis polynomial L_i(x) */
+        synchronized int[][] getTable() {
+            if (table != null) {
+                return table;
+            }
+            int m = points.length;
+            // master polynomial P(x) = prod(x - x_i), coefficients from low to high degree
+            int[] master = new int[m + 1];
+            master[0] = 1;
+            for (int i = 0; i < m; i++) {
+                int negPoint = field.neg(points[i]);
+                for (int k = i + 1; k > 0; k--) {
+                    master[k] = field.mulAdd(master[k - 1], master[k], negPoint);
+                }
+                master[0] = field.mul(master[0], negPoint);
+            }
+            // denominators prod_{j != i}(x_i - x_j), inverted together
+            int[] denominators = new int[m];
+            for (int i = 0; i < m; i++) {
+                int denominator = 1;
+                for (int j = 0; j < m; j++) {
+                    if (j != i) {
+                        denominator = field.mul(denominator, field.sub(points[i], points[j]));
+                    }
+                }
+                denominators[i] = denominator;
+            }
+            field.batchInverse(denominators);
+
+            int[][] result = new int[m][m];
+            int[] quotient = new int[m];
+            for (int i = 0; i < m; i++) {
+                // P(x) / (x - x_i) by synthetic division from the top coefficient down
+                int carry = 0;
+                for (int k = m; k > 0; k--) {
+                    carry = field.mulAdd(master[k], carry, points[i]);
+                    quotient[k - 1] = carry;
+                }
+                for (int k = 0; k < m; k++) {
+                    result[k][i] = field.mul(quotient[k], denominators[i]);
+                }
+            }
+            table = result;
+            return table;
+        }
+    }
+}
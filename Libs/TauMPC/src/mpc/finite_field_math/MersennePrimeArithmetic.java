@@ -0,0 +1,26 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.finite_field_math;
+
+/* Arithmetic modulo the Mersenne prime 2^31 - 1. Since 2^31 = 1 (mod p),
+ * x = hi * 2^31 + lo reduces to hi + lo, so no multiplication or division is needed */
+final class MersennePrimeArithmetic extends ZpArithmetic {
+
+    MersennePrimeArithmetic(int prime) {
+        super(prime);
+        if (prime != MERSENNE_31) {
+            throw new IllegalArgumentException("Prime " + prime + " is not 2^31 - 1");
+        }
+    }
+
+    @Override
+    protected int reduceProduct(long x) {
+        // x < 2^62, so after the first fold x < 2^32 and after the second x <= p + 1
+        x = (x & MERSENNE_31) + (x >>> 31);
+        x = (x & MERSENNE_31) + (x >>> 31);
+        return (int) (x >= MERSENNE_31 ? x - MERSENNE_31 : x);
+    }
+}
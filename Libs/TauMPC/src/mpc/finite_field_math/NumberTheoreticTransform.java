@@ -0,0 +1,434 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.finite_field_math;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/* Fast polynomial arithmetic over Z_p for the evaluation points of the Byzantine case - the powers w^0, w^1, ...
+ * of a primitive element. A field prime rarely has a large power of 2 in p-1, so products of polynomials are
+ * computed with NTTs over two or three fixed NTT primes and put together with the Chinese remainder theorem.
+ * On top of that:
+ *  - evaluateGeometric - the values of a polynomial at q^0..q^(n-1) with a single product (Bluestein's chirp-z)
+ *  - interpolateGeometric - the polynomial through values at q^0..q^(n-1) with two products (Bostan-Schost)
+ * Both are O(n log n) instead of the O(n^2) of Horner or of an inverse Vandermonde matrix. The constant factor is
+ * large, so isFasterThanHorner tells when they pay off. */
+public final class NumberTheoreticTransform {
+
+    /* NTT primes c * 2^k + 1, each with the primitive root 3 */
+    private static final long[] NTT_PRIMES = {998244353L, 469762049L, 167772161L};
+    private static final int MAX_LOG_LENGTH = 23;      // 998244353 - 1 = 119 * 2^23
+    private static final int MIN_NTT_LENGTH = 64;      // below this a product is done directly
+    private static final int TRANSFORM_COST = 10;      // a step of the transforms against a Horner step, measured by main
+
+    private static final long[][][][] rootTables = new long[NTT_PRIMES.length][2][MAX_LOG_LENGTH + 1][];
+    private static final int MAX_CHIRPS = 16;
+    /* The transformed chirps of evaluateGeometric, by prime, q and sizes - the protocols evaluate the same sizes again and again */
+    private static final Map<List<Integer>, long[][]> chirps = new LinkedHashMap<List<Integer>, long[][]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Integer>, long[][]> eldest) {
+            return size() > MAX_CHIRPS;
+        }
+    };
+
+    private NumberTheoreticTransform() {
+    }
+
+    /* True if evaluateGeometric beats Horner for a polynomial with the given number of coefficients at the given
+     * number of points - Horner takes coefficients * points steps and the transforms L log L for L about coefficients + points */
+    public static boolean isFasterThanHorner(int coefficients, int points) {
+        if (Math.min(coefficients, points) < MIN_NTT_LENGTH) {
+            return false;
+        }
+        int log = 32 - Integer.numberOfLeadingZeros(coefficients + points - 2);
+        return (long) coefficients * points > (long) TRANSFORM_COST * log << log;
+    }
+
+    /* The product of two polynomials (coefficients from low to high degree) over Z_prime */
+    public static int[] multiply(int[] a, int[] b, int prime) {
+        if (a.length == 0 || b.length == 0) {
+            return new int[0];
+        }
+        if (Math.min(a.length, b.length) < MIN_NTT_LENGTH) {
+            return multiplyDirectly(a, b, prime);
+        }
+        int resultLength = a.length + b.length - 1;
+        int log = getLogLength(resultLength);
+        int moduli = getModuliCount(Math.min(a.length, b.length), prime);
+        return multiplyTransformed(forward(a, log, moduli), forward(b, log, moduli), resultLength, prime);
+    }
+
+    private static int getLogLength(int resultLength) {
+        int log = 32 - Integer.numberOfLeadingZeros(resultLength - 1);
+        if (log > MAX_LOG_LENGTH) {
+            throw new IllegalArgumentException("Polynomials of " + resultLength + " coefficients are too long for the transform");
+        }
+        return log;
+    }
+
+    /* Every coefficient of the product is below terms * (p-1)^2, which the product of the NTT primes must exceed */
+    private static int getModuliCount(int terms, int prime) {
+        double bound = (double) terms * (prime - 1.0) * (prime - 1.0);
+        return bound < (double) NTT_PRIMES[0] * NTT_PRIMES[1] / 2 ? 2 : 3;
+    }
+
+    /* The transforms of the polynomial modulo each of the first moduli NTT primes */
+    private static long[][] forward(int[] a, int log, int moduli) {
+        long[][] transforms = new long[moduli][];
+        for (int m = 0; m < moduli; m++) {
+            transforms[m] = toResidues(a, 1 << log, NTT_PRIMES[m]);
+            transform(transforms[m], m, log, false);
+        }
+        return transforms;
+    }
+
+    private static int[] multiplyTransformed(long[][] fa, long[][] fb, int resultLength, int prime) {
+        int log = 31 - Integer.numberOfLeadingZeros(fa[0].length);
+        long[][] residues = new long[fa.length][];
+        for (int m = 0; m < fa.length; m++) {
+            long modulus = NTT_PRIMES[m];
+            long[] product = new long[fa[m].length];
+            for (int i = 0; i < product.length; i++) {
+                product[i] = fa[m][i] * fb[m][i] % modulus;
+            }
+            transform(product, m, log, true);
+            residues[m] = product;
+        }
+        return combine(residues, resultLength, prime);
+    }
+
+    private static int[] multiplyDirectly(int[] a, int[] b, int prime) {
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        int[] result = new int[a.length + b.length - 1];
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == 0) {
+                continue;
+            }
+            for (int j = 0; j < b.length; j++) {
+                result[i + j] = field.mulAdd(result[i + j], a[i], b[j]);
+            }
+        }
+        return result;
+    }
+
+    private static long[] toResidues(int[] values, int length, long modulus) {
+        long[] residues = new long[length];
+        for (int i = 0; i < values.length; i++) {
+            residues[i] = values[i] % modulus;
+        }
+        return residues;
+    }
+
+    /* In place iterative NTT of length 2^log modulo the m-th NTT prime; the inverse includes the division by the length */
+    private static void transform(long[] a, int m, int log, boolean isInverse) {
+        long modulus = NTT_PRIMES[m];
+        int n = a.length;
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                long temp = a[i];
+                a[i] = a[j];
+                a[j] = temp;
+            }
+        }
+        long[] roots = getRoots(m, log, isInverse);
+        for (int half = 1; half < n; half <<= 1) {
+            int stride = (n >> 1) / half;   // the roots of this stage are every stride-th root of the table
+            for (int start = 0; start < n; start += 2 * half) {
+                for (int k = 0; k < half; k++) {
+                    long u = a[start + k];
+                    long v = a[start + k + half] * roots[k * stride] % modulus;
+                    a[start + k] = u + v < modulus ? u + v : u + v - modulus;
+                    a[start + k + half] = u - v >= 0 ? u - v : u - v + modulus;
+                }
+            }
+        }
+        if (isInverse) {
+            long inverseLength = pow(n, modulus - 2, modulus);
+            for (int i = 0; i < n; i++) {
+                a[i] = a[i] * inverseLength % modulus;
+            }
+        }
+    }
+
+    /* The powers 0..n/2-1 of the primitive n-th root of unity (or of its inverse) modulo the m-th NTT prime, n = 2^log */
+    private static long[] getRoots(int m, int log, boolean isInverse) {
+        synchronized (rootTables) {
+            long[][] tables = rootTables[m][isInverse ? 1 : 0];
+            if (tables[log] == null) {
+                long modulus = NTT_PRIMES[m];
+                long root = pow(3, (modulus - 1) >> log, modulus);
+                if (isInverse) {
+                    root = pow(root, modulus - 2, modulus);
+                }
+                long[] roots = new long[Math.max(1, (1 << log) >> 1)];
+                roots[0] = 1;
+                for (int k = 1; k < roots.length; k++) {
+                    roots[k] = roots[k - 1] * root % modulus;
+                }
+                tables[log] = roots;
+            }
+            return tables[log];
+        }
+    }
+
+    /* Garner's algorithm - the coefficient modulo the product of the NTT primes, then modulo the field prime */
+    private static int[] combine(long[][] residues, int length, int prime) {
+        long m0 = NTT_PRIMES[0];
+        long m1 = NTT_PRIMES[1];
+        long m2 = NTT_PRIMES[2];
+        long m0InvMod1 = pow(m0 % m1, m1 - 2, m1);
+        long m01InvMod2 = pow(m0 % m2 * (m1 % m2) % m2, m2 - 2, m2);
+        long m0ModP = m0 % prime;
+        long m01ModP = m0ModP * (m1 % prime) % prime;
+        int[] result = new int[length];
+        for (int i = 0; i < length; i++) {
+            long x0 = residues[0][i];
+            long x1 = (residues[1][i] - x0 % m1 + m1) % m1 * m0InvMod1 % m1;
+            long value = (x0 % prime + x1 % prime * m0ModP) % prime;
+            if (residues.length > 2) {
+                long x01 = (x0 % m2 + x1 % m2 * (m0 % m2)) % m2;
+                long x2 = (residues[2][i] - x01 + m2) % m2 * m01InvMod2 % m2;
+                value = (value + x2 % prime * m01ModP) % prime;
+            }
+            result[i] = (int) value;
+        }
+        return result;
+    }
+
+    private static long pow(long base, long exp, long modulus) {
+        long result = 1;
+        base %= modulus;
+        while (exp > 0) {
+            if ((exp & 1) != 0) {
+                result = result * base % modulus;
+            }
+            base = base * base % modulus;
+            exp >>= 1;
+        }
+        return result;
+    }
+
+    /* The values of the polynomial at q^0, ..., q^(count-1). With T(k) = k(k-1)/2, i*j = T(i+j) - T(i) - T(j), so
+     * f(q^j) = q^-T(j) * sum(a_i q^-T(i) * q^T(i+j)) - a single product of two sequences (Bluestein's chirp-z) */
+    public static int[] evaluateGeometric(int[] coeffs, int q, int count, int prime) {
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        int m = coeffs.length;
+        if (m == 0 || count == 0) {
+            return new int[count];
+        }
+        int[] inverseChirp = getChirp(field, field.inverse(q), Math.max(m, count));
+        int[] reversed = new int[m];
+        for (int i = 0; i < m; i++) {
+            reversed[m - 1 - i] = field.mul(coeffs[i], inverseChirp[i]);
+        }
+        int[] product;
+        if (m < MIN_NTT_LENGTH) {
+            product = multiply(reversed, getChirp(field, q, m + count - 1), prime);
+        } else {
+            int log = getLogLength(2 * m + count - 2);
+            int moduli = getModuliCount(m, prime);
+            product = multiplyTransformed(forward(reversed, log, moduli), getTransformedChirp(field, q, m, count, log, moduli), 2 * m + count - 2, prime);
+        }
+        int[] values = new int[count];
+        for (int j = 0; j < count; j++) {
+            values[j] = field.mul(product[m - 1 + j], inverseChirp[j]);
+        }
+        return values;
+    }
+
+    private static long[][] getTransformedChirp(ZpArithmetic field, int q, int m, int count, int log, int moduli) {
+        List<Integer> key = Arrays.asList(field.prime, q, m, count);
+        synchronized (chirps) {
+            long[][] transformed = chirps.get(key);
+            if (transformed == null) {
+                transformed = forward(getChirp(field, q, m + count - 1), log, moduli);
+                chirps.put(key, transformed);
+            }
+            return transformed;
+        }
+    }
+
+    /* chirp[k] = q^T(k) = q^(k(k-1)/2) */
+    private static int[] getChirp(ZpArithmetic field, int q, int length) {
+        int[] chirp = new int[length];
+        int power = 1;      // q^k
+        int value = 1;
+        for (int k = 0; k < length; k++) {
+            chirp[k] = value;
+            value = field.mul(value, power);
+            power = field.mul(power, q);
+        }
+        return chirp;
+    }
+
+    /* The coefficients of the polynomial of degree < n with the given values at q^0, ..., q^(n-1), which must be distinct.
+     * By Lagrange P(x) = sum(u_i * prod_(j != i)(x - q^j)) with u_i = v_i / prod_(j != i)(q^i - q^j). The reversed
+     * polynomial R(x) = sum(u_i * prod_(j != i)(1 - q^j x)) is prod(1 - q^i x) * sum(u_i / (1 - q^i x)) modulo x^n,
+     * and the power series of the sum has the coefficients sum(u_i q^(ik)) - a geometric evaluation of u */
+    public static int[] interpolateGeometric(int[] values, int q, int prime) {
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        int n = values.length;
+        if (n == 0) {
+            return new int[0];
+        }
+        int[] inverseDenominators = getInverseDenominators(field, q, n);
+        int[] weighted = new int[n];
+        for (int i = 0; i < n; i++) {
+            weighted[i] = field.mul(values[i], inverseDenominators[i]);
+        }
+        int[] series = evaluateGeometric(weighted, q, n, prime);
+
+        // prod_(i<n)(1 - q^i x) = sum((-1)^k q^T(k) [n k]_q x^k), [n k]_q = [n k-1]_q (1 - q^(n-k+1)) / (1 - q^k)
+        int[] chirp = getChirp(field, q, n);
+        int[] qPowers = new int[n + 1];
+        qPowers[0] = 1;
+        for (int k = 1; k <= n; k++) {
+            qPowers[k] = field.mul(qPowers[k - 1], q);
+        }
+        int[] binomialDenominators = new int[n];
+        for (int k = 1; k <= n - 1; k++) {
+            binomialDenominators[k] = field.sub(1, qPowers[k]);
+        }
+        binomialDenominators[0] = 1;
+        field.batchInverse(binomialDenominators);
+        int[] product = new int[n];     // only the coefficients below x^n are needed
+        int binomial = 1;
+        for (int k = 0; k < n; k++) {
+            if (k > 0) {
+                binomial = field.mul(field.mul(binomial, field.sub(1, qPowers[n - k + 1])), binomialDenominators[k]);
+            }
+            int coeff = field.mul(chirp[k], binomial);
+            product[k] = (k & 1) == 0 ? coeff : field.neg(coeff);
+        }
+        int[] reversed = multiply(product, series, prime);
+        int[] coeffs = new int[n];
+        for (int k = 0; k < n; k++) {
+            coeffs[k] = reversed[n - 1 - k];
+        }
+        return coeffs;
+    }
+
+    /* Horner against the transform for the shares of n players of a polynomial of degree n/4 */
+    private static void compareWithHorner(int prime, Random random, boolean isPrinting) {
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        int w = FieldContext.getInstance(prime).getGenerator();
+        int runs = 20;
+        for (int n = 64; n <= 4096; n *= 2) {
+            int[] coeffs = new int[n / 4 + 1];
+            for (int i = 0; i < coeffs.length; i++) {
+                coeffs[i] = random.nextInt(prime);
+            }
+            int[] points = Shamir.getEvaluationPoints(n, prime, true);
+            int[] values = new int[n];
+            long start = System.nanoTime();
+            for (int r = 0; r < runs; r++) {
+                field.evaluate(coeffs, points, values);
+            }
+            long horner = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int r = 0; r < runs; r++) {
+                evaluateGeometric(coeffs, w, n, prime);
+            }
+            long fast = System.nanoTime() - start;
+            if (isPrinting) {
+                System.out.println(String.format(Locale.US, "p=%d n=%5d  Horner %8.3f ms  chirp-z %8.3f ms  %s", prime, n,
+                        horner / 1e6 / runs, fast / 1e6 / runs, isFasterThanHorner(coeffs.length, n) ? "chirp-z" : "Horner"));
+            }
+        }
+    }
+
+    /* 1 / prod_(j != i)(q^i - q^j) for i < n. With D(d) = prod_(e=1..d)(q^e - 1) the product is
+     * q^T(i) * D(i) * (-1)^(n-1-i) * q^(i(n-1-i)) * D(n-1-i) */
+    private static int[] getInverseDenominators(ZpArithmetic field, int q, int n) {
+        int[] powersMinusOne = new int[n];
+        powersMinusOne[0] = 1;
+        int power = 1;
+        for (int k = 1; k < n; k++) {
+            power = field.mul(power, q);
+            if (power == 1) {
+                throw new IllegalArgumentException("The powers of " + q + " repeat after " + k + " - cannot interpolate at " + n + " of them");
+            }
+            powersMinusOne[k] = field.mul(powersMinusOne[k - 1], field.sub(power, 1));
+        }
+        int[] chirp = getChirp(field, q, n);
+        int[] denominators = new int[n];
+        for (int i = 0; i < n; i++) {
+            int denominator = field.mul(field.mul(chirp[i], powersMinusOne[i]), powersMinusOne[n - 1 - i]);
+            denominator = field.mul(denominator, field.pow(q, (long) i * (n - 1 - i)));
+            denominators[i] = ((n - 1 - i) & 1) == 0 ? denominator : field.neg(denominator);
+        }
+        field.batchInverse(denominators);
+        return denominators;
+    }
+
+    /* The Lagrange weights at 0 of the points q^0, ..., q^(n-1) in O(n) - l_i(0) = prod_(j != i)(-q^j) / prod_(j != i)(q^i - q^j),
+     * and the numerator is (-1)^(n-1) q^(T(n) - i) */
+    public static int[] getGeometricWeightsAtZero(int q, int n, int prime) {
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        int[] weights = getInverseDenominators(field, q, n);
+        int inverseQ = field.inverse(q);
+        int numerator = field.pow(q, (long) n * (n - 1) / 2);
+        if (((n - 1) & 1) != 0) {
+            numerator = field.neg(numerator);
+        }
+        for (int i = 0; i < n; i++) {
+            weights[i] = field.mul(weights[i], numerator);
+            numerator = field.mul(numerator, inverseQ);
+        }
+        return weights;
+    }
+
+    public static void main(String[] args) {
+        int[] primes = {233, 65521, 1000003, 2147483647};
+        Random random = new Random(1);
+        for (int prime : primes) {
+            ZpArithmetic field = ZpArithmetic.getInstance(prime);
+            int w = FieldContext.getInstance(prime).getGenerator();
+            int[] sizes = {1, 5, 100, Math.min(prime - 1, 1000)};
+            for (int n : sizes) {
+                int[] coeffs = new int[n];
+                for (int i = 0; i < n; i++) {
+                    coeffs[i] = random.nextInt(prime);
+                }
+                int[] values = evaluateGeometric(coeffs, w, n, prime);
+                int point = 1;
+                for (int j = 0; j < n; j++) {
+                    if (values[j] != field.evaluate(coeffs, point)) {
+                        System.out.println("evaluation failed for prime " + prime + " and " + n + " points");
+                        return;
+                    }
+                    point = field.mul(point, w);
+                }
+                int[] interpolated = interpolateGeometric(values, w, prime);
+                if (!Arrays.equals(interpolated, coeffs)) {
+                    System.out.println("interpolation failed for prime " + prime + " and " + n + " points");
+                    return;
+                }
+                if (!Arrays.equals(getGeometricWeightsAtZero(w, n, prime), field.getLagrangeWeights(Shamir.getEvaluationPoints(n, prime, true), 0))) {
+                    System.out.println("Lagrange weights failed for prime " + prime + " and " + n + " points");
+                    return;
+                }
+            }
+        }
+
+        // the first pass warms up
+        for (int pass = 0; pass < 2; pass++) {
+            for (int prime : new int[] {65521, 2147483647}) {
+                compareWithHorner(prime, random, pass == 1);
+            }
+        }
+        System.out.println("Test Ended");
+    }
+}
@@ -9,8 +9,6 @@ import java.util.List;
  * To change this template, choose Tools | Templates
  * and open the template in the editor.
  */
-import java.util.Map;
-import java.util.TreeMap;
 
 
 public class Polynom
@@ -75,57 +73,47 @@ public class Polynom
             return null;
         }
         final int CoefficinesFieldSize = getCoefficinesFieldSize();
-        /* The initialized sum is 0 */
-        Zp Sum = new Zp(CoefficinesFieldSize,0);
-        
-        for(int i=0; i < Coeffncies.size(); i++)
+        ZpArithmetic field = ZpArithmetic.getInstance(CoefficinesFieldSize);
+        int x = field.reduce(SamplePoint.getValue());
+
+        /* Horner's rule: A0 + x(A1 + x(A2 + ... + x*An)) */
+        int Sum = 0;
+        for(int i = Coeffncies.size() - 1; i >= 0; i--)
         {
-            /* replace each "Ai*x^i" with "Ai*SamplePoint^i" */
-            Zp Xi = new Zp (CoefficinesFieldSize,
-                            Zp.calculatePower(SamplePoint.getValue(), i, CoefficinesFieldSize));
-            Zp Ai = new Zp(CoefficinesFieldSize, Coeffncies.get(i).getValue());
-          
-            Zp AiXi = Xi.mul(Ai);
-            
-            /* Sum all these values(A0+A1X^1+...AnX^n) */
-            Sum = Sum.add(AiXi);
+            Sum = field.mulAdd(Coeffncies.get(i).getValue(), Sum, x);
         }
         
-        return Sum;
+        return new Zp(CoefficinesFieldSize, Sum);
     }
     
     public Polynom divideWithRemainder( Polynom p) {         
         if (Coeffncies.size() == 0 || p.Coeffncies.size() == 0){
             return null;//null
         }
-        Polynom[] answer = new Polynom[2];    
         int prime = Coeffncies.get(0).prime;
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
         int m = getDegree();         
         int n = p.getDegree();         
         if ( m < n ){                 
             return null;       
         }         
-        Zp[] quotient = new Zp[ m - n + 1];         
-        Zp[] coef = new Zp[ m + 1];         
-        for ( int k = 0; k <= m; k++ )                 
-            coef[k] = new Zp(Coeffncies.get(k));         
-        Zp norm = new Zp(prime, p.Coeffncies.get(n).getFieldInverse(p.Coeffncies.get(n).getValue()));
+        int[] quotient = new int[ m - n + 1];         
+        int[] coef = toIntArray();
+        int[] divisor = p.toIntArray();
+        int norm = field.inverse(divisor[n]);
         for ( int k = m - n; k >= 0; k--){                 
-            quotient[k] = new Zp(prime, coef[ n + k].getValue() * norm.getValue());                 
+            quotient[k] = field.mul(coef[n + k], norm);
+            int negQuotient = field.neg(quotient[k]);
             for ( int j = n + k - 1; j >= k; j--)                         
-                coef[j] = new Zp(prime, coef[j].getValue() - quotient[k].getValue() * p.Coeffncies.get(j-k).getValue());
+                coef[j] = field.mulAdd(coef[j], negQuotient, divisor[j - k]);
         }         
-        Zp[] remainder = new Zp[n];         
-        for ( int k = 0; k < n; k++)                 
-            remainder[k] = new Zp(coef[k]);         
-        answer[0] = new Polynom( quotient);         
-        answer[1] = new Polynom( remainder);  
-        for (Zp zp : answer[1].Coeffncies){
-            if (zp.getValue() != 0){
+        /* the remainder is coef[0..n-1] */
+        for ( int k = 0; k < n; k++){
+            if (coef[k] != 0){
                 return null;
             }
         }
-        return answer[0];
+        return new Polynom(quotient, prime);
     } 
         
     /**
@@ -193,21 +181,25 @@ public class Polynom
     public Polynom multiply(Polynom p){
         assert getDegree() > p.getDegree() && Coeffncies.size() > 0;
         int prime = Coeffncies.get(0).prime;
-        Map<Integer, Zp> coeffs = new TreeMap<Integer, Zp>();
-        for (int deg1 = 0; deg1 <= getDegree(); deg1++){
-            for (int deg2 = 0; deg2 <= p.getDegree(); deg2++){ 
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        int[] a = toIntArray();
+        int[] b = p.toIntArray();
+        int[] coeffs = new int[a.length + b.length - 1];
+        for (int deg1 = 0; deg1 < a.length; deg1++){
+            for (int deg2 = 0; deg2 < b.length; deg2++){ 
                 int deg = deg1 + deg2;
-                Zp curr = coeffs.get(deg);
-                Zp newValue = new Zp(prime, Coeffncies.get(deg1).getValue() * p.Coeffncies.get(deg2).getValue());
-                if (curr == null){
-                    curr = newValue;                    
-                }else{
-                    curr = new Zp(prime, curr.getValue() + newValue.getValue());
-                }
-                coeffs.put(deg, curr);
+                coeffs[deg] = field.mulAdd(coeffs[deg], a[deg1], b[deg2]);
             }           
         }
-        return new Polynom(new ArrayList<Zp>(coeffs.values()));
+        return new Polynom(coeffs, prime);
+    }
+
+    private int[] toIntArray(){
+        int[] values = new int[Coeffncies.size()];
+        for (int i = 0; i < values.length; i++){
+            values[i] = Coeffncies.get(i).getValue();
+        }
+        return values;
     }
     
     public static void main(String[] args){
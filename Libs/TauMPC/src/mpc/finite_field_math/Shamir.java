@@ -19,24 +19,51 @@ public class Shamir {
         if (numberOfPlayers <= polynomDeg) {
             throw new IllegalArgumentException("Polynomial degree cannot be bigger or equal to the number of  players");
         }
-        //Creating the Random Polynomial - f(x)
-        ZpMatrix randomMatrix = ZpMatrix.getRandomMatrix(1, polynomDeg + 1, secret.prime);
-        //The free variable in the Random Polynomial( f(x) ) is the seceret
-        randomMatrix.setMatrixCell(0, 0, secret);
+        //Creating the Random Polynomial - f(x), the free variable is the seceret
+        int[] randomPolynomial = getRandomPolynomial(secret, polynomDeg);
 
-        //Create vanderMonde matrix
-        ZpMatrix vanderMonde;
-        if (usePrimitiveShare){
-            vanderMonde = ZpMatrix.getPrimitiveVandermondeMatrix(polynomDeg + 1, numberOfPlayers, secret.prime);
-        } else {
-            vanderMonde = ZpMatrix.getVandermondeMatrix(polynomDeg + 1, numberOfPlayers, secret.prime);
+        //compute f(i) for the i-th  player (Horner evaluation instead of multiplying by a Vandermonde matrix)
+        return evaluateAtPlayers(randomPolynomial, numberOfPlayers, secret.prime, usePrimitiveShare);
+    }
+
+    private static int[] getRandomPolynomial(Zp secret, int polynomDeg) {
+        int[] coeffs = new int[polynomDeg + 1];
+        coeffs[0] = secret.getValue();
+        for (int i = 1; i <= polynomDeg; i++) {
+            coeffs[i] = Zp.modulo((int) (Math.random() * (secret.prime)), secret.prime);
         }
+        return coeffs;
+    }
 
-        //compute f(i) for the i-th  player
-        Zp[] sharesArr = randomMatrix.times(vanderMonde).getZpVector();
+    /* The evaluation points of the players - i+1 for the i-th player, or w^i when using the primitive w */
+    public static int[] getEvaluationPoints(int numberOfPoints, int prime, boolean usePrimitive) {
+        if (usePrimitive) {
+            return FieldContext.getInstance(prime).getGeneratorPowers(numberOfPoints);
+        }
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        int[] points = new int[numberOfPoints];
+        for (int i = 0; i < numberOfPoints; i++) {
+            points[i] = field.reduce(i + 1);
+        }
+        return points;
+    }
 
-        //List<Zp> sharesList = new ArrayList<Zp>();
-        return Arrays.asList(sharesArr);
+    /* The values of the polynomial at the points of the players. The powers of the primitive are a geometric
+     * sequence, so for large polynomials they are evaluated together with a chirp-z transform */
+    public static List<Zp> evaluateAtPlayers(int[] polynomial, int numberOfPlayers, int prime, boolean usePrimitive) {
+        List<Zp> values = new ArrayList<Zp>(numberOfPlayers);
+        if (usePrimitive && NumberTheoreticTransform.isFasterThanHorner(polynomial.length, numberOfPlayers)) {
+            int[] fastValues = NumberTheoreticTransform.evaluateGeometric(polynomial, FieldContext.getInstance(prime).getGenerator(), numberOfPlayers, prime);
+            for (int value : fastValues) {
+                values.add(new Zp(prime, value));
+            }
+            return values;
+        }
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        for (int point : getEvaluationPoints(numberOfPlayers, prime, usePrimitive)) {
+            values.add(new Zp(prime, field.evaluate(polynomial, point)));
+        }
+        return values;
     }
 
     /* Should evaluate the shared secrets of secret with polynom
@@ -46,18 +73,17 @@ public class Shamir {
         if (numberOfPlayers <= polynomDeg) {
             throw new IllegalArgumentException("Polynomial degree cannot be bigger or equal to the number of  players");
         }
-        //Creating the Random Polynomial - f(x)
-        ZpMatrix randomMatrix = ZpMatrix.getRandomMatrix(1, polynomDeg + 1, secret.prime);
-        //The free variable in the Random Polynomial( f(x) ) is the seceret
-        randomMatrix.setMatrixCell(0, 0, secret);
+        //Creating the Random Polynomial - f(x), the free variable is the seceret
+        int[] randomPolynomial = getRandomPolynomial(secret, polynomDeg);
+        List<Zp> coeffs = new ArrayList<Zp>(randomPolynomial.length);
+        for (int coeff : randomPolynomial) {
+            coeffs.add(new Zp(secret.prime, coeff));
+        }
 
-        //Create vanderMonde matrix
-        ZpMatrix vanderMonde = ZpMatrix.getPrimitiveVandermondeMatrix(polynomDeg + 1, numberOfPlayers, secret.prime);
-        
-        //compute f(i) for the i-th  player
-        Zp[] sharesArr = randomMatrix.times(vanderMonde).getZpVector();
+        //compute f(w^i) for the i-th  player
+        List<Zp> shares = evaluateAtPlayers(randomPolynomial, numberOfPlayers, secret.prime, true);
 
-        ShareDetails details = new ShareDetails(randomMatrix.getMatrixRow(0), Arrays.asList(sharesArr));
+        ShareDetails details = new ShareDetails(coeffs, shares);
 
         return details;
     }
@@ -86,13 +112,17 @@ public class Shamir {
         //first  row  coef are of  (x^0,x^1,x^2,...,x^t)y^0, second  row  coef are (x^0, x1,...,x^t)y^1 and so forth...
         ZpMatrix randomMatrix_f_xy = ZpMatrix.getRandomMatrix(polynomDeg + 1, polynomDeg + 1, secret.prime);
         randomMatrix_f_xy.setMatrixCell(0, 0, secret);
+        if (NumberTheoreticTransform.isFasterThanHorner(polynomDeg + 1, numberOfPlayers)) {
+            return shareByzantineCaseByColumns(randomMatrix_f_xy, numberOfPlayers);
+        }
         List<SecretPolynomials> polynomialShares = new ArrayList<SecretPolynomials>();
         SecretPolynomials pSecret;
+        int[] points = getEvaluationPoints(numberOfPlayers, secret.prime, true);
         
         for (int i = 0; i < numberOfPlayers; i++) {
             pSecret = new SecretPolynomials();
-            pSecret.setFi_xPolynomial( generateF_i_xPolynomial(randomMatrix_f_xy, secret , i));
-            pSecret.setGi_yPolynomial( generateG_i_yPolynomial(randomMatrix_f_xy, secret, i));
+            pSecret.setFi_xPolynomial( generateF_i_xPolynomial(randomMatrix_f_xy, secret , points[i]));
+            pSecret.setGi_yPolynomial( generateG_i_yPolynomial(randomMatrix_f_xy, secret, points[i]));
             polynomialShares.add(pSecret);
         }
         
@@ -100,15 +130,50 @@ public class Shamir {
     }
 
 
-    private static List<Zp> generateF_i_xPolynomial(ZpMatrix f_x_y,  Zp secret,  int playerNum) {
+    /* The coefficient of x^a in fi(x) is the column a of f(x,y) evaluated at w^i, and the coefficient of y^b in gi(y)
+     * is the row b evaluated at w^i - so all the polynomials of all the players are 2(t+1) evaluations at the points
+     * of the players, each with a single chirp-z transform */
+    private static List<SecretPolynomials> shareByzantineCaseByColumns(ZpMatrix f_x_y, int numberOfPlayers) {
+        int prime = f_x_y.getPrime();
+        int size = f_x_y.getRowNumber();
+        int[][] coeffs = f_x_y.getContent();
+        List<List<Zp>> fi_x = new ArrayList<List<Zp>>();
+        List<List<Zp>> gi_y = new ArrayList<List<Zp>>();
+        for (int i = 0; i < numberOfPlayers; i++) {
+            fi_x.add(new ArrayList<Zp>(size));
+            gi_y.add(new ArrayList<Zp>(size));
+        }
+        int[] column = new int[size];
+        for (int k = 0; k < size; k++) {
+            for (int b = 0; b < size; b++) {
+                column[b] = coeffs[b][k];
+            }
+            List<Zp> columnValues = evaluateAtPlayers(column, numberOfPlayers, prime, true);
+            List<Zp> rowValues = evaluateAtPlayers(coeffs[k], numberOfPlayers, prime, true);
+            for (int i = 0; i < numberOfPlayers; i++) {
+                fi_x.get(i).add(columnValues.get(i));
+                gi_y.get(i).add(rowValues.get(i));
+            }
+        }
+        List<SecretPolynomials> polynomialShares = new ArrayList<SecretPolynomials>(numberOfPlayers);
+        for (int i = 0; i < numberOfPlayers; i++) {
+            SecretPolynomials pSecret = new SecretPolynomials();
+            pSecret.setFi_xPolynomial(fi_x.get(i));
+            pSecret.setGi_yPolynomial(gi_y.get(i));
+            polynomialShares.add(pSecret);
+        }
+        return polynomialShares;
+    }
 
-        int  w = Zp.getFieldMinimumPrimitive(secret.prime);
-        int w_i = Zp.calculatePower(w, playerNum, secret.prime);
+    /* w_i is the evaluation point of the player - w^i */
+    private static List<Zp> generateF_i_xPolynomial(ZpMatrix f_x_y,  Zp secret,  int w_i) {
 
-        int[] y_values = new int[f_x_y.getColNumber()];
-        for (int i = 0; i < f_x_y.getColNumber(); i++)
+        ZpArithmetic field = ZpArithmetic.getInstance(secret.prime);
+        int[] y_values = new int[f_x_y.getRowNumber()];
+        y_values[0] = 1;
+        for (int i = 1; i < y_values.length; i++)
         {
-            y_values[i] = Zp.calculatePower(w_i, i, secret.prime);
+            y_values[i] = field.mul(y_values[i - 1], w_i);
         }
         
         List<Zp> f_x_iShares = Arrays.asList(f_x_y.mulMatrixByScalarsVector( y_values ).SumMatrixRows());
@@ -116,15 +181,15 @@ public class Shamir {
     }
 
     
-    private static List<Zp> generateG_i_yPolynomial(ZpMatrix f_x_y,  Zp secret,  int playerNum) {
-
-        int  w = Zp.getFieldMinimumPrimitive(secret.prime);
-        int w_i = Zp.calculatePower(w, playerNum, secret.prime);
+    private static List<Zp> generateG_i_yPolynomial(ZpMatrix f_x_y,  Zp secret,  int w_i) {
 
-        Zp[]   x_values= new Zp[f_x_y.getRowNumber()];
-        for (int i = 0; i < f_x_y.getRowNumber(); i++)
+        ZpArithmetic field = ZpArithmetic.getInstance(secret.prime);
+        Zp[]   x_values= new Zp[f_x_y.getColNumber()];
+        int x_i = 1;
+        for (int i = 0; i < x_values.length; i++)
         {
-            x_values[i] = new Zp(secret.prime, Zp.calculatePower(w_i, i, secret.prime));
+            x_values[i] = new Zp(secret.prime, x_i);
+            x_i = field.mul(x_i, w_i);
         }
 
         Zp[] tempArr = f_x_y.times(new ZpMatrix(x_values, ZpMatrix.VectorType.COLOMN_VECTOR)).getZpVector();
@@ -140,21 +205,15 @@ public class Shamir {
         if (sharedSecrets.size() <= polynomDeg) {
             throw new IllegalArgumentException("Polynomial degree cannot be bigger or equal to the number of  shares");
         }
-        ZpMatrix A  = null;
-
-        if (usePrimitiveRecombine)
-        {
-                 A = ZpMatrix.getSymmetricPrimitiveVandermondeMatrix(polynomDeg + 1, prime).getTransposeMatrix();
-        }
-        else
+        // f(0) is a linear combination of the first t+1 shares with the Lagrange weights of their points at 0
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        int[] weights = LagrangeCache.getRecombinationWeights(prime, getEvaluationPoints(polynomDeg + 1, prime, usePrimitiveRecombine));
+        int secret = 0;
+        for (int i = 0; i < weights.length; i++)
         {
-                A  = ZpMatrix.getShamirRecombineMatrix(polynomDeg + 1, prime);
+                secret = field.mulAdd(secret, weights[i], sharedSecrets.get(i).getValue());
         }
-        Zp[] sharedArr = new Zp[sharedSecrets.size()];
-        sharedSecrets.toArray(sharedArr);
-        Zp[] truncShare = truncateVector(sharedArr, polynomDeg + 1);
-        Zp[] solution = A.solve(truncShare);
-        return solution[0];
+        return new Zp(prime, secret);
     }
 
 
@@ -168,6 +227,94 @@ public class Shamir {
             return recombine(sharedSecrets, polynomDeg, prime, true);
    }
 
+    /* The evaluation points of the secrets of a packed sharing - 0, -1, ..., -(k-1). A single secret is at 0
+     * as in share, and none of the points is the point of a player while numberOfPlayers + k <= prime */
+    public static int[] getPackingPoints(int packingFactor, int prime) {
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        int[] points = new int[packingFactor];
+        for (int i = 0; i < packingFactor; i++) {
+            points[i] = field.neg(field.reduce(i));
+        }
+        return points;
+    }
+
+    /* Packed (Franklin-Yung) sharing - the k secrets are the values of a single polynomial at the k packing points,
+     * so the n shares carry all of them. The polynomial has degree polynomDeg + k - 1 and random values at the points
+     * of the first polynomDeg players, so any polynomDeg players learn nothing about the secrets.
+     * With a single secret this is share. */
+    public static List<Zp> packedShare(List<Zp> secrets, int numberOfPlayers, int polynomDeg) {
+        int packingFactor = secrets.size();
+        int prime = secrets.get(0).prime;
+        if (numberOfPlayers <= polynomDeg + packingFactor - 1) {
+            throw new IllegalArgumentException("Packed polynomial degree cannot be bigger or equal to the number of  players");
+        }
+        if (numberOfPlayers + packingFactor > prime) {
+            throw new IllegalArgumentException("The field " + prime + " is too small to pack " + packingFactor + " secrets for " + numberOfPlayers + " players");
+        }
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        int[] points = getPackedInterpolationPoints(packingFactor, polynomDeg, prime);
+        int[] values = new int[points.length];
+        for (int i = 0; i < packingFactor; i++) {
+            values[i] = secrets.get(i).getValue();
+        }
+        for (int i = packingFactor; i < values.length; i++) {
+            values[i] = Zp.modulo((int) (Math.random() * prime), prime);
+        }
+
+        int[] playerPoints = getEvaluationPoints(numberOfPlayers, prime, false);
+        List<Zp> shares = new ArrayList<Zp>(numberOfPlayers);
+        for (int playerPoint : playerPoints) {
+            shares.add(new Zp(prime, field.dot(LagrangeCache.getWeightsAt(prime, points, playerPoint), values)));
+        }
+        return shares;
+    }
+
+    /* The packing points followed by the points of the first polynomDeg players - the packed polynomial is the
+     * interpolation of the secrets and the random values at these points */
+    private static int[] getPackedInterpolationPoints(int packingFactor, int polynomDeg, int prime) {
+        int[] points = Arrays.copyOf(getPackingPoints(packingFactor, prime), packingFactor + polynomDeg);
+        System.arraycopy(getEvaluationPoints(polynomDeg, prime, false), 0, points, packingFactor, polynomDeg);
+        return points;
+    }
+
+    /* Recombines the k secrets of a packed sharing from the shares of the first polynomDeg + k players */
+    public static List<Zp> packedRecombine(List<Zp> sharedSecrets, int polynomDeg, int packingFactor, int prime) {
+        int degree = polynomDeg + packingFactor - 1;
+        if (sharedSecrets.size() <= degree) {
+            throw new IllegalArgumentException("Packed polynomial degree cannot be bigger or equal to the number of  shares");
+        }
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        int[] points = getEvaluationPoints(degree + 1, prime, false);
+        int[] values = new int[points.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = sharedSecrets.get(i).getValue();
+        }
+        List<Zp> secrets = new ArrayList<Zp>(packingFactor);
+        for (int packingPoint : getPackingPoints(packingFactor, prime)) {
+            secrets.add(new Zp(prime, field.dot(LagrangeCache.getWeightsAt(prime, points, packingPoint), values)));
+        }
+        return secrets;
+    }
+
+    /* The degree reduction of a packed product, as GRR does for a single product. The product of two packed shares
+     * is a share of a polynomial h of degree 2(polynomDeg + k - 1) < n, and each secret h(b_j) is sum(l_ij * h(i)) over
+     * all the players. Player i shares the vector of l_ij * h(i) with a packed sharing, and the sum of the sharings
+     * of all the players is a packed sharing of the products with the degree of the protocol. */
+    public static List<Zp> getPackedReductionShares(Zp product, int playerIndex, int numberOfPlayers, int polynomDeg, int packingFactor) {
+        int prime = product.prime;
+        if (numberOfPlayers <= 2 * (polynomDeg + packingFactor - 1)) {
+            throw new IllegalArgumentException("Cannot reduce the degree of a packed product with " + numberOfPlayers + " players");
+        }
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        int[] playerPoints = getEvaluationPoints(numberOfPlayers, prime, false);
+        List<Zp> scaled = new ArrayList<Zp>(packingFactor);
+        for (int packingPoint : getPackingPoints(packingFactor, prime)) {
+            int weight = LagrangeCache.getWeightsAt(prime, playerPoints, packingPoint)[playerIndex];
+            scaled.add(new Zp(prime, field.mul(weight, product.getValue())));
+        }
+        return packedShare(scaled, numberOfPlayers, polynomDeg);
+    }
+
     /* This function creates a random poynomial Qj(x) ,for the j player,and creates a list of elements,
      *such that the i-th element is Qj(i) */
     public static List<Zp> getRandomizedShares(int numberOfPlayers, int polynomDeg, int prime) {
@@ -191,18 +338,6 @@ public class Shamir {
         return newShare;
     }
 
-    private static Zp[] truncateVector(Zp[] vector, int toSize) {
-        if (vector.length < toSize) {
-            return null;
-        }
-
-        Zp[] truncVec = new Zp[toSize];
-        for (int i = 0; i < toSize; i++) {
-            truncVec[i] = new Zp(vector[i]);
-        }
-        return truncVec;
-    }
-
     public static boolean checkSharedSecrets(Zp secret, int numberOfPlayers, int polynomDeg, int prime) {
         return secret.equals(recombine(share(secret, numberOfPlayers, polynomDeg), polynomDeg, prime));
     }
@@ -272,6 +407,34 @@ public class Shamir {
                 }
         }
 
+        //check packed sharing, and the product of two packed sharings after the degree reduction
+        int packedPlayers = 7;
+        int packingFactor = 2;
+        List<Zp> left = Arrays.asList(new Zp(prime, 3), new Zp(prime, 200));
+        List<Zp> right = Arrays.asList(new Zp(prime, 7), new Zp(prime, 45));
+        List<Zp> leftShares = Shamir.packedShare(left, packedPlayers, polynomDeg);
+        List<Zp> rightShares = Shamir.packedShare(right, packedPlayers, polynomDeg);
+        if (!Shamir.packedRecombine(leftShares, polynomDeg, packingFactor, prime).equals(left)) {
+            System.out.println("Packed recombination failed !!!");
+            return;
+        }
+        List<Zp> reducedShares = new ArrayList<Zp>();
+        for (int j = 0; j < packedPlayers; j++) {
+            reducedShares.add(new Zp(prime, 0));
+        }
+        for (int i = 0; i < packedPlayers; i++) {
+            List<Zp> fromPlayer = Shamir.getPackedReductionShares(new Zp(leftShares.get(i)).mul(rightShares.get(i)), i, packedPlayers, polynomDeg, packingFactor);
+            for (int j = 0; j < packedPlayers; j++) {
+                reducedShares.get(j).add(fromPlayer.get(j));
+            }
+        }
+        List<Zp> products = Shamir.packedRecombine(reducedShares, polynomDeg, packingFactor, prime);
+        if (!products.get(0).equals(new Zp(left.get(0)).mul(right.get(0))) || !products.get(1).equals(new Zp(left.get(1)).mul(right.get(1)))) {
+            System.out.println("Packed multiplication failed !!!");
+            return;
+        }
+        System.out.println("Packed sharing verified");
+
         //check multiplication of 2 secrets between n players
 
 //        Zp secret1 = new Zp(prime, 9);
@@ -0,0 +1,61 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.finite_field_math;
+
+/* Arithmetic for primes below 2^15 - a product of two field elements plus a
+ * field element fits in an int, so everything stays in 32 bit arithmetic */
+final class SmallPrimeArithmetic extends ZpArithmetic {
+
+    SmallPrimeArithmetic(int prime) {
+        super(prime);
+        if (prime >= SMALL_PRIME_BOUND) {
+            throw new IllegalArgumentException("Prime " + prime + " is too big for int arithmetic");
+        }
+    }
+
+    @Override
+    protected int reduceProduct(long x) {
+        return (int) x % prime;
+    }
+
+    @Override
+    public int mul(int a, int b) {
+        return a * b % prime;
+    }
+
+    @Override
+    public int mulAdd(int acc, int a, int b) {
+        return (acc + a * b) % prime;
+    }
+
+    @Override
+    public int dot(int[] a, int[] b, int length) {
+        int acc = 0;
+        for (int i = 0; i < length; i++) {
+            acc = (acc + a[i] * b[i]) % prime;
+        }
+        return acc;
+    }
+
+    @Override
+    public void mulAddInto(int[] acc, int scalar, int[] x) {
+        if (scalar == 0) {
+            return;
+        }
+        for (int i = 0; i < acc.length; i++) {
+            acc[i] = (acc[i] + scalar * x[i]) % prime;
+        }
+    }
+
+    @Override
+    public int evaluate(int[] coeffs, int x) {
+        int acc = 0;
+        for (int i = coeffs.length - 1; i >= 0; i--) {
+            acc = (acc * x + coeffs[i]) % prime;
+        }
+        return acc;
+    }
+}
@@ -20,36 +20,37 @@ public class Zp {
 
     public Zp(Zp toCopy) {
         this.prime = toCopy.prime;
-        this.num = modulo(toCopy.num , this.prime);
+        this.num = toCopy.num;
     }
     
     public Zp add(Zp operand2){
-        num = modulo(num + operand2.getValue()) ;
+        num = getArithmetic().add(num, operand2.num);
         return this;        
     }
 
   public Zp constAdd(Zp operand2){
         Zp temp = new Zp(this);
-        temp.num = modulo(num + operand2.getValue());
+        temp.num = getArithmetic().add(num, operand2.num);
         return temp;
     }
 
 
     public Zp addListContent(List<Zp> zpList){
+        ZpArithmetic field = getArithmetic();
         for (Zp zp : zpList){
-            this.add(zp);
+            num = field.add(num, zp.num);
         }
         return this;
     }
 
     public Zp sub(Zp operand2){
-        num = modulo(num - operand2.getValue()) ;
+        num = getArithmetic().sub(num, operand2.num);
         return this;
     }
 
     public Zp constSub(Zp operand2){
         Zp temp = new Zp(this);
-        temp.num = modulo(num - operand2.getValue());
+        temp.num = getArithmetic().sub(num, operand2.num);
         return temp;
     }
 
@@ -57,7 +58,7 @@ public class Zp {
     public Zp divide(Zp operand2){
         if (operand2.num == 0)
             throw new IllegalArgumentException( "Cannot divide in zero" );
-        num = modulo(num * getFieldInverse(operand2.getValue()) ) ;
+        num = getArithmetic().div(num, operand2.num);
         return this;
     }
 
@@ -65,34 +66,31 @@ public class Zp {
        if (operand2.num == 0)
             throw new IllegalArgumentException( "Cannot divide in zero" );
         Zp temp = new Zp(this);
-        temp.num = modulo(num * getFieldInverse(operand2.getValue()) ) ;
+        temp.num = getArithmetic().div(num, operand2.num);
         return temp;
     }
 
 
+   /* Returns the inverse of fieldNum, or 0 if fieldNum is 0 */
    public  int  getFieldInverse(int fieldNum){
-       int temp;
-       fieldNum = modulo(fieldNum);
-       for (int j=1; j < prime; j++)
-       {
-               temp = modulo(fieldNum  *  j) ;
-               if  (temp == 1)
-                       return j;
-       }
-        return  0;
+       return FieldContext.getInstance(prime).inverse(fieldNum);
     }
 
 
     public Zp mul(Zp operand2){
-        num = modulo(num * operand2.getValue());
+        num = getArithmetic().mul(num, operand2.num);
         return this;        
     }
 
     public Zp constMul(Zp operand2){
         Zp temp = new Zp(this);
-        temp.num = modulo(num * operand2.getValue());
+        temp.num = getArithmetic().mul(num, operand2.num);
         return temp;
     }
+
+    private ZpArithmetic getArithmetic(){
+        return ZpArithmetic.getInstance(prime);
+    }
     
     public Zp Calculate(Zp operand2, Operation operation){
         switch(operation){
@@ -148,74 +146,39 @@ public class Zp {
   }
 
 
+ /* inverse table of the whole field, built in linear time with inv(i) = -(p/i) * inv(p mod i) */
  public static int[] getFieldInverseArr(int prime){
-        int temp;
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
         int[] invArr = new int[prime];
-
-        for (int i=0; i< prime; i++)
-            for (int j=0; j < prime; j++)
-            {
-                   temp = modulo(i * j, prime) ;
-                   if  (temp == 1)
-                   {
-                       invArr[i] = j;
-                       break;
-                   }           
-          }
+        if (prime > 1)
+        {
+                invArr[1] = 1;
+        }
+        for (int i = 2; i < prime; i++)
+        {
+                invArr[i] = field.neg(field.mul(prime / i, invArr[prime % i]));
+        }
         return invArr;
     }
 
+     /* The minimal generator of the multiplicative group, cached per prime (see FieldContext) */
      public static int  getFieldMinimumPrimitive(int prime){
-         int  w_i;
-         boolean cond;
-         boolean[] fieldElements = new boolean[prime];
-
-        for (int w = 2; w < prime; w++)
-        {
-                w_i = 1;
-                cond = true;
-                for (int i = 1; i < prime; i++)
-                {
-                        fieldElements[i] = false;
-                }
-
-                for (int i = 1; i < prime; i++)
-                {
-                        w_i = modulo(w * w_i, prime);
-                        if  (fieldElements[w_i])
-                        {
-                            cond = false;
-                            break;
-                        }
-                        fieldElements[w_i]  = true;
-                }
-
-                if (cond)
-                {
-                    return w;
-                }
-        }
-        
-        throw new IllegalArgumentException("Cannot find field primitive for a field from non prime number.");
+        return FieldContext.getInstance(prime).getGenerator();
      }
 
 
      public static int calculatePower(int base , int exp, int prime) {
-         int w_i = 1;
-         for (int i = 0; i < exp; i++)
-         {
-                w_i = modulo(base * w_i, prime);
-         }
-         return w_i;
+         return FieldContext.getInstance(prime).pow(base, exp);
      }
 
 
     public static Zp evalutePolynomialAtPoint(List<Zp> polynomial, Zp point){
-         int evaluation = 0;
-        for (int i =0; i < polynomial.size();i++){
-            evaluation += polynomial.get(i).getValue() * calculatePower(point.getValue(), i, point.prime);
+        ZpArithmetic field = ZpArithmetic.getInstance(point.prime);
+        int evaluation = 0;
+        for (int i = polynomial.size() - 1; i >= 0; i--){
+            evaluation = field.mulAdd(polynomial.get(i).num, evaluation, point.num);
         }
-         return new Zp(point.prime, evaluation);
+        return new Zp(point.prime, evaluation);
     }
     
 
@@ -250,9 +213,10 @@ public class Zp {
         for (int i = 1; i < prime; i++)
         {
                 System.out.print( w_i + ", ");
-                w_i = modulo(primitive * w_i, prime);
+                w_i = calculatePower(primitive, i, prime);
         }
         System.out.println( );
+        System.out.println(getFieldMinimumPrimitive(ZpArithmetic.MERSENNE_31));
 
 
     }
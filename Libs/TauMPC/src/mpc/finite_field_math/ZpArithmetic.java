@@ -0,0 +1,373 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.finite_field_math;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import mpc.communication.ToServerObject;
+import mpc.sendables.Sendable;
+
+/* Primitive arithmetic over Z_p working directly on int values and int arrays.
+ * Nothing in here allocates, so hot loops can stay on plain ints.
+ * The back-end is chosen by the size and shape of the prime (see getInstance):
+ *  - primes below 2^15 - products fit in an int, plain int arithmetic
+ *  - the Mersenne prime 2^31 - 1 - reduction with shifts and adds
+ *  - any other prime - Barrett reduction on long products
+ * The values are ints (as in Zp and the sendables), so 2^31 - 1 is the widest prime - there is no back-end for
+ * 61-bit primes or arbitrary precision.
+ * All values passed in are assumed to be already reduced to [0, prime). */
+public abstract class ZpArithmetic {
+
+    public static final int SMALL_PRIME_BOUND = 1 << 15;
+    public static final int MERSENNE_31 = Integer.MAX_VALUE;
+
+    private static final Map<Integer, ZpArithmetic> instances = new HashMap<Integer, ZpArithmetic>();
+    private static volatile ZpArithmetic lastUsed;
+
+    public final int prime;
+    protected final int bits;         // k - the number of bits of the prime
+    private int quadraticNonResidue = 0;  // found on first use
+
+    protected ZpArithmetic(int prime) {
+        if (prime < 2) {
+            throw new IllegalArgumentException("Illegal field size " + prime);
+        }
+        this.prime = prime;
+        this.bits = 32 - Integer.numberOfLeadingZeros(prime);
+    }
+
+    /* Returns the (shared) arithmetic engine of Z_prime */
+    public static ZpArithmetic getInstance(int prime) {
+        ZpArithmetic last = lastUsed;
+        if (last != null && last.prime == prime) {
+            return last;
+        }
+        synchronized (instances) {
+            last = instances.get(prime);
+            if (last == null) {
+                last = create(prime);
+                instances.put(prime, last);
+            }
+        }
+        lastUsed = last;
+        return last;
+    }
+
+    private static ZpArithmetic create(int prime) {
+        if (prime < SMALL_PRIME_BOUND) {
+            return new SmallPrimeArithmetic(prime);
+        }
+        if (prime == MERSENNE_31) {
+            return new MersennePrimeArithmetic(prime);
+        }
+        return new BarrettArithmetic(prime);
+    }
+
+    /* Reduces 0 <= x < 2^(2k), which covers any product of two reduced values plus a reduced value */
+    protected abstract int reduceProduct(long x);
+
+    /* Reduces any long value to [0, prime) */
+    public int reduce(long x) {
+        if (x >= 0 && (x >>> (2 * bits)) == 0) {
+            return reduceProduct(x);
+        }
+        long r = x % prime;
+        return (int) (r < 0 ? r + prime : r);
+    }
+
+    /* Reduces any int value to [0, prime) */
+    public int reduce(int x) {
+        int r = x % prime;
+        return r < 0 ? r + prime : r;
+    }
+
+    public int add(int a, int b) {
+        int s = a - prime + b;
+        return s < 0 ? s + prime : s;
+    }
+
+    public int sub(int a, int b) {
+        int d = a - b;
+        return d < 0 ? d + prime : d;
+    }
+
+    public int neg(int a) {
+        return a == 0 ? 0 : prime - a;
+    }
+
+    public int mul(int a, int b) {
+        return reduceProduct((long) a * b);
+    }
+
+    /* Returns acc + a * b */
+    public int mulAdd(int acc, int a, int b) {
+        return reduceProduct(acc + (long) a * b);
+    }
+
+    public int div(int a, int b) {
+        return mul(a, inverse(b));
+    }
+
+    /* Square and multiply */
+    public int pow(int base, long exp) {
+        if (exp < 0) {
+            return pow(inverse(base), -exp);
+        }
+        long result = 1;
+        long b = reduce(base);
+        while (exp > 0) {
+            if ((exp & 1) != 0) {
+                result = reduceProduct(result * b);
+            }
+            b = reduceProduct(b * b);
+            exp >>= 1;
+        }
+        return (int) result;
+    }
+
+    public int inverse(int a) {
+        return inverse(a, prime);
+    }
+
+    /* Extended Euclid */
+    public static int inverse(int a, int prime) {
+        int r0 = prime, r1 = a % prime;
+        if (r1 < 0) {
+            r1 += prime;
+        }
+        if (r1 == 0) {
+            throw new IllegalArgumentException("Cannot divide in zero");
+        }
+        long s0 = 0, s1 = 1;
+        while (r1 != 0) {
+            int q = r0 / r1;
+            int r = r0 - q * r1;
+            r0 = r1;
+            r1 = r;
+            long s = s0 - q * s1;
+            s0 = s1;
+            s1 = s;
+        }
+        // r0 is gcd(a, prime) == 1
+        long inv = s0 % prime;
+        return (int) (inv < 0 ? inv + prime : inv);
+    }
+
+    /* Euler's criterion - 1 if a is a non zero square, -1 if it is not a square and 0 if a is 0. prime must be odd */
+    public int legendreSymbol(int a) {
+        if (a == 0) {
+            return 0;
+        }
+        return pow(a, (prime - 1) / 2) == 1 ? 1 : -1;
+    }
+
+    /* The smallest value that is not a square. prime must be odd */
+    public int getQuadraticNonResidue() {
+        if (quadraticNonResidue == 0) {
+            int q = 2;
+            while (legendreSymbol(q) != -1) {
+                q++;
+            }
+            quadraticNonResidue = q;
+        }
+        return quadraticNonResidue;
+    }
+
+    /* A square root of a (Tonelli-Shanks) - the other root is its negation. a must be a square */
+    public int sqrt(int a) {
+        if (a == 0 || prime == 2) {
+            return a;
+        }
+        if (legendreSymbol(a) != 1) {
+            throw new IllegalArgumentException(a + " is not a square mod " + prime);
+        }
+        if ((prime & 3) == 3) {
+            return pow(a, (prime + 1L) / 4);
+        }
+        // prime - 1 = q * 2^s with q odd
+        int q = prime - 1;
+        int s = 0;
+        while ((q & 1) == 0) {
+            q >>= 1;
+            s++;
+        }
+        int c = pow(getQuadraticNonResidue(), q);
+        int root = pow(a, (q + 1) / 2);
+        int t = pow(a, q);
+        int m = s;
+        while (t != 1) {
+            // the least i such that t^(2^i) == 1
+            int i = 0;
+            int t2i = t;
+            while (t2i != 1) {
+                t2i = mul(t2i, t2i);
+                i++;
+            }
+            int b = c;
+            for (int j = 0; j < m - i - 1; j++) {
+                b = mul(b, b);
+            }
+            root = mul(root, b);
+            c = mul(b, b);
+            t = mul(t, c);
+            m = i;
+        }
+        return root;
+    }
+
+    /* Inverts all the values in place using a single field inversion (Montgomery's trick).
+     * scratch must be at least as long as values. */
+    public void batchInverse(int[] values, int[] scratch) {
+        int n = values.length;
+        if (n == 0) {
+            return;
+        }
+        int acc = 1;
+        for (int i = 0; i < n; i++) {
+            if (values[i] == 0) {
+                throw new IllegalArgumentException("Cannot divide in zero");
+            }
+            scratch[i] = acc;
+            acc = mul(acc, values[i]);
+        }
+        int inv = inverse(acc);
+        for (int i = n - 1; i >= 0; i--) {
+            int v = values[i];
+            values[i] = mul(inv, scratch[i]);
+            inv = mul(inv, v);
+        }
+    }
+
+    public void batchInverse(int[] values) {
+        batchInverse(values, new int[values.length]);
+    }
+
+    /* Returns sum(a[i] * b[i]) */
+    public int dot(int[] a, int[] b) {
+        return dot(a, b, a.length);
+    }
+
+    public int dot(int[] a, int[] b, int length) {
+        int acc = 0;
+        for (int i = 0; i < length; i++) {
+            acc = reduceProduct(acc + (long) a[i] * b[i]);
+        }
+        return acc;
+    }
+
+    /* acc[i] += scalar * x[i] */
+    public void mulAddInto(int[] acc, int scalar, int[] x) {
+        if (scalar == 0) {
+            return;
+        }
+        for (int i = 0; i < acc.length; i++) {
+            acc[i] = reduceProduct(acc[i] + (long) scalar * x[i]);
+        }
+    }
+
+    /* x[i] *= scalar */
+    public void scale(int[] x, int scalar) {
+        for (int i = 0; i < x.length; i++) {
+            x[i] = mul(x[i], scalar);
+        }
+    }
+
+    /* Horner evaluation of sum(coeffs[i] * x^i) */
+    public int evaluate(int[] coeffs, int x) {
+        int acc = 0;
+        for (int i = coeffs.length - 1; i >= 0; i--) {
+            acc = reduceProduct((long) acc * x + coeffs[i]);
+        }
+        return acc;
+    }
+
+    /* out[j] = sum(coeffs[i] * points[j]^i) */
+    public void evaluate(int[] coeffs, int[] points, int[] out) {
+        for (int j = 0; j < points.length; j++) {
+            out[j] = evaluate(coeffs, points[j]);
+        }
+    }
+
+    /* Lagrange weights l_i(x) of the interpolation points, such that f(x) = sum(l_i(x) * f(points[i]))
+     * for every polynomial f with degree < points.length */
+    public int[] getLagrangeWeights(int[] points, int x) {
+        int n = points.length;
+        int[] weights = new int[n];
+        int[] scratch = new int[n];
+        // weights[i] = prod_{j != i}(points[i] - points[j])
+        for (int i = 0; i < n; i++) {
+            int denominator = 1;
+            for (int j = 0; j < n; j++) {
+                if (j != i) {
+                    denominator = mul(denominator, sub(points[i], points[j]));
+                }
+            }
+            weights[i] = denominator;
+        }
+        batchInverse(weights, scratch);
+        // multiply by prod_{j != i}(x - points[j]) using prefix and suffix products
+        int prefix = 1;
+        for (int i = 0; i < n; i++) {
+            scratch[i] = prefix;
+            prefix = mul(prefix, sub(x, points[i]));
+        }
+        int suffix = 1;
+        for (int i = n - 1; i >= 0; i--) {
+            weights[i] = mul(weights[i], mul(scratch[i], suffix));
+            suffix = mul(suffix, sub(x, points[i]));
+        }
+        return weights;
+    }
+
+    public static void main(String[] args) {
+        int[] primes = {2, 3, 7, 233, 32749, 32771, 65521, 1000003, 2147483629, 2147483647};
+        for (int prime : primes) {
+            ZpArithmetic field = getInstance(prime);
+            int max = prime - 1;
+            if (field.mulAdd(max, max, max) != (int) (((long) max * max + max) % prime)) {
+                System.out.println("mulAdd failed for prime " + prime);
+                return;
+            }
+            for (int i = 0; i < 100000; i++) {
+                int a = (int) (Math.random() * prime);
+                int b = (int) (Math.random() * prime);
+                if (field.mul(a, b) != (int) ((long) a * b % prime) || field.add(a, b) != (int) (((long) a + b) % prime)) {
+                    System.out.println("failed for prime " + prime + ": " + a + ", " + b);
+                    return;
+                }
+                if (a != 0 && field.mul(a, field.inverse(a)) != 1) {
+                    System.out.println("inverse failed for prime " + prime + ": " + a);
+                    return;
+                }
+                int square = field.mul(a, a);
+                int root = field.sqrt(square);
+                if (field.mul(root, root) != square || (prime > 2 && a != 0 && field.legendreSymbol(field.mul(square, field.getQuadraticNonResidue())) != -1)) {
+                    System.out.println("sqrt failed for prime " + prime + ": " + a);
+                    return;
+                }
+            }
+            // the prime must also survive the registration with the server
+            ToServerObject toServer = new ToServerObject();
+            toServer.MyIp = "127.0.0.1";
+            toServer.MyPrime = prime;
+            toServer.MyOutputs = Collections.<List<Integer>>emptyList();
+            try {
+                ToServerObject loaded = (ToServerObject) Sendable.loadFromByteArray(toServer.writeToByteArray(), prime);
+                if (loaded.MyPrime != prime) {
+                    System.out.println("server registration failed for prime " + prime + ": " + loaded.MyPrime);
+                    return;
+                }
+            } catch (IOException ex) {
+                System.out.println("server registration failed for prime " + prime + ": " + ex);
+                return;
+            }
+        }
+        System.out.println("Test Ended");
+    }
+}
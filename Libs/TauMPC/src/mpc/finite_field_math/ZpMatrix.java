@@ -40,7 +40,7 @@ final public  class  ZpMatrix {
 
         for (int i = 0; i < rowNum; i++)
             for (int j = 0; j < colNum; j++)
-                    this.data[i][j] = data[i][j] ;
+                    this.data[i][j] = Zp.modulo(data[i][j], prime);
     }
 
       //Creates a  vector matrix from Zp array
@@ -136,9 +136,10 @@ final public  class  ZpMatrix {
              throw new IllegalArgumentException("Trying to add Matrix  from different fields.");
 
         ZpMatrix C = new  ZpMatrix(rowNum, colNum, A.prime);
+        ZpArithmetic field = getArithmetic();
         for (int i = 0; i < rowNum; i++)
             for (int j = 0; j < colNum; j++)
-                C.data[i][j] = modulo(A.data[i][j] + B.data[i][j]);
+                C.data[i][j] = field.add(A.data[i][j], B.data[i][j]);
         
         return C;
     }
@@ -155,10 +156,11 @@ final public  class  ZpMatrix {
 
         //create initialized matrix (zero value to all elements)
         ZpMatrix C = new  ZpMatrix(A.rowNum, B.colNum, A.prime);
+        ZpArithmetic field = getArithmetic();
+        // i-k-j order so the inner loop runs over contiguous rows of B and C
         for (int i = 0; i < C.rowNum; i++)
-            for (int j = 0; j < C.colNum; j++)
-                for (int k = 0; k < A.colNum; k++)
-                       C.data[i][j] =modulo(C.data[i][j] + A.data[i][k] * B.data[k][j])  ;
+            for (int k = 0; k < A.colNum; k++)
+                field.mulAddInto(C.data[i], A.data[i][k], B.data[k]);
         
         return C;
     }
@@ -221,15 +223,18 @@ public  ZpMatrix   solve(ZpMatrix vec) {
     private int modulo (int i){
             return  Zp.modulo(i, prime);
     }
+
+    private ZpArithmetic getArithmetic(){
+            return ZpArithmetic.getInstance(prime);
+    }
     
 
 
 /*return the inverse matrix of the invoking matrix*/
 public  ZpMatrix  getInverse(){
         int[] piv = new int[rowNum];
-        int[] fieldInv = Zp.getFieldInverseArr(prime);
-        ZpMatrix lu = this.getLUDecomposition(piv , fieldInv);
-        return  lu.solveInv(ZpMatrix.getIdentityMatrix(rowNum, prime), piv, fieldInv);
+        ZpMatrix lu = this.getLUDecomposition(piv);
+        return  lu.solveInv(ZpMatrix.getIdentityMatrix(rowNum, prime), piv);
 }
 
 
@@ -243,7 +248,7 @@ private  boolean isNonsingular() {
 
 
 
- private  ZpMatrix  solveInv(ZpMatrix B, int[] piv, int[] fieldInv) {
+ private  ZpMatrix  solveInv(ZpMatrix B, int[] piv) {
           if ( B.rowNum != rowNum ) {
                       throw new IllegalArgumentException( "Matrix row dimensions must agree." );
           }
@@ -255,35 +260,31 @@ private  boolean isNonsingular() {
           int nx = B.colNum;
           ZpMatrix Xmat = B.getSubMatrix(piv, 0, nx - 1);
           int[][] X = Xmat.data;
+          ZpArithmetic field = getArithmetic();
 
           // Solve L*Y = B(piv,:)
           for (int k = 0; k < rowNum; k++) {
               for (int i = k + 1; i < rowNum; i++) {
-                  for (int j = 0; j < nx; j++) {
-                      X[i][j] = modulo(X[i][j] - X[k][j] * data[i][k]);
-                  }
+                  field.mulAddInto(X[i], field.neg(data[i][k]), X[k]);
               }
           }
           // Solve U*X = Y;
           for (int k = rowNum - 1; k >= 0; k--) {
-              for (int j = 0; j < nx; j++) {
-                  X[k][j] = modulo(X[k][j] * fieldInv[data[k][k]]);
-              }
+              field.scale(X[k], field.inverse(data[k][k]));
               for (int i = 0; i < k; i++) {
-                  for (int j = 0; j < nx; j++) {
-                      X[i][j] = modulo(X[i][j] - X[k][j] * data[i][k]);
-                  }
+                  field.mulAddInto(X[i], field.neg(data[i][k]), X[k]);
               }
           }
           return Xmat;
       }
   
 
-    private   ZpMatrix  getLUDecomposition(int[] pivot ,int[] fieldInv) {
+    private   ZpMatrix  getLUDecomposition(int[] pivot) {
 
             // Use a "left-looking", dot-product, Crout/Doolittle algorithm.
             ZpMatrix LU = new ZpMatrix(this);
            int [][] LUArr = LU.data;
+           ZpArithmetic field = getArithmetic();
            
            int[] piv = pivot;
            for (int i = 0; i < rowNum; i++) {
@@ -307,11 +308,9 @@ private  boolean isNonsingular() {
 
                    // Most of the time is spent in the following dot product.
                    int kmax = Math.min(i, j);
-                   int s = 0;
-                   for (int k = 0; k < kmax; k++) 
-                           s = modulo(s + LUrowi[k] * LUcolj[k]);
+                   int s = field.dot(LUrowi, LUcolj, kmax);
                   
-                   LUrowi[j] = LUcolj[i] = modulo(LUcolj[i] - s);
+                   LUrowi[j] = LUcolj[i] = field.sub(LUcolj[i], s);
                }
 
                // Find pivot and exchange if necessary.
@@ -335,8 +334,9 @@ private  boolean isNonsingular() {
 
               // Compute multipliers.
               if (j < rowNum & LUArr[j][j] != 0) {
+                  int pivotInv = field.inverse(LUArr[j][j]);
                   for (int i = j + 1; i < rowNum; i++) {
-                      LUArr[i][j] = modulo(LUArr[i][j]  * fieldInv[modulo(LUArr[j][j])]);
+                      LUArr[i][j] = field.mul(LUArr[i][j], pivotInv);
                   }
               }
           }
@@ -387,12 +387,13 @@ public static ZpMatrix  getVandermondeMatrix(int rowNum, int colNum, int prime)
             return A;
         }
 
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
         for (int j = 0; j < colNum; j++)
-                A.data[1][j] = j + 1;
+                A.data[1][j] = field.reduce(j + 1);
 
         for (int j = 0; j < colNum; j++)
             for (int i = 2; i < rowNum; i++)
-                A.data[i][j] = Zp.modulo(A.data[i - 1][j] * A.data[1][j], prime);
+                A.data[i][j] = field.mul(A.data[i - 1][j], A.data[1][j]);
 
         return A;
 }
@@ -408,10 +409,14 @@ public static ZpMatrix  getVandermondeMatrix(int rowNum, List<Zp> values, int pr
         {
             return A;
         }
-       
+
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
         for (int j = 0; j < colNum; j++)
+        {
+            int value = field.reduce(values.get(j).getValue());
             for (int i = 1; i < rowNum; i++)
-                A.data[i][j] = Zp.modulo(A.data[i - 1][j] * values.get(j).getValue(), prime);
+                A.data[i][j] = field.mul(A.data[i - 1][j], value);
+        }
 
         return A;
 }
@@ -435,12 +440,13 @@ public static ZpMatrix  getVandermondeMatrix(int rowNum, List<Zp> values, int pr
         for (int i = 0; i < matrixSize; i++)
                 A.data[i][0] = 1;
 
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
         for (int i = 0; i < matrixSize; i++)
-                A.data[i][1] = i + 1;
+                A.data[i][1] = field.reduce(i + 1);
 
         for (int i = 0; i < matrixSize; i++)
             for (int j = 2; j < matrixSize; j++)
-                 A.data[i][j] = Zp.modulo(A.data[i][j- 1] * A.data[i][1], prime);
+                 A.data[i][j] = field.mul(A.data[i][j- 1], A.data[i][1]);
        return A;
     }
 
@@ -449,10 +455,6 @@ public static ZpMatrix  getVandermondeMatrix(int rowNum, List<Zp> values, int pr
 
     public static ZpMatrix  getPrimitiveVandermondeMatrix(int rowNum, int colNum, int prime) {
 
-        int primitive = Zp.getFieldMinimumPrimitive(prime);
-        if (primitive == 0)
-                      throw new IllegalArgumentException( "Cannot create a primitive Vandermonde matrix from a non-prime number. " );
-
         ZpMatrix A = new ZpMatrix(rowNum, colNum ,prime);
 
         for (int j = 0; j < colNum; j++)
@@ -463,17 +465,13 @@ public static ZpMatrix  getVandermondeMatrix(int rowNum, List<Zp> values, int pr
             return A;
         }
         
-        /*  This variable represents  primitive^j  for the j-th player*/
-        int primitive_j = 1;
-        for (int j = 0; j < colNum; j++)
-        {
-                A.data[1][j] =  primitive_j;
-                primitive_j = Zp.modulo(primitive_j * primitive, prime);
-        }            
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        /*  primitive^j  for the j-th player*/
+        System.arraycopy(FieldContext.getInstance(prime).getGeneratorPowers(colNum), 0, A.data[1], 0, colNum);
 
         for (int j = 0; j < colNum; j++)
             for (int i = 2; i < rowNum; i++)
-                A.data[i][j] = Zp.modulo(A.data[i - 1][j] * A.data[1][j], prime);
+                A.data[i][j] = field.mul(A.data[i - 1][j], A.data[1][j]);
 
         return A;
 }
@@ -565,7 +563,7 @@ public static ZpMatrix  getVandermondeMatrix(int rowNum, List<Zp> values, int pr
      for (int i=0; i<colNum; i++)
      {
          int SubDet = removeRowFromMatrix(0).removeColFromMatrix(i).Determinant();
-         Zp  SubDetAi = new Zp(prime, SubDet*data[0][i]);
+         Zp  SubDetAi = new Zp(prime, getArithmetic().mul(SubDet, data[0][i]));
          if (i%2 == 0)
          {
              det.add(SubDetAi);
@@ -584,10 +582,7 @@ public static ZpMatrix  getVandermondeMatrix(int rowNum, List<Zp> values, int pr
         if (this.rowNum <= rowNumber)
              throw new IllegalArgumentException("Illegal matrix row number.");
 
-        for (int j = 0;j < colNum;j++)
-        {
-            data[rowNumber][j] = modulo(data[rowNumber][j] * scalar);
-        }      
+        getArithmetic().scale(data[rowNumber], modulo(scalar));
  }
 
  /* Multiplying each row by different scalar from the scalars vector */
@@ -607,12 +602,13 @@ public static ZpMatrix  getVandermondeMatrix(int rowNum, List<Zp> values, int pr
 public Zp[]  SumMatrixRows(){
 
     int[] sum = new int[colNum];
+    ZpArithmetic field = getArithmetic();
 
     for (int i = 0; i< rowNum; i++)
     {
         for (int j = 0; j< colNum; j ++)
         {
-            sum[j] += data[i][j];
+            sum[j] = field.add(sum[j], data[i][j]);
         }
     }
 
@@ -661,7 +657,7 @@ public void setMatrixCell(int rowNumber, int colNumber, Zp value){
 
     public  int gauss(){
        
-        int invArr[] = Zp.getFieldInverseArr(prime);
+        ZpArithmetic field = getArithmetic();
 
         // Gaussian elimination with partial pivoting
         int i, j;
@@ -680,18 +676,12 @@ public void setMatrixCell(int rowNumber, int colNumber, Zp value){
             if (this.data[max][j] != 0)
             {
                     this.swapRows(i, max);
-                    int toMul = invArr[this.data[i][j]];
-                    for (int k = 0; k < colNum; k++){
-                            this.data[i][k] = modulo(this.data[i][k] * toMul);
-                    }
+                    field.scale(this.data[i], field.inverse(this.data[i][j]));
 
                     for (int u = i + 1; u < rowNum; u++)
                     {
                         int  m = modulo(this.data[u][j]);
-                        for (int v = 0; v < colNum; v++)
-                        {
-                            this.data[u][v] = modulo(this.data[u][v] - this.data[i][v]  *  m);
-                        }
+                        field.mulAddInto(this.data[u], field.neg(m), this.data[i]);
                         this.data[u][j] = 0;
                     }
                 i++;
@@ -0,0 +1,34 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.protocols;
+
+import mpc.finite_field_math.Zp;
+
+/* A player's shares of a multiplication triple - random a and b, and c = a*b, all shared with the
+ * degree of the protocol. A triple may be used for a single multiplication only. */
+public class BeaverTriple {
+    private final Zp a;
+    private final Zp b;
+    private final Zp c;
+
+    public BeaverTriple(Zp a, Zp b, Zp c) {
+        this.a = a;
+        this.b = b;
+        this.c = c;
+    }
+
+    public Zp getA() {
+        return a;
+    }
+
+    public Zp getB() {
+        return b;
+    }
+
+    public Zp getC() {
+        return c;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.protocols;
+
+import mpc.finite_field_math.Zp;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * <p>
+ * The multiplication triples of a player, made in the preprocessing phase (MPCProtocol.generateTriples)
+ * and used by the multiplications of the online phase in the order they were made. All the players must
+ * use the triples of the same preprocessing in the same order, so a store belongs to a single session -
+ * the players of a session save their stores after the preprocessing and load them for the calculation.
+ * </p>
+ * <p>
+ * A triple is removed from the store when it is used - using a triple twice would reveal the values
+ * it masked.
+ * </p>
+ */
+public class BeaverTripleStore {
+    private static final int FILE_MAGIC = 0x54524950;  // "TRIP"
+    private static final int FILE_VERSION = 1;
+
+    private final int prime;
+    private final int numberOfPlayers;
+    private final int polynomialDeg;
+    private final int playerIndex;
+    private final Deque<BeaverTriple> triples = new ArrayDeque<BeaverTriple>();
+
+    public BeaverTripleStore(int prime, int numberOfPlayers, int polynomialDeg, int playerIndex) {
+        this.prime = prime;
+        this.numberOfPlayers = numberOfPlayers;
+        this.polynomialDeg = polynomialDeg;
+        this.playerIndex = playerIndex;
+    }
+
+    public int getPrime() {
+        return prime;
+    }
+
+    public int getNumberOfPlayers() {
+        return numberOfPlayers;
+    }
+
+    public int getPolynomialDegree() {
+        return polynomialDeg;
+    }
+
+    public int getPlayerIndex() {
+        return playerIndex;
+    }
+
+    public boolean isCompatible(int prime, int numberOfPlayers, int polynomialDeg, int playerIndex) {
+        return this.prime == prime && this.numberOfPlayers == numberOfPlayers
+                && this.polynomialDeg == polynomialDeg && this.playerIndex == playerIndex;
+    }
+
+    public synchronized int size() {
+        return triples.size();
+    }
+
+    public synchronized void add(List<BeaverTriple> newTriples) {
+        triples.addAll(newTriples);
+    }
+
+    /* Removes the next count triples */
+    public synchronized List<BeaverTriple> take(int count) {
+        if (count > triples.size()) {
+            throw new IllegalStateException("Need " + count + " multiplication triples but only " + triples.size() + " are left - run the preprocessing again");
+        }
+        List<BeaverTriple> taken = new ArrayList<BeaverTriple>(count);
+        for (int i = 0; i < count; i++) {
+            taken.add(triples.poll());
+        }
+        return taken;
+    }
+
+    /* Saves the triples that were not used yet */
+    public synchronized void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(prime);
+            out.writeInt(numberOfPlayers);
+            out.writeInt(polynomialDeg);
+            out.writeInt(playerIndex);
+            out.writeInt(triples.size());
+            for (BeaverTriple triple : triples) {
+                out.writeInt(triple.getA().getValue());
+                out.writeInt(triple.getB().getValue());
+                out.writeInt(triple.getC().getValue());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public static BeaverTripleStore load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException(file + " is not a multiplication triples file");
+            }
+            int prime = in.readInt();
+            BeaverTripleStore store = new BeaverTripleStore(prime, in.readInt(), in.readInt(), in.readInt());
+            int count = in.readInt();
+            List<BeaverTriple> triples = new ArrayList<BeaverTriple>(count);
+            for (int i = 0; i < count; i++) {
+                triples.add(new BeaverTriple(new Zp(prime, in.readInt()), new Zp(prime, in.readInt()), new Zp(prime, in.readInt())));
+            }
+            store.add(triples);
+            return store;
+        } finally {
+            in.close();
+        }
+    }
+}
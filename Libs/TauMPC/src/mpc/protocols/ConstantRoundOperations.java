@@ -0,0 +1,330 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.protocols;
+
+import mpc.finite_field_math.Zp;
+import mpc.finite_field_math.ZpArithmetic;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Inversion and zero test of shared values in a constant number of rounds, for any number of values at once
+ * (semi-honest case). They replace the exponent circuits x^(p-2) and x^(p-1), whose depth grows with the size
+ * of the prime.
+ * </p>
+ * <p>
+ * Inversion (3 rounds) - the players make a random shared r, open u = x*r and take 1/x = r/u. u is random, so it
+ * tells nothing of x unless x is 0: a zero divisor is revealed, and its "inverse" is 0 as with x^(p-2).
+ * inverseHidingZeros (11 rounds) does not reveal zeros - it inverts x + 1 - normalize(x), which is never 0, and
+ * multiplies the inverse by normalize(x).
+ * </p>
+ * <p>
+ * Zero test (7 rounds) - repeated Legendre symbol tests. For a random non zero r with a shared bit b telling if r
+ * is a square, the players open c = x + r. If x is 0, c = r and the Legendre symbols of c and r are equal; if x is
+ * not 0, they are equal for about half the r's. The test is repeated ZERO_TEST_REPETITIONS times and x is taken
+ * to be 0 if they were equal in all the tests, so a non zero x is taken for 0 with probability about 2^-repetitions.
+ * The AND of the results is a polynomial of their sum S, which is evaluated with the powers of S - those are
+ * calculated in constant rounds by opening S masked by random non zero values (Bar-Ilan and Beaver).
+ * The random bits come from opening the square of a random a - b is 1 if a is the root the players take of a^2.
+ * c is x masked by a random non zero value, so it may only reveal that x is not 0, with probability 1/prime
+ * for each test.
+ * </p>
+ */
+class ConstantRoundOperations {
+    static final int ZERO_TEST_REPETITIONS = 32;
+    private static final int INVERSE_ATTEMPTS = 2;  // a random r is 0 with probability 1/prime
+
+    private final MPCProtocol protocol;
+    private final ZpArithmetic field;
+    private final int prime;
+    private final int nonResidue;
+    private final int half;
+    /* The polynomial that is 1 at 1 and 0 at 2..ZERO_TEST_REPETITIONS+1 */
+    private final int[] allEqualPolynomial;
+
+    ConstantRoundOperations(MPCProtocol protocol, int prime) {
+        if (prime <= ZERO_TEST_REPETITIONS + 1) {
+            throw new IllegalArgumentException("The field size " + prime + " is too small for the constant round zero test");
+        }
+        this.protocol = protocol;
+        this.prime = prime;
+        this.field = ZpArithmetic.getInstance(prime);
+        this.nonResidue = field.getQuadraticNonResidue();
+        this.half = field.inverse(2);
+        this.allEqualPolynomial = getAllEqualPolynomial();
+    }
+
+    private int[] getAllEqualPolynomial() {
+        int[] coeffs = {1};
+        int denominator = 1;
+        for (int k = 2; k <= ZERO_TEST_REPETITIONS + 1; k++) {
+            // coeffs *= (S - k)
+            int[] next = new int[coeffs.length + 1];
+            for (int i = 0; i < coeffs.length; i++) {
+                next[i + 1] = field.add(next[i + 1], coeffs[i]);
+                next[i] = field.mulAdd(next[i], coeffs[i], field.neg(field.reduce(k)));
+            }
+            coeffs = next;
+            denominator = field.mul(denominator, field.sub(1, field.reduce(k)));
+        }
+        field.scale(coeffs, field.inverse(denominator));
+        return coeffs;
+    }
+
+    /* The inverses of the values; the inverse of 0 is 0 */
+    List<Zp> inverse(List<Zp> values) throws IOException {
+        int[] inverses = new int[values.size()];
+        List<Integer> pending = new ArrayList<Integer>();
+        for (int i = 0; i < values.size(); i++) {
+            pending.add(i);
+        }
+        for (int attempt = 0; attempt < INVERSE_ATTEMPTS && !pending.isEmpty(); attempt++) {
+            int[] x = new int[pending.size()];
+            for (int i = 0; i < x.length; i++) {
+                x[i] = values.get(pending.get(i)).getValue();
+            }
+            int[] r = protocol.generateRandomShares(x.length);
+            int[] u = protocol.openShares(toZps(multiply(x, r)));
+            List<Integer> stillPending = new ArrayList<Integer>();
+            for (int i = 0; i < x.length; i++) {
+                if (u[i] == 0) {
+                    stillPending.add(pending.get(i));
+                } else {
+                    inverses[pending.get(i)] = field.mul(field.inverse(u[i]), r[i]);
+                }
+            }
+            pending = stillPending;
+        }
+        List<Zp> result = new ArrayList<Zp>(inverses.length);
+        for (int inverse : inverses) {
+            result.add(new Zp(prime, inverse));
+        }
+        return result;
+    }
+
+    /* The inverses of values that may be 0, without revealing which of them are - the inverse of 0 is 0 */
+    List<Zp> inverseHidingZeros(List<Zp> values) throws IOException {
+        List<Zp> normalized = normalize(values);
+        int[] isNonZero = new int[values.size()];
+        List<Zp> nonZero = new ArrayList<Zp>(values.size());
+        for (int i = 0; i < isNonZero.length; i++) {
+            isNonZero[i] = normalized.get(i).getValue();
+            // x for x != 0, and 1 for 0
+            nonZero.add(new Zp(prime, field.add(values.get(i).getValue(), field.sub(1, isNonZero[i]))));
+        }
+        List<Zp> inverses = inverse(nonZero);
+        int[] x = new int[inverses.size()];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = inverses.get(i).getValue();
+        }
+        return toZps(multiply(x, isNonZero));
+    }
+
+    /* For each value - 1 if it is not 0, or 0 if it is */
+    List<Zp> normalize(List<Zp> values) throws IOException {
+        int count = values.size();
+        int reps = ZERO_TEST_REPETITIONS;
+        ZeroTestRandomness randomness = new ZeroTestRandomness(count);
+
+        /* open c = x + r in the valid tests */
+        List<Integer> openedTests = new ArrayList<Integer>();
+        List<Zp> masked = new ArrayList<Zp>();
+        for (int v = 0; v < count; v++) {
+            for (int i = 0; i < reps; i++) {
+                int test = v * reps + i;
+                if (randomness.isValid[test]) {
+                    openedTests.add(test);
+                    masked.add(new Zp(prime, field.add(values.get(v).getValue(), randomness.r[test])));
+                }
+            }
+        }
+        int[] opened = protocol.openShares(masked);
+
+        /* S = reps + 1 - (the number of tests in which the symbols are equal) - 1 iff all of them are equal */
+        int[] equal = new int[count * reps];
+        for (int test = 0; test < equal.length; test++) {
+            equal[test] = 1;    // a test that could not be made does not say x is not 0
+        }
+        for (int j = 0; j < openedTests.size(); j++) {
+            int test = openedTests.get(j);
+            int symbol = field.legendreSymbol(opened[j]);
+            if (symbol == 0) {
+                equal[test] = 0;    // c = 0 means x = -r, which is not 0
+            } else {
+                // (1 + symbol * (1 - 2b)) / 2
+                int s = field.reduce(symbol);
+                equal[test] = field.sub(field.mul(half, field.add(1, s)), field.mul(s, randomness.bit[test]));
+            }
+        }
+        int[] sums = new int[count];
+        for (int v = 0; v < count; v++) {
+            int sum = field.reduce(reps + 1);
+            for (int i = 0; i < reps; i++) {
+                sum = field.sub(sum, equal[v * reps + i]);
+            }
+            sums[v] = sum;
+        }
+
+        /* open a_i = m_(i-1) * S / m_i, then S^i = a_1 * ... * a_i * m_i / m_0 */
+        int[] repeatedSums = new int[count * reps];
+        for (int v = 0; v < count; v++) {
+            for (int i = 0; i < reps; i++) {
+                repeatedSums[v * reps + i] = sums[v];
+            }
+        }
+        int[] maskedSums = protocol.openShares(toZps(multiply(repeatedSums, randomness.maskRatio)));
+        List<Zp> result = new ArrayList<Zp>(count);
+        for (int v = 0; v < count; v++) {
+            int isZero = allEqualPolynomial[0];
+            int prefix = 1;
+            for (int i = 0; i < reps; i++) {
+                prefix = field.mul(prefix, maskedSums[v * reps + i]);
+                int power = field.mul(prefix, randomness.powerMask[v * reps + i]);
+                isZero = field.mulAdd(isZero, allEqualPolynomial[i + 1], power);
+            }
+            result.add(new Zp(prime, field.sub(1, isZero)));
+        }
+        return result;
+    }
+
+    /* The input independent part of the zero test, for count values */
+    private class ZeroTestRandomness {
+        final boolean[] isValid;  // false if a or s was 0 - the test is not made
+        final int[] r;            // s^2 or q * s^2 for the non residue q, never 0 in a valid test
+        final int[] bit;          // 1 if r is not a square
+        final int[] maskRatio;    // m_(i-1) / m_i for i = 1..reps
+        final int[] powerMask;    // m_i / m_0 for i = 1..reps
+
+        ZeroTestRandomness(int count) throws IOException {
+            int reps = ZERO_TEST_REPETITIONS;
+            int tests = count * reps;
+            int numberOfMasks = count * (reps + 1);
+            int[] random = protocol.generateRandomShares(3 * tests + 2 * numberOfMasks);
+            int[] a = slice(random, 0, tests);
+            int[] s = slice(random, tests, tests);
+            int[] t = slice(random, 2 * tests, tests);
+            int[] m = slice(random, 3 * tests, numberOfMasks);
+            int[] mt = slice(random, 3 * tests + numberOfMasks, numberOfMasks);
+
+            /* a^2, s*t and m*mt are opened, s^2 is kept shared */
+            int[] products = multiply(concat(a, s, s, m), concat(a, s, t, mt));
+            int[] opened = protocol.openShares(toZps(concat(slice(products, 0, tests), slice(products, 2 * tests, tests),
+                                                            slice(products, 3 * tests, numberOfMasks))));
+            int[] squares = slice(products, tests, tests);
+
+            isValid = new boolean[tests];
+            bit = new int[tests];
+            for (int test = 0; test < tests; test++) {
+                int aSquared = opened[test];
+                isValid[test] = aSquared != 0 && opened[tests + test] != 0;
+                if (isValid[test]) {
+                    // a / sqrt(a^2) is 1 or -1, each with probability 1/2
+                    int sign = field.mul(a[test], field.inverse(field.sqrt(aSquared)));
+                    bit[test] = field.mul(half, field.sub(1, sign));
+                }
+            }
+
+            int[] mInverse = getMaskInverses(m, mt, slice(opened, 2 * tests, numberOfMasks));
+            int[] previous = new int[tests];
+            int[] currentInverse = new int[tests];
+            int[] firstInverse = new int[tests];
+            int[] current = new int[tests];
+            for (int v = 0; v < count; v++) {
+                for (int i = 0; i < reps; i++) {
+                    int test = v * reps + i;
+                    int mask = v * (reps + 1) + i + 1;
+                    previous[test] = m[mask - 1];
+                    currentInverse[test] = mInverse[mask];
+                    firstInverse[test] = mInverse[v * (reps + 1)];
+                    current[test] = m[mask];
+                }
+            }
+            products = multiply(concat(squares, previous, firstInverse), concat(bit, currentInverse, current));
+            r = new int[tests];
+            for (int test = 0; test < tests; test++) {
+                // s^2 * q^b = s^2 + (q - 1) * s^2 * b
+                r[test] = field.mulAdd(squares[test], field.sub(nonResidue, 1), products[test]);
+            }
+            maskRatio = slice(products, tests, tests);
+            powerMask = slice(products, 2 * tests, tests);
+        }
+    }
+
+    /* The inverses of the random masks, given the opened products m*t with random t. A mask with a zero product
+     * may be 0 - it is replaced (in place) by a new random mask */
+    private int[] getMaskInverses(int[] masks, int[] t, int[] openedProducts) throws IOException {
+        int[] inverses = new int[masks.length];
+        List<Integer> pending = new ArrayList<Integer>();
+        for (int i = 0; i < masks.length; i++) {
+            if (openedProducts[i] == 0) {
+                pending.add(i);
+            } else {
+                inverses[i] = field.mul(field.inverse(openedProducts[i]), t[i]);
+            }
+        }
+        while (!pending.isEmpty()) {
+            int[] random = protocol.generateRandomShares(2 * pending.size());
+            int[] m = slice(random, 0, pending.size());
+            int[] newT = slice(random, pending.size(), pending.size());
+            int[] opened = protocol.openShares(toZps(multiply(m, newT)));
+            List<Integer> stillPending = new ArrayList<Integer>();
+            for (int i = 0; i < m.length; i++) {
+                if (opened[i] == 0) {
+                    stillPending.add(pending.get(i));
+                } else {
+                    masks[pending.get(i)] = m[i];
+                    inverses[pending.get(i)] = field.mul(field.inverse(opened[i]), newT[i]);
+                }
+            }
+            pending = stillPending;
+        }
+        return inverses;
+    }
+
+    /* Shares of x[i]*y[i] - the local products after the reduction step */
+    private int[] multiply(int[] x, int[] y) throws IOException {
+        List<Zp> products = new ArrayList<Zp>(x.length);
+        for (int i = 0; i < x.length; i++) {
+            products.add(new Zp(prime, field.mul(x[i], y[i])));
+        }
+        List<Zp> reduced = protocol.reductionRandomizationStep(products);
+        int[] result = new int[reduced.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = reduced.get(i).getValue();
+        }
+        return result;
+    }
+
+    private List<Zp> toZps(int[] values) {
+        List<Zp> zps = new ArrayList<Zp>(values.length);
+        for (int value : values) {
+            zps.add(new Zp(prime, value));
+        }
+        return zps;
+    }
+
+    private static int[] slice(int[] values, int from, int length) {
+        int[] result = new int[length];
+        System.arraycopy(values, from, result, 0, length);
+        return result;
+    }
+
+    private static int[] concat(int[]... arrays) {
+        int length = 0;
+        for (int[] array : arrays) {
+            length += array.length;
+        }
+        int[] result = new int[length];
+        int offset = 0;
+        for (int[] array : arrays) {
+            System.arraycopy(array, 0, result, offset, array.length);
+            offset += array.length;
+        }
+        return result;
+    }
+}
@@ -8,16 +8,23 @@ package mpc.protocols;
 import mpc.ui.ProgressLog;
 import mpc.circuit.Gate;
 import mpc.circuit.Circuit;
+import mpc.circuit.CompiledCircuit;
+import mpc.circuit.ParallelGateEvaluator;
 import mpc.communication.XMLConnectionController;
 import mpc.sendables.Sendable;
 import mpc.sendables.ShareObject;
+import mpc.sendables.ShareVector;
+import mpc.finite_field_math.LagrangeCache;
 import mpc.finite_field_math.Shamir;
 import mpc.finite_field_math.Zp;
+import mpc.finite_field_math.ZpArithmetic;
 import mpc.finite_field_math.ZpMatrix;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -27,6 +34,10 @@ import mpc.communication.ServerConnectionController;
 
 
 public class MPCProtocol {
+
+    /* From this field size on DIV and NORMALIZE gates use the constant round protocols (see ConstantRoundOperations).
+     * For smaller primes the exponent circuits are short anyway, and they have no statistical error or leakage. */
+    public static final int MIN_PRIME_FOR_CONSTANT_ROUND = 1 << 15;
     
     protected  int polynomialDeg;
     protected Circuit circuit;
@@ -34,15 +45,31 @@ public class MPCProtocol {
     protected int numberOfPlayers;
     protected int index;
     protected int prime;
+    protected ZpArithmetic field;   // the arithmetic back-end chosen for the prime
     protected ProgressLog proglog;
+    protected BeaverTripleStore tripleStore;  // null - the multiplications use the GRR reduction step
+    protected ParallelGateEvaluator localEvaluator; // null - the local gates are calculated on the calling thread
+    private ConstantRoundOperations constantRoundOperations;  // created on first use
+    private boolean isDivisorNonZero = false;  // true - the constant round inversion may reveal zero divisors
+    private int packingFactor = 1;  // the instances of calculateBatch in a single share
+    private int activePacking = 1;  // the packing factor of the calculation in progress - 1 outside calculateBatch
     
 
     public MPCProtocol(Circuit circuit, ProgressLog proglog, int index, int prime) {
+        this(circuit, proglog, index, prime, circuit.getCircuitInputSize());
+    }
+
+    /* The players give several inputs each (see calculate(List)) */
+    public MPCProtocol(Circuit circuit, ProgressLog proglog, int index, int prime, int numberOfPlayers) {
+        if (!Zp.isPrime(prime)) {
+            throw new IllegalArgumentException("The field size " + prime + " is not a prime");
+        }
         this.circuit = circuit;
         this.proglog = proglog;
         this.index = index;
         this.prime = prime;
-        numberOfPlayers = circuit.getCircuitInputSize();
+        this.field = ZpArithmetic.getInstance(prime);
+        this.numberOfPlayers = numberOfPlayers;
         // to get the maximum polinom deg we should ask if there is a mul in the circuit
         boolean multipleContained = circuit.isMultipleContained();
         this.polynomialDeg = multipleContained ? (numberOfPlayers - 1) / 2  : numberOfPlayers - 1;
@@ -54,8 +81,11 @@ public class MPCProtocol {
         this.numberOfPlayers = protocol.numberOfPlayers;
         this.index = protocol.index;
          this.prime = protocol.prime;
+         this.field = protocol.field;
          this.polynomialDeg = protocol.polynomialDeg;
          this.cController = protocol.cController;
+         this.tripleStore = protocol.tripleStore;
+         this.localEvaluator = protocol.localEvaluator;
     }
 
     public boolean init(String serverIP, int port, File xmlFile) {
@@ -83,6 +113,16 @@ public class MPCProtocol {
         return res;
     }
     
+    /* Uses connections that were already created, e.g. a LoopbackConnectionController of an in process simulation */
+    public boolean init(ConnectionController connectionController) {
+        if (connectionController.getNumOfPlayers() != numberOfPlayers) {
+            proglog.printError("The circuit has " + numberOfPlayers + " inputs but there are " + connectionController.getNumOfPlayers() + " players");
+            return false;
+        }
+        cController = connectionController;
+        return true;
+    }
+
     public void close(){
         if (cController != null){
             try {
@@ -103,6 +143,108 @@ public class MPCProtocol {
     public int getNumberOfPlayers(){
         return numberOfPlayers;
     }
+
+    /* With a store of triples the multiplications of the calculation use them (see beaverMultiplication)
+     * instead of the reduction step. The store must come from a preprocessing of the same players. */
+    public void setTripleStore(BeaverTripleStore tripleStore){
+        if (tripleStore != null && !tripleStore.isCompatible(prime, numberOfPlayers, polynomialDeg, index)){
+            throw new IllegalArgumentException("The multiplication triples were made for a different field, players or polynomial degree");
+        }
+        this.tripleStore = tripleStore;
+    }
+
+    public BeaverTripleStore getTripleStore(){
+        return tripleStore;
+    }
+
+    /* The number of triples a calculation of the circuit uses, including the inversions of the DIV gates */
+    public int getRequiredTriples(){
+        return getRequiredTriples(circuit);
+    }
+
+    private int getRequiredTriples(Circuit c){
+        int count = 0;
+        Integer inversionCount = null;
+        Integer normalizationCount = null;
+        for (Gate gate : c.getGates()){
+            if (gate.isPolynomDegreeReducingNeeded() && gate.getInputWires().size() == 2){
+                count++;
+            }
+            if (isConstantRoundSupported()){
+                continue;   // the constant round protocols do not use triples
+            }
+            if (gate.getOperation() == Gate.Operation.DIV){
+                if (inversionCount == null){
+                    inversionCount = getRequiredTriples(Circuit.getDivisionExponentialCircuit(prime));
+                }
+                count += (gate.getInputWires().size() - 1) * inversionCount;
+            }
+            if (gate.getOperation() == Gate.Operation.NORMALIZE && prime > 2){
+                if (normalizationCount == null){
+                    normalizationCount = getRequiredTriples(Circuit.getNormalizationExponentialCircuit(prime));
+                }
+                count += normalizationCount;
+            }
+        }
+        return count;
+    }
+
+    /* Calculates the local gates of every level on the threads of the evaluator, e.g. of a ForkJoinPool - null for
+     * the calling thread only. Mostly worthwhile for batches, whose local work grows with the batch size */
+    public void setParallelEvaluator(ParallelGateEvaluator localEvaluator){
+        this.localEvaluator = localEvaluator;
+    }
+
+    /* With a packing factor k > 1 calculateBatch packs k instances in every share (see Shamir.packedShare), so its
+     * messages are about k times shorter. The packed polynomials keep the degree of the protocol, so only
+     * polynomialDeg - k + 1 players may collude, and the circuit may only add, multiply and divide by constants. */
+    public void setPackingFactor(int packingFactor){
+        if (packingFactor < 1 || (packingFactor > 1 && (packingFactor > polynomialDeg || numberOfPlayers + packingFactor > prime))){
+            throw new IllegalArgumentException("Cannot pack " + packingFactor + " values in a share with polynomial degree " + polynomialDeg
+                    + " and " + numberOfPlayers + " players");
+        }
+        this.packingFactor = packingFactor;
+    }
+
+    public int getPackingFactor(){
+        return packingFactor;
+    }
+
+    /* Declares that the shared divisors of the circuit are never 0. DIV gates may then use the 3 round inversion, which
+     * reveals a zero divisor, rather than the 11 round inversion that hides it (see ConstantRoundOperations) */
+    public void setNonZeroDivisors(boolean isDivisorNonZero){
+        this.isDivisorNonZero = isDivisorNonZero;
+    }
+
+    /* True if DIV and NORMALIZE gates use the constant round protocols rather than the exponent circuits */
+    public boolean isConstantRoundSupported(){
+        return prime >= MIN_PRIME_FOR_CONSTANT_ROUND && 2 * polynomialDeg < numberOfPlayers;
+    }
+
+    private ConstantRoundOperations getConstantRoundOperations(){
+        if (constantRoundOperations == null){
+            constantRoundOperations = new ConstantRoundOperations(this, prime);
+        }
+        return constantRoundOperations;
+    }
+
+    /* The inverses of shared values in a constant number of rounds; the inverse of 0 is 0, but a zero is revealed */
+    public List<Zp> inverse(List<Zp> values) throws IOException{
+        proglog.printInformation("inverting " + values.size() + " values");
+        return getConstantRoundOperations().inverse(values);
+    }
+
+    /* The inverses of shared values in a constant number of rounds; the inverse of 0 is 0, and zeros are not revealed */
+    public List<Zp> inverseHidingZeros(List<Zp> values) throws IOException{
+        proglog.printInformation("inverting " + values.size() + " values that may be 0");
+        return getConstantRoundOperations().inverseHidingZeros(values);
+    }
+
+    /* 1 for a shared value that is not 0, and 0 for 0, in a constant number of rounds */
+    public List<Zp> normalize(List<Zp> values) throws IOException{
+        proglog.printInformation("normalizing " + values.size() + " values");
+        return getConstantRoundOperations().normalize(values);
+    }
     
     public  Map<Integer, Zp> calculate(Zp input) throws IOException{
         return calculate(input, false,  "");
@@ -143,10 +285,176 @@ public class MPCProtocol {
             return  myRecvShares;
     }
 
+    /* Shares all the inputs of this player with a single message to every player. Returns the shares of all the
+     * inputs of the circuit, in their order - the inputs of player j are at circuit.getPlayerInputOffsets */
+    protected List<Zp> inputStage(List<Zp> inputs) throws IOException{
+        int[] offsets = getPlayerInputOffsets(inputs);
+        /* toPlayers.get(j) holds the shares of player j of every input */
+        List<List<Zp>> toPlayers = new ArrayList<List<Zp>>();
+        for (int j = 0; j < numberOfPlayers; j++){
+            toPlayers.add(new ArrayList<Zp>(inputs.size()));
+        }
+        for (Zp input : inputs){
+            List<Zp> shares = Shamir.share(input, numberOfPlayers, polynomialDeg);
+            for (int j = 0; j < numberOfPlayers; j++){
+                toPlayers.get(j).add(shares.get(j));
+            }
+        }
+        List<ShareVector> toSend = new ArrayList<ShareVector>();
+        for (List<Zp> shares : toPlayers){
+            toSend.add(new ShareVector(shares));
+        }
+        proglog.printInformation("sharing " + inputs.size() + " secrets with other players");
+        List<ShareVector> received = Sendable.asShareVectors(cController.shareSecrets(toSend, prime));
+        List<Zp> myRecvShares = new ArrayList<Zp>(offsets[numberOfPlayers]);
+        for (int j = 0; j < numberOfPlayers; j++){
+            ShareVector fromPlayer = received.get(j);
+            int inputCount = offsets[j + 1] - offsets[j];
+            if (fromPlayer == null || fromPlayer.getShares().size() != inputCount){
+                throw new IOException("Did not receive the input shares of player " + j + " - the player must give " + inputCount + " inputs");
+            }
+            myRecvShares.addAll(fromPlayer.getShares());
+        }
+        return myRecvShares;
+    }
+
+    /* The inputs of the players (see Circuit.getPlayerInputOffsets), after checking this player gives its number of inputs */
+    protected int[] getPlayerInputOffsets(List<Zp> inputs){
+        int[] offsets = circuit.getPlayerInputOffsets(numberOfPlayers);
+        if (inputs.size() != offsets[index + 1] - offsets[index]){
+            throw new IllegalArgumentException("Player " + index + " must give " + (offsets[index + 1] - offsets[index]) + " inputs - " + inputs.size() + " were given");
+        }
+        return offsets;
+    }
+
   protected Zp getRecombinedResult(List<Zp> recvList, int prime){
             return  Shamir.recombine(recvList, polynomialDeg, prime);
   }
 
+    /**
+     * Runs the circuit on a batch of inputs - instance k of the batch is the circuit on the k-th inputs of all
+     * the players, and all the players must give the same number of inputs. Every message carries the shares
+     * of the whole batch, so a batch needs as many rounds as a single calculation.
+     * With a packing factor (see setPackingFactor) the calculation runs on blocks of packed instances.
+     * Returns the outputs of every instance, as calculate does.
+     */
+    public List<Map<Integer, Zp>> calculateBatch(List<Zp> inputs) throws IOException{
+        int batchSize = inputs.size();
+        CompiledCircuit compiled = circuit.getCompiled();
+        if (packingFactor > 1){
+            checkPackingSupported(compiled);
+        }
+        activePacking = packingFactor;
+        try{
+            return calculateBlocks(compiled, inputs);
+        } finally{
+            activePacking = 1;
+        }
+    }
+
+    /* Packed shares are only multiplied by the reduction step - the inversions, the normalizations and the
+     * triples work on shares of single values */
+    private void checkPackingSupported(CompiledCircuit compiled){
+        if (tripleStore != null){
+            throw new IllegalStateException("Multiplication triples cannot be used with packed sharing");
+        }
+        for (int gate = 0; gate < compiled.getGateCount(); gate++){
+            byte opcode = compiled.getOpcode(gate);
+            if (opcode == CompiledCircuit.OP_NORMALIZE || (opcode == CompiledCircuit.OP_DIV && getSharedDivisorCount(compiled, gate) > 0)){
+                throw new IllegalStateException("Gate number " + (gate + 1) + " (" + getOperationName(opcode) + ") is not supported with packed sharing");
+            }
+        }
+    }
+
+    /* The number of shares of a batch - one per instance, or one per block of activePacking instances */
+    private int getBlockCount(int batchSize){
+        return (batchSize + activePacking - 1) / activePacking;
+    }
+
+    private List<Map<Integer, Zp>> calculateBlocks(CompiledCircuit compiled, List<Zp> inputs) throws IOException{
+        int batchSize = inputs.size();
+        int blocks = getBlockCount(batchSize);
+        int[] values = compiled.newValues(blocks);
+        inputStageBatch(inputs, values);
+        calculateGates(values, blocks, "");
+
+        List<Map<Integer, Zp>> results = new ArrayList<Map<Integer, Zp>>(batchSize);
+        for (int k = 0; k < batchSize; k++){
+            results.add(new TreeMap<Integer, Zp>());
+        }
+        List<List<Zp>> myShares = new ArrayList<List<Zp>>();
+        for (int i = 0; i < compiled.getOutputCount(); i++){
+            List<Zp> shares = new ArrayList<Zp>(blocks);
+            addValues(shares, values, compiled.getOutputSlot(i), blocks);
+            myShares.add(shares);
+        }
+        Map<Integer, List<List<Zp>>> recvShares = exchangeOutputShares(myShares);
+        for (Map.Entry<Integer, List<List<Zp>>> output : recvShares.entrySet()){
+            int i = output.getKey();
+            if (activePacking == 1){
+                List<List<Zp>> recvLists = new ArrayList<List<Zp>>(blocks);
+                for (int b = 0; b < blocks; b++){
+                    recvLists.add(getBlockShares(output.getValue(), b));
+                }
+                List<Zp> outputs = getRecombinedResults(recvLists, prime);
+                for (int b = 0; b < blocks; b++){
+                    results.get(b).put(i, outputs.get(b));
+                }
+                continue;
+            }
+            for (int b = 0; b < blocks; b++){
+                List<Zp> packed = Shamir.packedRecombine(getBlockShares(output.getValue(), b), polynomialDeg - activePacking + 1, activePacking, prime);
+                for (int j = 0; j < activePacking && b * activePacking + j < batchSize; j++){
+                    results.get(b * activePacking + j).put(i, packed.get(j));
+                }
+            }
+        }
+        return results;
+    }
+
+    /* Shares a batch of inputs - a single message to every player with the shares of all of them. The shares
+     * of input k of player j are put in the slot of input j of instance k. With packing the inputs are shared in
+     * blocks, padded with zeros, and a block takes the place of an instance */
+    protected void inputStageBatch(List<Zp> inputs, int[] values) throws IOException{
+        int batchSize = getBlockCount(inputs.size());
+        proglog.printInformation("sharing a batch of " + inputs.size() + " inputs with other players");
+        List<List<Zp>> toPlayers = new ArrayList<List<Zp>>();
+        for (int j = 0; j < numberOfPlayers; j++){
+            toPlayers.add(new ArrayList<Zp>(batchSize));
+        }
+        for (int b = 0; b < batchSize; b++){
+            List<Zp> shares;
+            if (activePacking == 1){
+                shares = Shamir.share(inputs.get(b), numberOfPlayers, polynomialDeg);
+            } else {
+                List<Zp> block = new ArrayList<Zp>(activePacking);
+                for (int j = b * activePacking; j < (b + 1) * activePacking; j++){
+                    block.add(j < inputs.size() ? inputs.get(j) : new Zp(prime, 0));
+                }
+                shares = Shamir.packedShare(block, numberOfPlayers, polynomialDeg - activePacking + 1);
+            }
+            for (int j = 0; j < numberOfPlayers; j++){
+                toPlayers.get(j).add(shares.get(j));
+            }
+        }
+        List<ShareVector> toSend = new ArrayList<ShareVector>();
+        for (List<Zp> shares : toPlayers){
+            toSend.add(new ShareVector(shares));
+        }
+        List<ShareVector> received = Sendable.asShareVectors(cController.shareSecrets(toSend, prime));
+        for (int j = 0; j < numberOfPlayers; j++){
+            ShareVector fromPlayer = received.get(j);
+            if (fromPlayer == null || fromPlayer.getShares().size() != batchSize){
+                throw new IOException("Did not receive the input shares of player " + j + " - all the players must give " + inputs.size() + " inputs");
+            }
+            List<Zp> shares = fromPlayer.getShares();
+            int index = CompiledCircuit.getIndex(j, batchSize, 0);
+            for (int k = 0; k < batchSize; k++){
+                values[index + k] = shares.get(k).getValue();
+            }
+        }
+    }
+
    // Returns a List of all outputs 
     public  Map<Integer, Zp> calculate(Zp input, boolean partialCircuit, String numPrefix) throws IOException{
         List<Zp> myRecvShares;
@@ -157,67 +465,492 @@ public class MPCProtocol {
                 myRecvShares = inputStage(input);
         }
 
-        int k = 1; // temp only - needed to be index of gate
-        for (Gate gate : circuit.getGates()){
-            proglog.printInformation("calculating gate number "  + numPrefix + k +  " : a  '" +gate.getOperation().toString() + "' gate");
-            gate.calculate(myRecvShares, this, k + ".");
-            k++;
-        }
+        int[] values = calculateGates(myRecvShares, numPrefix);
 
-        Map<Integer, Zp> outputsMap = circuit.getOutputs();
         if (partialCircuit){
-            return outputsMap;
+            return circuit.getCompiled().getOutputs(values);
         }
-        int numOfOutputs = outputsMap.size();
-        Zp tempRes = null;
-        List<Zp> advertiseList = new ArrayList<Zp>();
-        List<Zp> recvList = null;
+        return outputStage(values);
+    }
+
+    /**
+     * Runs the circuit when the players give several inputs each - this player gives the inputs
+     * circuit.getPlayerInputOffsets assigns to it, in their order. All the inputs of all the players are shared in
+     * a single round (see inputStage(List)), so a player with many inputs needs as many rounds as with one.
+     */
+    public Map<Integer, Zp> calculate(List<Zp> inputs) throws IOException{
+        int[] values = calculateGates(inputStage(inputs), "");
+        return outputStage(values);
+    }
+
+    /* Opens the outputs of a calculation to the players that may calculate them */
+    private Map<Integer, Zp> outputStage(int[] values) throws IOException{
+        CompiledCircuit compiled = circuit.getCompiled();
+        List<List<Zp>> myShares = new ArrayList<List<Zp>>();
+        for (int i = 0; i < compiled.getOutputCount(); i++){
+            myShares.add(Arrays.asList(new Zp(prime, compiled.getOutputValue(values, i))));
+        }
+        Map<Integer, List<List<Zp>>> recvShares = exchangeOutputShares(myShares);
+        List<List<Zp>> recvLists = new ArrayList<List<Zp>>();
+        for (List<List<Zp>> playerShares : recvShares.values()){
+            recvLists.add(getBlockShares(playerShares, 0));
+        }
+        List<Zp> outputs = getRecombinedResults(recvLists, prime);
+
         Map<Integer, Zp> resultList = new TreeMap<Integer, Zp>();
+        int k = 0;
+        for (Integer i : recvShares.keySet()){
+            resultList.put(i, outputs.get(k++));
+        }
+        return resultList;
+    }
 
-        for (int i = 0; i < numOfOutputs; i++){
-            tempRes = outputsMap.get(i);
-            for (int j = 0;j < numberOfPlayers; j++){
-                    advertiseList.add(tempRes);
-            }
-            proglog.printInformation("sharing results  with other players to recombine output number " +  (i+1));
-            Map<Integer, Player> players = cController.getIndexToPlayer();
-            filterPlayers(players);//remove unwanted players if necessary...
-            
-            //share result only with players that allow to calculate this output
-            for (Integer currIndex : players.keySet()){
-                if (currIndex == index){
-                    continue;
+    /* Opens the outputs in a single round - each player gets one message from every other player, with its shares
+     * of all the outputs the player may calculate (see Player.outputIndexes). myShares.get(i) holds the shares of
+     * output i, one per instance or block of a batch. Returns the shares of every player, in the order of the players,
+     * of each output this player may calculate - null for a player that was filtered out or sent a malformed message */
+    private Map<Integer, List<List<Zp>>> exchangeOutputShares(List<List<Zp>> myShares) throws IOException{
+        Map<Integer, Player> players = cController.getIndexToPlayer();
+        filterPlayers(players);//remove unwanted players if necessary...
+        proglog.printInformation("sharing results with other players to recombine " + myShares.size() + " outputs");
+        //share results only with players that allow to calculate them
+        for (Integer currIndex : players.keySet()){
+            if (currIndex == index){
+                continue;
+            }
+            List<Zp> toSend = getPermittedShares(myShares, players.get(currIndex).outputIndexes);
+            if (!toSend.isEmpty()){
+                cController.sendSercrets(new ShareVector(toSend), currIndex);
+            }
+        }
+
+        //calculate only the outputs this player is allowed to calculate
+        Map<Integer, List<List<Zp>>> recvShares = new TreeMap<Integer, List<List<Zp>>>();
+        List<Integer> myOutputs = players.get(index).outputIndexes;
+        for (int i = 0; i < myShares.size(); i++){
+            if (myOutputs.contains(i)){
+                recvShares.put(i, new ArrayList<List<Zp>>(numberOfPlayers));
+            }
+        }
+        if (recvShares.isEmpty()){
+            return recvShares;
+        }
+        int width = myShares.get(0).size();
+        for (int currIndex = 0; currIndex < numberOfPlayers ; currIndex++){
+            List<Zp> shares = null;
+            if (currIndex == index){
+                shares = getPermittedShares(myShares, myOutputs);
+            } else if (players.containsKey(currIndex)){
+                Sendable received = cController.recieveSecrets(currIndex, prime);
+                ShareVector vector = received == null ? null : received.asShareVector();
+                if (vector != null && vector.getShares().size() == recvShares.size() * width){
+                    shares = vector.getShares();
                 }
-                Player player = players.get(currIndex);
-                if (player.outputIndexes.contains(i)){
-                    cController.sendSercrets(new ShareObject(advertiseList.get(currIndex), null), currIndex);
+            }
+            int k = 0;
+            for (List<List<Zp>> playerShares : recvShares.values()){
+                playerShares.add(shares == null ? null : shares.subList(k * width, (k + 1) * width));
+                k++;
+            }
+        }
+        return recvShares;
+    }
+
+    /* The shares of the outputs in outputIndexes, one after the other in the order of the outputs */
+    private static List<Zp> getPermittedShares(List<List<Zp>> myShares, List<Integer> outputIndexes){
+        List<Zp> shares = new ArrayList<Zp>();
+        for (int i = 0; i < myShares.size(); i++){
+            if (outputIndexes.contains(i)){
+                shares.addAll(myShares.get(i));
+            }
+        }
+        return shares;
+    }
+
+    /* The share of every player of block b, null for the players whose shares are missing */
+    private static List<Zp> getBlockShares(List<List<Zp>> playerShares, int b){
+        List<Zp> recvList = new ArrayList<Zp>(playerShares.size());
+        for (List<Zp> shares : playerShares){
+            recvList.add(shares == null ? null : shares.get(b));
+        }
+        return recvList;
+    }
+
+    /* Recombines several shared values - recvLists.get(k) holds the shares of value k by the players. The
+     * Lagrange weights are looked up once for all of them */
+    protected List<Zp> getRecombinedResults(List<List<Zp>> recvLists, int prime){
+        int[] weights = LagrangeCache.getRecombinationWeights(prime, Shamir.getEvaluationPoints(polynomialDeg + 1, prime, false));
+        List<Zp> results = new ArrayList<Zp>(recvLists.size());
+        for (List<Zp> recvList : recvLists){
+            int secret = 0;
+            for (int j = 0; j < weights.length; j++){
+                secret = field.mulAdd(secret, weights[j], recvList.get(j).getValue());
+            }
+            results.add(new Zp(prime, secret));
+        }
+        return results;
+    }
+    
+    protected void filterPlayers(Map<Integer, Player> players){        
+    }
+
+    /* Evaluates the circuit level by level (see Circuit.getMultiplicationLevels) - the gates of
+     * a level are calculated locally and then all their communication is done together,
+     * so the number of communication rounds is the multiplicative depth of the circuit.
+     * Returns the values of the calculation, in the slots of the compiled circuit (see CompiledCircuit) */
+    protected int[] calculateGates(List<Zp> myRecvShares, String numPrefix) throws IOException{
+        CompiledCircuit compiled = circuit.getCompiled();
+        int[] values = compiled.newValues();
+        compiled.setInputs(values, myRecvShares);
+        calculateGates(values, 1, numPrefix);
+        return values;
+    }
+
+    /* Evaluates the circuit for a batch of instances - the values are in the layout of CompiledCircuit, with
+     * the shares of the inputs in place. Every communication step carries the whole batch. */
+    protected void calculateGates(int[] values, int batchSize, String numPrefix) throws IOException{
+        CompiledCircuit compiled = circuit.getCompiled();
+        boolean isLogging = proglog.isEnabled();
+        int[] pending = new int[compiled.getGateCount()];   // the gates of the level that need communication
+        List<Integer> toReduce = new ArrayList<Integer>();
+        for (int level = 0; level < compiled.getLevelCount(); level++){
+            int communicationStart = compiled.getLevelCommunicationStart(level);
+            int deferredStart = compiled.getLevelDeferredStart(level);
+            int levelEnd = compiled.getLevelEnd(level);
+            if (isLogging){
+                logGates(compiled, compiled.getLevelStart(level), deferredStart, numPrefix);
+            }
+            calculateLocalGates(compiled, values, batchSize, compiled.getLevelStart(level), communicationStart);
+            int pendingCount = 0;
+            for (int position = communicationStart; position < deferredStart; position++){
+                pending[pendingCount++] = compiled.getLevelGate(position);
+            }
+            toReduce.clear();
+            PendingReduction reduction = null;
+            if (pendingCount > 0){
+                reduction = calculateCommunicationGates(compiled, values, batchSize, pending, pendingCount, numPrefix, toReduce);
+            }
+            /* the local gates the communication does not need are calculated while its messages are in flight, and the
+             * shares of the players that already answered are added up between them */
+            if (isLogging){
+                logGates(compiled, deferredStart, levelEnd, numPrefix);
+            }
+            if (localEvaluator != null){
+                localEvaluator.calculate(compiled, values, batchSize, deferredStart, levelEnd, reduction);
+            } else {
+                for (int position = deferredStart; position < levelEnd; position++){
+                    compiled.calculateGate(compiled.getLevelGate(position), values, batchSize);
+                    if (reduction != null){
+                        reduction.poll();
+                    }
+                }
+            }
+            if (reduction != null){
+                List<Zp> reducedValues = reduction.finish();
+                for (int i = 0; i < reducedValues.size(); i++){
+                    values[toReduce.get(i)] = reducedValues.get(i).getValue();
+                }
+            }
+        }
+    }
+
+    /* The local gates at the positions from .. to-1 of the level order */
+    private void calculateLocalGates(CompiledCircuit compiled, int[] values, int batchSize, int from, int to){
+        if (localEvaluator != null){
+            localEvaluator.calculate(compiled, values, batchSize, from, to);
+            return;
+        }
+        for (int position = from; position < to; position++){
+            compiled.calculateGate(compiled.getLevelGate(position), values, batchSize);
+        }
+    }
+
+    private void logGates(CompiledCircuit compiled, int from, int to, String numPrefix){
+        for (int position = from; position < to; position++){
+            int gate = compiled.getLevelGate(position);
+            proglog.printInformation("calculating gate number "  + numPrefix + (gate + 1) +  " : a  '" + getOperationName(compiled.getOpcode(gate)) + "' gate");
+        }
+    }
+
+    private static String getOperationName(byte opcode){
+        switch (opcode){
+            case CompiledCircuit.OP_ADD:
+                return Gate.Operation.ADD.toString();
+            case CompiledCircuit.OP_SUB:
+                return Gate.Operation.SUB.toString();
+            case CompiledCircuit.OP_MUL:
+                return Gate.Operation.MUL.toString();
+            case CompiledCircuit.OP_DIV:
+                return Gate.Operation.DIV.toString();
+            default:
+                return Gate.Operation.NORMALIZE.toString();
+        }
+    }
+
+    private static int getSharedDivisorCount(CompiledCircuit compiled, int gate){
+        int count = 0;
+        for (int i = 1; i < compiled.getOperandCount(gate); i++){
+            if (!compiled.isConstantSlot(compiled.getOperandSlot(gate, i))){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /* The gates of a level that need communication: first the normalizations and the inversions of the shared
+     * divisors, then all the products together - with triples if there is a store, or with the reduction step.
+     * The reduction step is only started - its results are for the indexes of values put in toReduce */
+    private PendingReduction calculateCommunicationGates(CompiledCircuit compiled, int[] values, int batchSize, int[] gates, int count,
+            String numPrefix, List<Integer> toReduce) throws IOException{
+        boolean isConstantRound = isConstantRoundSupported();
+        String subPrefix = numPrefix + (gates[0] + 1) + ".";
+
+        /* the values to normalize and the shared divisors - by gate, then by divisor, then by instance */
+        List<Zp> toNormalize = new ArrayList<Zp>();
+        List<Zp> divisors = new ArrayList<Zp>();
+        for (int i = 0; i < count; i++){
+            int gate = gates[i];
+            byte opcode = compiled.getOpcode(gate);
+            if (opcode == CompiledCircuit.OP_NORMALIZE){
+                addValues(toNormalize, values, compiled.getOperandSlot(gate, 0), batchSize);
+            } else if (opcode == CompiledCircuit.OP_DIV){
+                for (int j = 1; j < compiled.getOperandCount(gate); j++){
+                    int slot = compiled.getOperandSlot(gate, j);
+                    if (!compiled.isConstantSlot(slot)){
+                        addValues(divisors, values, slot, batchSize);
+                    }
                 }
             }
-            
-            recvList = new ArrayList<Zp>();
-            //calculate output only if this player is allowed to calculate it.
-            if (players.get(index).outputIndexes.contains(i)) {
-                for (int currIndex = 0; currIndex < numberOfPlayers ; currIndex++){
-                    if (!players.containsKey(currIndex)){
-                        recvList.add(null);
-                        continue;
+        }
+
+        if (!toNormalize.isEmpty()){
+            List<Zp> normalized;
+            if (isConstantRound){
+                normalized = normalize(toNormalize);
+            } else if (prime == 2){
+                normalized = toNormalize;    // x^(p-1) is x
+            } else {
+                normalized = calculateExponents(Circuit.getNormalizationExponentialCircuit(prime), toNormalize, subPrefix);
+            }
+            int position = 0;
+            for (int i = 0; i < count; i++){
+                if (compiled.getOpcode(gates[i]) == CompiledCircuit.OP_NORMALIZE){
+                    int index = CompiledCircuit.getIndex(compiled.getGateSlot(gates[i]), batchSize, 0);
+                    for (int k = 0; k < batchSize; k++){
+                        values[index + k] = normalized.get(position++).getValue();
                     }
-                    if (currIndex == index){
-                        recvList.add(advertiseList.get(currIndex));                        
-                    }else{  
-                        ShareObject share = cController.recieveSecrets(currIndex, prime).asShareObject();
-                        recvList.add(share == null ? null : share.getSharedSecret());
-                    }                                        
                 }
-                tempRes = getRecombinedResult(recvList, input.prime);
-                resultList.put(i, tempRes);
             }
-            advertiseList.clear();
         }
-        return resultList;
+
+        int[] inverses = new int[divisors.size()];
+        if (!divisors.isEmpty()){
+            List<Zp> inverted;
+            if (isConstantRound){
+                inverted = isDivisorNonZero ? inverse(divisors) : inverseHidingZeros(divisors);
+            } else {
+                inverted = calculateExponents(Circuit.getDivisionExponentialCircuit(prime), divisors, subPrefix);
+            }
+            for (int i = 0; i < inverses.length; i++){
+                inverses[i] = inverted.get(i).getValue();
+            }
+        }
+
+        /* the products - the inverses replace the shared divisors */
+        List<Integer> toMultiply = new ArrayList<Integer>();    // indexes of values
+        List<Zp> leftOperands = new ArrayList<Zp>();
+        List<Zp> rightOperands = new ArrayList<Zp>();
+        List<Zp> valuesToReduce = new ArrayList<Zp>();
+        int inverseOffset = 0;
+        for (int i = 0; i < count; i++){
+            int gate = gates[i];
+            byte opcode = compiled.getOpcode(gate);
+            if (opcode == CompiledCircuit.OP_NORMALIZE){
+                continue;
+            }
+            boolean isDivision = opcode == CompiledCircuit.OP_DIV;
+            boolean isBeaver = tripleStore != null && compiled.isReductionNeeded(gate) && compiled.getOperandCount(gate) == 2;
+            int index = CompiledCircuit.getIndex(compiled.getGateSlot(gate), batchSize, 0);
+            for (int k = 0; k < batchSize; k++){
+                if (isBeaver){
+                    toMultiply.add(index + k);
+                    leftOperands.add(new Zp(prime, values[CompiledCircuit.getIndex(compiled.getOperandSlot(gate, 0), batchSize, k)]));
+                    rightOperands.add(new Zp(prime, isDivision ? inverses[inverseOffset + k]
+                                                               : values[CompiledCircuit.getIndex(compiled.getOperandSlot(gate, 1), batchSize, k)]));
+                    continue;
+                }
+                int product = compiled.multiplyOperands(gate, values, batchSize, k, inverses, inverseOffset);
+                if (compiled.isReductionNeeded(gate)){
+                    toReduce.add(index + k);
+                    valuesToReduce.add(new Zp(prime, product));
+                } else {
+                    values[index + k] = product;
+                }
+            }
+            if (isDivision){
+                inverseOffset += getSharedDivisorCount(compiled, gate) * batchSize;
+            }
+        }
+        if (!toMultiply.isEmpty()){
+            List<Zp> products = beaverMultiplication(leftOperands, rightOperands);
+            for (int i = 0; i < products.size(); i++){
+                values[toMultiply.get(i)] = products.get(i).getValue();
+            }
+        }
+        if (toReduce.isEmpty()){
+            return null;
+        }
+        return activePacking > 1 ? new PendingReduction(packedReductionStep(valuesToReduce)) : startReductionStep(valuesToReduce);
     }
-    
-    protected void filterPlayers(Map<Integer, Player> players){        
+
+    private void addValues(List<Zp> list, int[] values, int slot, int batchSize){
+        int index = CompiledCircuit.getIndex(slot, batchSize, 0);
+        for (int k = 0; k < batchSize; k++){
+            list.add(new Zp(prime, values[index + k]));
+        }
+    }
+
+    /* The shares of x^e of shared values x, with an exponent circuit - all the values are a single batch */
+    private List<Zp> calculateExponents(Circuit exponentCircuit, List<Zp> shares, String gatePrefix) throws IOException{
+        MPCProtocol subProtocol = createSubProtocol(exponentCircuit);
+        CompiledCircuit compiled = exponentCircuit.getCompiled();
+        int batchSize = shares.size();
+        int[] values = compiled.newValues(batchSize);
+        for (int k = 0; k < batchSize; k++){
+            values[CompiledCircuit.getIndex(0, batchSize, k)] = shares.get(k).getValue();
+        }
+        subProtocol.calculateGates(values, batchSize, gatePrefix);
+        List<Zp> results = new ArrayList<Zp>(batchSize);
+        int index = CompiledCircuit.getIndex(compiled.getOutputSlot(0), batchSize, 0);
+        for (int k = 0; k < batchSize; k++){
+            results.add(new Zp(prime, values[index + k]));
+        }
+        return results;
+    }
+
+    /* A protocol of the same kind for a sub circuit (the exponent circuits of DIV and NORMALIZE) */
+    public MPCProtocol createSubProtocol(Circuit subCircuit){
+        return new MPCProtocol(this, subCircuit);
+    }
+
+    /**
+     * The preprocessing phase - makes count multiplication triples and adds them to the triple store
+     * (a new one if there is none). It does not depend on the inputs, so it can be run long before the calculation.
+     * Every player shares random values, and a and b are the sums of the values of all the players, so no player
+     * knows them; c is a*b after the reduction step. This takes two rounds for any number of triples.
+     */
+    public void generateTriples(int count) throws IOException{
+        if (2 * polynomialDeg >= numberOfPlayers){
+            throw new IllegalStateException("Cannot make multiplication triples with polynomial degree " + polynomialDeg + " and " + numberOfPlayers + " players");
+        }
+        if (tripleStore == null){
+            tripleStore = new BeaverTripleStore(prime, numberOfPlayers, polynomialDeg, index);
+        }
+        if (count == 0){
+            return;
+        }
+        proglog.printInformation("generating " + count + " multiplication triples");
+
+        int[] sums = generateRandomShares(2 * count);   // a values and then b values
+        List<Zp> products = new ArrayList<Zp>(count);
+        for (int i = 0; i < count; i++){
+            products.add(new Zp(prime, field.mul(sums[i], sums[count + i])));
+        }
+        List<Zp> cValues = reductionRandomizationStep(products);
+
+        List<BeaverTriple> triples = new ArrayList<BeaverTriple>(count);
+        for (int i = 0; i < count; i++){
+            triples.add(new BeaverTriple(new Zp(prime, sums[i]), new Zp(prime, sums[count + i]), cValues.get(i)));
+        }
+        tripleStore.add(triples);
+    }
+
+    /* Shares of count random values that no player knows - every player shares random values, and
+     * each of the values is the sum of the values of all the players. A single round. */
+    protected int[] generateRandomShares(int count) throws IOException{
+        /* toPlayers.get(j) holds the shares of player j of my random values */
+        List<List<Zp>> toPlayers = new ArrayList<List<Zp>>();
+        for (int j = 0; j < numberOfPlayers; j++){
+            toPlayers.add(new ArrayList<Zp>(count));
+        }
+        for (int i = 0; i < count; i++){
+            Zp random = new Zp(prime, Zp.modulo((int) (Math.random() * prime), prime));
+            List<Zp> shares = Shamir.share(random, numberOfPlayers, polynomialDeg);
+            for (int j = 0; j < numberOfPlayers; j++){
+                toPlayers.get(j).add(shares.get(j));
+            }
+        }
+        List<ShareVector> toSend = new ArrayList<ShareVector>();
+        for (List<Zp> shares : toPlayers){
+            toSend.add(new ShareVector(shares));
+        }
+        List<ShareVector> received = Sendable.asShareVectors(cController.shareSecrets(toSend, prime));
+
+        int[] sums = new int[count];
+        for (int j = 0; j < numberOfPlayers; j++){
+            ShareVector fromPlayer = received.get(j);
+            if (fromPlayer == null || fromPlayer.getShares().size() != sums.length){
+                throw new IOException("Did not receive the random shares of player " + j);
+            }
+            List<Zp> shares = fromPlayer.getShares();
+            for (int i = 0; i < sums.length; i++){
+                sums[i] = field.add(sums[i], shares.get(i).getValue());
+            }
+        }
+        return sums;
+    }
+
+    /* Multiplies pairs of shared values with triples from the store. For x*y with the triple (a,b,c) the players
+     * open d = x-a and e = y-b, and x*y = c + d*b + e*a + d*e. d and e reveal nothing since a and b are random,
+     * and the product already has the degree of the protocol, so there is no reduction step. */
+    protected List<Zp> beaverMultiplication(List<Zp> leftOperands, List<Zp> rightOperands) throws IOException{
+        int count = leftOperands.size();
+        proglog.printInformation("multiplying " + count + " gates with multiplication triples");
+        List<BeaverTriple> triples = tripleStore.take(count);
+        List<Zp> masked = new ArrayList<Zp>(2 * count);
+        for (int i = 0; i < count; i++){
+            masked.add(new Zp(prime, field.sub(leftOperands.get(i).getValue(), triples.get(i).getA().getValue())));
+        }
+        for (int i = 0; i < count; i++){
+            masked.add(new Zp(prime, field.sub(rightOperands.get(i).getValue(), triples.get(i).getB().getValue())));
+        }
+        int[] opened = openShares(masked);
+
+        List<Zp> products = new ArrayList<Zp>(count);
+        for (int i = 0; i < count; i++){
+            BeaverTriple triple = triples.get(i);
+            int d = opened[i];
+            int e = opened[count + i];
+            int product = field.add(triple.getC().getValue(), field.mul(d, e));
+            product = field.mulAdd(product, d, triple.getB().getValue());
+            product = field.mulAdd(product, e, triple.getA().getValue());
+            products.add(new Zp(prime, product));
+        }
+        return products;
+    }
+
+    /* Reveals shared values to all the players in one round - each player sends its shares of all the values to everyone */
+    protected int[] openShares(List<Zp> shares) throws IOException{
+        ShareVector myShares = new ShareVector(shares);
+        List<ShareVector> toSend = new ArrayList<ShareVector>();
+        for (int j = 0; j < numberOfPlayers; j++){
+            toSend.add(myShares);
+        }
+        List<ShareVector> received = Sendable.asShareVectors(cController.shareSecrets(toSend, prime));
+        int[] weights = LagrangeCache.getRecombinationWeights(prime, Shamir.getEvaluationPoints(numberOfPlayers, prime, false));
+
+        int[] values = new int[shares.size()];
+        for (int j = 0; j < numberOfPlayers; j++){
+            ShareVector fromPlayer = received.get(j);
+            if (fromPlayer == null || fromPlayer.getShares().size() != values.length){
+                throw new IOException("Did not receive the opened shares of player " + j);
+            }
+            List<Zp> playerShares = fromPlayer.getShares();
+            for (int i = 0; i < values.length; i++){
+                values[i] = field.mulAdd(values[i], playerShares.get(i).getValue(), weights[j]);
+            }
+        }
+        return values;
     }
 
 
@@ -229,18 +962,157 @@ public class MPCProtocol {
         /* Send to the j-th user hi(j) and receive from every other k player hk(i)  */
         List<Zp> recvSharesFromPlayers = shareSimple(shareResultWithPlayers);
        
-        List<Zp> firstLineAtInvVanderMonde =
-                ZpMatrix.getSymmetricVandermondeMatrix(numberOfPlayers, oldSecret.prime).getTransposeMatrix().getInverse().getMatrixRow(0);
+        /* The first line of the inverse Vandermonde matrix - the Lagrange weights at 0 of the points 1..n */
+        int[] firstLineAtInvVanderMonde =
+                LagrangeCache.getRecombinationWeights(prime, Shamir.getEvaluationPoints(numberOfPlayers, prime, false));
 
         // Calculate the value of the  polynomial H(x)  at i = H(i) as defined at GRR
-        Zp tempSecret = new Zp(oldSecret.prime, 0);
+        int tempSecret = 0;
         for (int i =0; i < numberOfPlayers;i++){
-            tempSecret.add( recvSharesFromPlayers.get(i).mul(firstLineAtInvVanderMonde.get(i)));
+            tempSecret = field.mulAdd(tempSecret, recvSharesFromPlayers.get(i).getValue(), firstLineAtInvVanderMonde[i]);
         }        
-        return   tempSecret;
+        return   new Zp(prime, tempSecret);
+    }
+
+    /* GRR for a batch of products - each player sends every other player a single vector with its
+     * shares of all the products, so the whole batch costs one round instead of one per product */
+    public List<Zp> reductionRandomizationStep(List<Zp> oldSecrets) throws IOException{
+        return startReductionStep(oldSecrets).finish();
+    }
+
+    /* Sends the shares of the reduction step of a batch of products and returns while they are in flight */
+    protected PendingReduction startReductionStep(List<Zp> oldSecrets) throws IOException{
+        proglog.printInformation("performing reduction & randomization step for " + oldSecrets.size() + " gates");
+        int[] firstLineAtInvVanderMonde =
+                LagrangeCache.getRecombinationWeights(prime, Shamir.getEvaluationPoints(numberOfPlayers, prime, false));
+
+        /* toPlayers.get(j) holds hi(j) of every product i */
+        List<List<Zp>> toPlayers = new ArrayList<List<Zp>>();
+        for (int j = 0; j < numberOfPlayers; j++){
+            toPlayers.add(new ArrayList<Zp>(oldSecrets.size()));
+        }
+        for (Zp oldSecret : oldSecrets){
+            List<Zp> shares = Shamir.share(oldSecret, numberOfPlayers, polynomialDeg);
+            for (int j = 0; j < numberOfPlayers; j++){
+                toPlayers.get(j).add(shares.get(j));
+            }
+        }
+        List<ShareVector> toSend = new ArrayList<ShareVector>();
+        for (List<Zp> shares : toPlayers){
+            toSend.add(new ShareVector(shares));
+        }
+        return new PendingReduction(cController.startExchange(toSend, prime), firstLineAtInvVanderMonde, oldSecrets.size());
+    }
+
+    /**
+     * A reduction step whose messages are in flight (see startReductionStep). The shares of every player are added to
+     * the results when its message arrives - poll adds those that arrived without waiting, and finish waits for the
+     * rest. A step that is already done (e.g. of a protocol that reduces in its own way) just holds the results.
+     */
+    protected class PendingReduction implements ParallelGateEvaluator.Poller{
+        private final ConnectionController.Exchange exchange;  // null - the results are known
+        private final int[] weights;
+        private final int[] tempSecrets;
+        private final boolean[] isAdded;
+        private List<Zp> results;
+
+        PendingReduction(List<Zp> results){
+            this.exchange = null;
+            this.weights = null;
+            this.tempSecrets = null;
+            this.isAdded = null;
+            this.results = results;
+        }
+
+        PendingReduction(ConnectionController.Exchange exchange, int[] weights, int count) throws IOException{
+            this.exchange = exchange;
+            this.weights = weights;
+            this.tempSecrets = new int[count];
+            this.isAdded = new boolean[numberOfPlayers];
+            add(index);
+        }
+
+        @Override
+        public void poll() throws IOException{
+            if (exchange == null){
+                return;
+            }
+            for (int j = exchange.poll(); j != -1; j = exchange.poll()){
+                add(j);
+            }
+        }
+
+        public List<Zp> finish() throws IOException{
+            if (results != null){
+                return results;
+            }
+            for (int j = exchange.take(); j != -1; j = exchange.take()){
+                add(j);
+            }
+            for (int j = 0; j < numberOfPlayers; j++){
+                if (!isAdded[j]){
+                    throw new IOException("Did not receive the reduction step shares of player " + j);
+                }
+            }
+            results = new ArrayList<Zp>(tempSecrets.length);
+            for (int tempSecret : tempSecrets){
+                results.add(new Zp(prime, tempSecret));
+            }
+            return results;
+        }
+
+        private void add(int j) throws IOException{
+            Sendable received = exchange.get(j);
+            ShareVector fromPlayer = received == null ? null : received.asShareVector();
+            if (fromPlayer == null || fromPlayer.getShares().size() != tempSecrets.length){
+                throw new IOException("Did not receive the reduction step shares of player " + j);
+            }
+            List<Zp> shares = fromPlayer.getShares();
+            for (int i = 0; i < tempSecrets.length; i++){
+                tempSecrets[i] = field.mulAdd(tempSecrets[i], shares.get(i).getValue(), weights[j]);
+            }
+            isAdded[j] = true;
+        }
     }
 
+    /* The reduction step of packed products (see Shamir.getPackedReductionShares) - like the reduction step of
+     * single products, every player sends every other player one vector with its shares of all the products */
+    protected List<Zp> packedReductionStep(List<Zp> products) throws IOException{
+        proglog.printInformation("performing packed reduction step for " + products.size() + " blocks of " + activePacking + " gates");
+        int privacyDeg = polynomialDeg - activePacking + 1;
+        List<List<Zp>> toPlayers = new ArrayList<List<Zp>>();
+        for (int j = 0; j < numberOfPlayers; j++){
+            toPlayers.add(new ArrayList<Zp>(products.size()));
+        }
+        for (Zp product : products){
+            List<Zp> shares = Shamir.getPackedReductionShares(product, index, numberOfPlayers, privacyDeg, activePacking);
+            for (int j = 0; j < numberOfPlayers; j++){
+                toPlayers.get(j).add(shares.get(j));
+            }
+        }
+        List<ShareVector> toSend = new ArrayList<ShareVector>();
+        for (List<Zp> shares : toPlayers){
+            toSend.add(new ShareVector(shares));
+        }
+        List<ShareVector> received = Sendable.asShareVectors(cController.shareSecrets(toSend, prime));
 
+        int[] sums = new int[products.size()];
+        for (int j = 0; j < numberOfPlayers; j++){
+            ShareVector fromPlayer = received.get(j);
+            if (fromPlayer == null || fromPlayer.getShares().size() != sums.length){
+                throw new IOException("Did not receive the packed reduction step shares of player " + j);
+            }
+            List<Zp> shares = fromPlayer.getShares();
+            for (int i = 0; i < sums.length; i++){
+                sums[i] = field.add(sums[i], shares.get(i).getValue());
+            }
+        }
+        List<Zp> reduced = new ArrayList<Zp>(sums.length);
+        for (int sum : sums){
+            reduced.add(new Zp(prime, sum));
+        }
+        return reduced;
+    }
 
    
 public static void main(String[] args) throws IOException {
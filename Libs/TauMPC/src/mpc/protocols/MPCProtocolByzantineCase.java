@@ -5,6 +5,7 @@
 
 package mpc.protocols;
 
+import mpc.sendables.DealtPolynomials;
 import mpc.sendables.MultStepBCaseShareBundle;
 import mpc.sendables.MultStepBCaseShare;
 import mpc.sendables.MultStepVerificationPoly;
@@ -12,27 +13,38 @@ import mpc.ui.ProgressLog;
 import mpc.circuit.Circuit;
 import mpc.communication.BulletinBoard;
 import mpc.sendables.PlayerNotification;
+import mpc.sendables.PlayerNotificationBundle;
 import mpc.sendables.SecretPolynomialsBundle;
 import mpc.sendables.SecretPolynomials;
 import mpc.sendables.Sendable;
 import mpc.sendables.ShareObject;
+import mpc.sendables.ShareVector;
 import mpc.finite_field_math.Polynom;
+import mpc.finite_field_math.FieldContext;
+import mpc.finite_field_math.LagrangeCache;
 import mpc.finite_field_math.Shamir;
 import mpc.finite_field_math.Zp;
+import mpc.finite_field_math.ZpArithmetic;
 import mpc.finite_field_math.ZpMatrix;
 import java.io.File;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import mpc.communication.ConnectionController;
 import mpc.communication.ConnectionController.Player;
 
 
 public class MPCProtocolByzantineCase extends MPCProtocol{
 
     protected boolean [] goodPlayers;
+    private static final int NONCE_BITS = 128;  // of the commitments to the parts of the batch verification challenge
     protected  MPCProtocolByzantineCase callerProtocol;
+    private boolean isBatchVerification = false;    // cross-check a random combination of the sharings of the input stage first
 
     public MPCProtocolByzantineCase(Circuit circuit, ProgressLog proglog,int index,int prime) {
         super(circuit, proglog,index,prime);
@@ -40,11 +52,18 @@ public class MPCProtocolByzantineCase extends MPCProtocol{
         callerProtocol = null;
     }
 
+    public MPCProtocolByzantineCase(Circuit circuit, ProgressLog proglog, int index, int prime, int numberOfPlayers) {
+        super(circuit, proglog, index, prime, numberOfPlayers);
+        initializeGoodPlayers();
+        callerProtocol = null;
+    }
+
     
     public MPCProtocolByzantineCase(MPCProtocolByzantineCase protocol, Circuit circuit){
         super(protocol, circuit);
         initializeGoodPlayers(protocol.goodPlayers);
         callerProtocol = protocol;
+        isBatchVerification = protocol.isBatchVerification;
     }
 
 
@@ -69,6 +88,71 @@ public class MPCProtocolByzantineCase extends MPCProtocol{
             this.polynomialDeg =  (numberOfPlayers - 1) / 4;    // for simple test  - disable this part
             return initSucceeded;
      }
+
+    @Override
+     public boolean init(ConnectionController connectionController) {
+            if (numberOfPlayers < 5) {
+                 throw new IllegalArgumentException("Cannot use Byzantine algoritm - numberOfPlayers <= 4*polynomDeg - " +
+                "use regular computation instead");
+            }
+            boolean initSucceeded = super.init(connectionController);
+            this.polynomialDeg =  (numberOfPlayers - 1) / 4;
+            return initSucceeded;
+     }
+
+    /* Opening the masked values of a triple is not robust against cheaters - the Byzantine case keeps the reduction step */
+    @Override
+     public void setTripleStore(BeaverTripleStore tripleStore) {
+            if (tripleStore != null) {
+                throw new UnsupportedOperationException("Multiplication triples are not supported in the Byzantine case");
+            }
+     }
+
+    @Override
+     public void generateTriples(int count) throws IOException {
+            throw new UnsupportedOperationException("Multiplication triples are not supported in the Byzantine case");
+     }
+
+    /* With batch verification the input stage (and the VSS of every multiplication) first cross-checks a single random
+     * combination of the sharings of all the dealers, and checks every dealer on its own only if someone complains.
+     * That saves traffic and time with many players at the cost of the few rounds of the combined check */
+     public void setBatchVerification(boolean isBatchVerification) {
+            this.isBatchVerification = isBatchVerification;
+     }
+
+     public boolean isBatchVerification() {
+            return isBatchVerification;
+     }
+
+    /* The instances of a batch are calculated one after the other, each with its own verified sharing */
+    @Override
+     public void setPackingFactor(int packingFactor) {
+            if (packingFactor != 1) {
+                throw new UnsupportedOperationException("Packed sharing is not supported in the Byzantine case");
+            }
+     }
+
+    @Override
+     public MPCProtocol createSubProtocol(Circuit subCircuit) {
+            return new MPCProtocolByzantineCase(this, subCircuit);
+     }
+
+    /* The input stage verifies the polynomials of every input on its own, so the instances of a batch
+     * are calculated one after the other */
+    @Override
+     public List<Map<Integer, Zp>> calculateBatch(List<Zp> inputs) throws IOException {
+            List<Map<Integer, Zp>> results = new ArrayList<Map<Integer, Zp>>(inputs.size());
+            for (Zp input : inputs) {
+                results.add(calculate(input));
+            }
+            return results;
+     }
+
+    /* The constant round inversion and zero test open masked values without error correction */
+    @Override
+     public boolean isConstantRoundSupported() {
+            return false;
+     }
     
 
     protected int getNumberOfComplaints(List<PlayerNotification> complaints){
@@ -141,36 +225,83 @@ public class MPCProtocolByzantineCase extends MPCProtocol{
 
     @Override
     protected Zp getRecombinedResult(List<Zp> recvList, int prime) {
-            // Scan recvList - if there are null elements replace them arbitrarily to Zp with zero value
-            for (int i = 0;i < recvList.size(); i++){
-                 if (recvList.get(i) == null)
-                 {
-                        recvList.set(i, new Zp(prime, 0));
-                 }
-            }
-            List<Zp> xVlaues = new ArrayList<Zp>();
-            int w = Zp.getFieldMinimumPrimitive(prime);
-            for (int i = 0;i < recvList.size(); i++){
-                 xVlaues.add(new Zp(prime, Zp.calculatePower(w, i, prime) ));
-            }
-            // Should call Welch-Berlekamp Decoder to fix error at last stage
-            List<Zp> fixedShares = WelchBerlekampDecoder.decode(xVlaues, recvList, polynomialDeg, polynomialDeg, prime);
-            if (fixedShares == null)
-            {
-                    String errorStr = "There were more then polynomialDegree = " + polynomialDeg + " Cheaters - cannot extract results.";
-                    proglog.printError(errorStr);
-                    throw new IllegalStateException(errorStr);
-            }     
-            return  Shamir.primitiveRecombine(fixedShares, polynomialDeg, prime);
+            return getRecombinedResults(Arrays.asList(recvList), prime).get(0);
+    }
+
+    /* The decoder and the weights of the primitive points are looked up once for all the values */
+    @Override
+    protected List<Zp> getRecombinedResults(List<List<Zp>> recvLists, int prime) {
+            ReedSolomonDecoder decoder = ReedSolomonDecoder.getPrimitiveInstance(numberOfPlayers, polynomialDeg, prime);
+            int[] weights = LagrangeCache.getRecombinationWeights(prime, Shamir.getEvaluationPoints(polynomialDeg + 1, prime, true));
+            List<Zp> results = new ArrayList<Zp>(recvLists.size());
+            int[] word = new int[numberOfPlayers];
+            for (List<Zp> recvList : recvLists){
+                // A missing share is replaced arbitrarily by zero
+                for (int i = 0; i < numberOfPlayers; i++){
+                    Zp share = recvList.get(i);
+                    word[i] = share == null ? 0 : share.getValue();
+                }
+                // Fix the errors of cheaters - when no one cheated this is only the parity check of the decoder
+                int[] fixedShares = decoder.decode(word, polynomialDeg);
+                if (fixedShares == null)
+                {
+                        String errorStr = "There were more then polynomialDegree = " + polynomialDeg + " Cheaters - cannot extract results.";
+                        proglog.printError(errorStr);
+                        throw new IllegalStateException(errorStr);
+                }
+                int secret = 0;
+                for (int j = 0; j < weights.length; j++){
+                    secret = field.mulAdd(secret, weights[j], fixedShares[j]);
+                }
+                results.add(new Zp(prime, secret));
+            }
+            return results;
     }
 
 
 
+    /* Every dealer deals a single verified sharing at a time, so the inputs are verified position by position - the k-th
+     * inputs of all the players together, and a player without a k-th input deals 0. The number of verifications is the
+     * largest number of inputs of a player rather than the number of inputs of the circuit - and with batch verification
+     * all the positions are verified together (see batchInputStage) */
+    @Override
+    protected List<Zp> inputStage(List<Zp> inputs) throws IOException{
+            int[] offsets = getPlayerInputOffsets(inputs);
+            int maxInputs = 0;
+            for (int j = 0; j < numberOfPlayers; j++){
+                maxInputs = Math.max(maxInputs, offsets[j + 1] - offsets[j]);
+            }
+            List<Zp> myInputs = new ArrayList<Zp>(maxInputs);
+            for (int k = 0; k < maxInputs; k++){
+                myInputs.add(k < inputs.size() ? inputs.get(k) : new Zp(prime, 0));
+            }
+            List<List<Zp>> recvSharesLists = isBatchVerification ? batchInputStage(myInputs) : new ArrayList<List<Zp>>();
+            for (int k = recvSharesLists.size(); k < maxInputs; k++){
+                recvSharesLists.add(inputStage(myInputs.get(k)));
+            }
+            Zp[] myRecvShares = new Zp[offsets[numberOfPlayers]];
+            for (int k = 0; k < maxInputs; k++){
+                List<Zp> recvShares = recvSharesLists.get(k);
+                for (int j = 0; j < numberOfPlayers; j++){
+                    if (k < offsets[j + 1] - offsets[j]){
+                        myRecvShares[offsets[j] + k] = recvShares.get(j);
+                    }
+                }
+            }
+            return Arrays.asList(myRecvShares);
+    }
+
+    /* Verifies the inputs of all the dealers together, in a fixed number of rounds whatever the number of players:
+     * the polynomials, one round of cross-check values, and up to three complaint rounds on the bulletin board,
+     * each one answered by all the dealers at once. Once no one complains the remaining rounds are skipped */
     @Override
    protected List<Zp> inputStage(Zp input) throws IOException{
+            if (isBatchVerification)
+            {
+                    return batchInputStage(Arrays.asList(input)).get(0);
+            }
 
-            // Set timeout is 20 seconds
-            cController.setTimeOut(20000);
+            cController.setTimeOut(getInputStageTimeOut());
             // Generated polynomials for users
             List<SecretPolynomials> shareMySecrets = Shamir.shareByzantineCase(input, numberOfPlayers, polynomialDeg);
             int playersNumForPrint = 0;
@@ -184,7 +315,7 @@ public class MPCProtocolByzantineCase extends MPCProtocol{
             proglog.printInformation("sharing secrets with other players");
 
             // Share and receive polynomials from all players
-            List<SecretPolynomials>  myRevcShare = Sendable.asSecretPolynomials(cController.shareSecrets(shareMySecrets, prime, goodPlayers));
+            List<SecretPolynomials>  myRevcShare = Sendable.asSecretPolynomials(cController.shareSecrets(getPolynomialsToShare(input, shareMySecrets), prime, goodPlayers));
             playersNumForPrint = 1;
             toPrintStr = "";
             for (SecretPolynomials toRecvSecretPoly: myRevcShare){
@@ -192,190 +323,381 @@ public class MPCProtocolByzantineCase extends MPCProtocol{
                 toPrintStr += (toRecvSecretPoly != null) ?  toRecvSecretPoly.toString() : null;
             }
             proglog.printInformation2("Received polynomials shares  are:"  + toPrintStr);
+            return verifyDealtInputs(shareMySecrets, myRevcShare);
+   }
 
+    /* The verification of the polynomials received from all the dealers (myRevcShare) - after the cross-check values the
+     * complaints are answered with the polynomials this player dealt (shareMySecrets). Returns the shares of the inputs,
+     * 0 for a cheater */
+    private List<Zp> verifyDealtInputs(List<SecretPolynomials> shareMySecrets, List<SecretPolynomials> myRevcShare) throws IOException {
             List<Zp> recvSharesForComp = new ArrayList<Zp>();
 
-            // Input stage checking - check that each input is legal
-            int playerToVerify = 0;
-            Zp recvSecretShare_i;
-            boolean imTheDealer = false;
-
-            // Each iteration in the loop is a verification of player number  'playerToVerify'
-            for (SecretPolynomials  secretPoly_i : myRevcShare ) {
-                // First check if the verified dealer had already been caught as a cheater
-                if (! goodPlayers[playerToVerify])
+            /* Step 1 - Verify the inputs of all the dealers  */
+            boolean[] isOrigPolyLegal = new boolean[numberOfPlayers];
+            for (int playerToVerify = 0; playerToVerify < numberOfPlayers; playerToVerify++){
+                SecretPolynomials secretPoly_i = myRevcShare.get(playerToVerify);
+                // First check if you received a proper polynomial - no need to check the input of a cheater
+                isOrigPolyLegal[playerToVerify] = goodPlayers[playerToVerify] && isSecretPolynomialsLegal(secretPoly_i);
+                if (isOrigPolyLegal[playerToVerify])
                 {
-                        // No need to check a the cheater player input
-                        recvSharesForComp.add(new Zp(prime, 0));
-                        imTheDealer = false;
-                        playerToVerify++;
-                        continue;
+                        recvSharesForComp.add(new Zp(secretPoly_i.getFi_xPolynomial().get(0)));
                 }
-                if (playerToVerify != index)
+                else // Received polynomials are corrupted - remember to complain
                 {
-                        proglog.printInformation2("Verifying input of player number... "  + playerToVerify);
+                        if (goodPlayers[playerToVerify])
+                        {
+                                proglog.printWarning("Received a corrupted polynomials from player Number : " + playerToVerify);
+                        }
+                        recvSharesForComp.add(new Zp(prime, 0));
                 }
-                else    // I'm the dealer
-                {
-                      proglog.printInformation2("Verifying my input...");
-                      imTheDealer = true;
+            }
+            boolean[] foundWrongValue = crossCheckDealers(myRevcShare, isOrigPolyLegal);
+
+            /* Step 2 - Advertise the results on the bulletin board, and let the dealers publish the polynomials of the complaining players */
+            // A dealer stays under dispute while there are complaints on it - there are at most three complaint rounds
+            boolean[] isDisputed = Arrays.copyOf(goodPlayers, numberOfPlayers);
+            List<List<SecretPolynomials>> oldPublicPolys = null;
+            for (int complaintRound = 1; complaintRound <= 3; complaintRound++){
+                List<List<PlayerNotification>> recvComplaintesLists = publishComplaints(foundWrongValue, isDisputed);
+                boolean foundInconsistency = false;
+                for (int playerToVerify = 0; playerToVerify < numberOfPlayers; playerToVerify++){
+                    isDisputed[playerToVerify] = isDisputed[playerToVerify] && getNumberOfComplaints(recvComplaintesLists.get(playerToVerify)) != 0;
+                    foundInconsistency = foundInconsistency || isDisputed[playerToVerify];
                 }
-
-                /* Step 1 - Verify player 'playerToVerify' input  */
-                // Extract the received share from the polynomial you received from player Number 'playerToVerify'
-                // Assume I'm the j-th player-  Calculate fj(w^i)
-                List<Zp> toSendVerificationList_f_j_w_i = null;
-                List<Zp> toRecvVerifyList_f_i_w_j = null;
-                List<Zp> verifyWithList_g_j_w_i = null;
-                List<Coordinate>  wrongCoordinatesList = null;
-
-                // First check if you received a proper polynomial.
-                boolean isOrigPolyLegal = isSecretPolynomialsLegal(secretPoly_i);
-
-                if (isOrigPolyLegal)
+                if (!foundInconsistency)
                 {
-                        recvSecretShare_i = new Zp(secretPoly_i.getFi_xPolynomial().get(0));
-                        toSendVerificationList_f_j_w_i = secretPoly_i.calculateF_i_xValuesForPlayers(numberOfPlayers, prime);
-                        toRecvVerifyList_f_i_w_j = shareSimple(toSendVerificationList_f_j_w_i);
-                        verifyWithList_g_j_w_i  = secretPoly_i.calculateG_i_yValuesForVerification(numberOfPlayers, prime);
-                        // Need to change this comparison and its output
-                         wrongCoordinatesList = compareCoordianteList(toRecvVerifyList_f_i_w_j, verifyWithList_g_j_w_i);
+                    break;
                 }
-                else // Received polynomials are corrupted Send random List and remember to complain
+                if (complaintRound == 3)
                 {
-                         proglog.printWarning("Received a corrupted polynomials from player Number : " + playerToVerify);
-                        recvSecretShare_i = new Zp(prime, 0);
-                        toSendVerificationList_f_j_w_i = ZpMatrix.getRandomMatrix(1, numberOfPlayers, prime).getMatrixRow(0);
-                        toRecvVerifyList_f_i_w_j = shareSimple(toSendVerificationList_f_j_w_i);
-                        // don't have a need to compare the received results with somthing
+                    /* Step 3 - A dealer with more than 'polynomialDeg' complaints is a cheater */
+                    removeCheaterDealers(recvComplaintesLists, isDisputed, recvSharesForComp);
+                    break;
                 }
 
-
-                if (imTheDealer)
-                {
-                    handleDealer(shareMySecrets, recvSecretShare_i);
-                }
-                else // I'm not the dealer
-                {
-                    handleNotDealer(isOrigPolyLegal, wrongCoordinatesList, playerToVerify, recvSecretShare_i, secretPoly_i);
+                // Publish the wanted polynomials of the players that complained on me, and read the polynomials of the other dealers
+                List<List<SecretPolynomials>> recvPublicPolys = publishWantedPolynomials(recvComplaintesLists.get(index), shareMySecrets);
+                for (int playerToVerify = 0; playerToVerify < numberOfPlayers; playerToVerify++){
+                    if (playerToVerify == index || !isDisputed[playerToVerify])
+                    {
+                            foundWrongValue[playerToVerify] = false;
+                            continue;
+                    }
+                    proglog.printWarning("Inconsistency " + complaintRound + " found ! checking if player " + playerToVerify + " is a cheater");
+                    List<SecretPolynomials> recvPublicPolysList = recvPublicPolys.get(playerToVerify);
+                    Zp recvSecretShare_i = recvSharesForComp.get(playerToVerify);
+                    if (foundWrongValue[playerToVerify])
+                    {
+                            updateRecvShare(recvPublicPolysList, recvSecretShare_i);
+                    }
+                    boolean foundWrongValue_i = (!isOrigPolyLegal[playerToVerify]) ||
+                            isPublicDataContradictPrivate(myRevcShare.get(playerToVerify), recvPublicPolysList, recvComplaintesLists.get(playerToVerify), recvSecretShare_i);
+                    if (oldPublicPolys != null)
+                    {
+                            List<SecretPolynomials> oldPublicPolysList = oldPublicPolys.get(playerToVerify);
+                            foundWrongValue_i = foundWrongValue_i || (oldPublicPolysList == null) || (oldPublicPolysList.size() != numberOfPlayers) ||
+                                    isNewPublicDataContradictOld(oldPublicPolysList, recvPublicPolysList);
+                    }
+                    foundWrongValue[playerToVerify] = foundWrongValue_i;
                 }
-
-                // Finally  Add the secret share
-                recvSharesForComp.add(recvSecretShare_i);
-                imTheDealer = false;
-                playerToVerify++;
+                oldPublicPolys = recvPublicPolys;
             }
 
             proglog.printInformation("Received secrets shares  are: " + recvSharesForComp.toString());
             return recvSharesForComp;
    }
-    
-    protected void handleDealer(List<SecretPolynomials> shareMySecrets, Zp recvSecretShare_i) throws IOException {
-        // Should send&receive complaints on the bulletin board  1 - I'm not complaining on  myself
-        PlayerNotification myDemoComplaint = new PlayerNotification(PlayerNotification.Confirmation.APPROVAL);
-        List<PlayerNotification> complaintesOnMe = Sendable.asPlayerNotifications(BulletinBoard.publishAndRead(myDemoComplaint, prime, goodPlayers, cController));
 
-        // Prepare wanted polys according to players complaintes
-        List<SecretPolynomials> wantedPolysList = new ArrayList<SecretPolynomials>();
-        boolean recvCompOnMe = createWantedPolynomials(wantedPolysList, complaintesOnMe, shareMySecrets);
+    /* Assume I'm the j-th player - send fj(w^i) of every dealer to the i-th player in a single vector, and compare
+     * the received fi(w^j) of every dealer with gj(w^i). Returns the dealers to complain on */
+    private boolean[] crossCheckDealers(List<SecretPolynomials> myRevcShare, boolean[] isOrigPolyLegal) throws IOException {
+        List<List<Zp>> toSendVerificationLists = new ArrayList<List<Zp>>();
+        for (int i = 0; i < numberOfPlayers; i++){
+            toSendVerificationLists.add(new ArrayList<Zp>(numberOfPlayers));
+        }
+        for (int playerToVerify = 0; playerToVerify < numberOfPlayers; playerToVerify++){
+            List<Zp> toSendVerificationList_f_j_w_i;
+            if (isOrigPolyLegal[playerToVerify])
+            {
+                    toSendVerificationList_f_j_w_i = myRevcShare.get(playerToVerify).calculateF_i_xValuesForPlayers(numberOfPlayers, prime);
+            }
+            else // Send random values
+            {
+                    toSendVerificationList_f_j_w_i = ZpMatrix.getRandomMatrix(1, numberOfPlayers, prime).getMatrixRow(0);
+            }
+            for (int i = 0; i < numberOfPlayers; i++){
+                    toSendVerificationLists.get(i).add(toSendVerificationList_f_j_w_i.get(i));
+            }
+        }
+        List<ShareVector> toSendVerificationVectors = new ArrayList<ShareVector>();
+        for (List<Zp> toSendVerificationList : toSendVerificationLists){
+            toSendVerificationVectors.add(new ShareVector(toSendVerificationList));
+        }
+        List<ShareVector> recvVerificationVectors = Sendable.asShareVectors(cController.shareSecrets(toSendVerificationVectors, prime, goodPlayers));
 
-        if (recvCompOnMe) {
-            // Publish wanted polynomials on the bulletin board
-            SecretPolynomialsBundle secretBundle = new SecretPolynomialsBundle(wantedPolysList);
-            BulletinBoard.publish(secretBundle, goodPlayers, cController);
+        boolean[] foundWrongValue = new boolean[numberOfPlayers];
+        for (int playerToVerify = 0; playerToVerify < numberOfPlayers; playerToVerify++){
+            if (playerToVerify == index || !goodPlayers[playerToVerify])
+            {
+                    continue;
+            }
+            if (!isOrigPolyLegal[playerToVerify])
+            {
+                    foundWrongValue[playerToVerify] = true;
+                    continue;
+            }
+            List<Zp> toRecvVerifyList_f_i_w_j = new ArrayList<Zp>(numberOfPlayers);
+            for (ShareVector recvVector : recvVerificationVectors){
+                    boolean isVectorLegal = (recvVector != null) && (recvVector.getShares().size() == numberOfPlayers);
+                    toRecvVerifyList_f_i_w_j.add(isVectorLegal ? recvVector.getShares().get(playerToVerify) : null);
+            }
+            List<Zp> verifyWithList_g_j_w_i = myRevcShare.get(playerToVerify).calculateG_i_yValuesForVerification(numberOfPlayers, prime);
+            foundWrongValue[playerToVerify] = compareCoordianteList(toRecvVerifyList_f_i_w_j, verifyWithList_g_j_w_i).size() != 0;
+        }
+        return foundWrongValue;
+    }
 
-            // Should send&receive complaints on the bulletin board  2 - I'm not complaining on  myself
-            complaintesOnMe = Sendable.asPlayerNotifications(BulletinBoard.publishAndRead(myDemoComplaint, prime, goodPlayers, cController));
+    /* Batch verification of several sharings of every dealer in a fixed number of rounds whatever their number: the
+     * polynomials of all the sharings together with a commitment to a part of the challenge, the openings of the
+     * commitments, the cross-check values of the combined sharing and one complaint round (see isCombinationConsistent).
+     * Only if someone complains every sharing is verified on its own (see verifyDealtInputs). Returns the shares of
+     * every sharing, by the position of the input in inputs */
+    private List<List<Zp>> batchInputStage(List<Zp> inputs) throws IOException {
+        List<List<Zp>> recvSharesLists = new ArrayList<List<Zp>>(inputs.size());
+        if (inputs.isEmpty())
+        {
+                return recvSharesLists;
+        }
+        cController.setTimeOut(getInputStageTimeOut());
+        List<List<SecretPolynomials>> shareMySecretsLists = new ArrayList<List<SecretPolynomials>>(inputs.size());
+        List<List<SecretPolynomials>> toShareLists = new ArrayList<List<SecretPolynomials>>(inputs.size());
+        for (Zp input : inputs){
+            List<SecretPolynomials> shareMySecrets = Shamir.shareByzantineCase(input, numberOfPlayers, polynomialDeg);
+            shareMySecretsLists.add(shareMySecrets);
+            toShareLists.add(getPolynomialsToShare(input, shareMySecrets));
+        }
+        List<Zp> myOpening = getChallengeOpening();
+        byte[] myCommitment = getCommitment(index, myOpening);
+        List<DealtPolynomials> toSendDealt = new ArrayList<DealtPolynomials>(numberOfPlayers);
+        for (int j = 0; j < numberOfPlayers; j++){
+            List<SecretPolynomials> polysForPlayer = new ArrayList<SecretPolynomials>(inputs.size());
+            for (List<SecretPolynomials> toShare : toShareLists){
+                polysForPlayer.add(toShare.get(j));
+            }
+            toSendDealt.add(new DealtPolynomials(polysForPlayer, myCommitment));
+        }
+        proglog.printInformation("sharing " + inputs.size() + " secrets with other players");
+        List<DealtPolynomials> recvDealt = Sendable.asDealtPolynomials(cController.shareSecrets(toSendDealt, prime, goodPlayers));
+
+        // The polynomials of every sharing by dealer - null if the dealer did not send all the sharings
+        List<List<SecretPolynomials>> myRevcShares = new ArrayList<List<SecretPolynomials>>(inputs.size());
+        for (int k = 0; k < inputs.size(); k++){
+            List<SecretPolynomials> myRevcShare = new ArrayList<SecretPolynomials>(numberOfPlayers);
+            for (DealtPolynomials dealt : recvDealt){
+                boolean isDealtLegal = (dealt != null) && (dealt.getList().size() == inputs.size());
+                myRevcShare.add(isDealtLegal ? dealt.getList().get(k) : null);
+            }
+            myRevcShares.add(myRevcShare);
+        }
 
-            // Prepare wanted polys according to players complaintes
-            recvCompOnMe = createWantedPolynomials(wantedPolysList, complaintesOnMe, shareMySecrets);
+        if (!isCombinationConsistent(myRevcShares, getChallenge(recvDealt, myOpening)))
+        {
+                for (int k = 0; k < inputs.size(); k++){
+                    recvSharesLists.add(verifyDealtInputs(shareMySecretsLists.get(k), myRevcShares.get(k)));
+                }
+                return recvSharesLists;
+        }
+        // No one complained on the combination - all the sharings are consistent
+        for (List<SecretPolynomials> myRevcShare : myRevcShares){
+            List<Zp> recvShares = new ArrayList<Zp>(numberOfPlayers);
+            for (int playerToVerify = 0; playerToVerify < numberOfPlayers; playerToVerify++){
+                recvShares.add(goodPlayers[playerToVerify] ? new Zp(myRevcShare.get(playerToVerify).getFi_xPolynomial().get(0)) : new Zp(prime, 0));
+            }
+            recvSharesLists.add(recvShares);
+        }
+        return recvSharesLists;
+    }
 
-            if (recvCompOnMe) {
-                // Publish wanted polynomials on the bulletin board
-                secretBundle = new SecretPolynomialsBundle(wantedPolysList);
-                BulletinBoard.publish(secretBundle, goodPlayers, cController);
+    /* The cross-check of the batch verification - the players cross-check only the combined sharing
+     * sum(r^m * f_m(x, y)) of all the sharings m of all the dealers: a single value to every player and two polynomials
+     * to evaluate, instead of a value and two polynomials per sharing. A complaint on the combination does not tell which
+     * sharing is inconsistent, so then every one is checked on its own.
+     * The challenge r is the sum of random parts of all the players, each committed to with the polynomials and opened
+     * only after all of them were sent (see getChallenge) - no one can choose its part after seeing the others, so r is
+     * uniform if one player is honest. With K sharings of n dealers the combined error is a polynomial of degree below
+     * K * n in r, so inconsistent sharings pass with probability at most (K * n - 1) / p. A challenge of -1 (a player
+     * did not open its commitment) is complained on. Returns true if no one complained */
+    private boolean isCombinationConsistent(List<List<SecretPolynomials>> myRevcShares, int challenge) throws IOException {
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        boolean isCombinationLegal = challenge >= 0;
+        int[] combinedF_j = new int[polynomialDeg + 1];
+        int[] combinedG_j = new int[polynomialDeg + 1];
+        int power = 1;
+        for (List<SecretPolynomials> myRevcShare : myRevcShares){
+            for (int playerToVerify = 0; playerToVerify < numberOfPlayers && isCombinationLegal; playerToVerify++){
+                if (!goodPlayers[playerToVerify])
+                {
+                        continue;
+                }
+                SecretPolynomials secretPoly_i = myRevcShare.get(playerToVerify);
+                if (!isSecretPolynomialsLegal(secretPoly_i))
+                {
+                        proglog.printWarning("Received a corrupted polynomials from player Number : " + playerToVerify);
+                        isCombinationLegal = false;
+                        continue;
+                }
+                for (int k = 0; k <= polynomialDeg; k++){
+                        combinedF_j[k] = field.mulAdd(combinedF_j[k], power, secretPoly_i.getFi_xPolynomial().get(k).getValue());
+                        combinedG_j[k] = field.mulAdd(combinedG_j[k], power, secretPoly_i.getGi_yPolynomial().get(k).getValue());
+                }
+                power = field.mul(power, challenge);
+            }
+        }
 
-                // Should send&receive complaints on the bulletin board  3 - I'm not complaining on  myself
-                complaintesOnMe = Sendable.asPlayerNotifications(BulletinBoard.publishAndRead(myDemoComplaint, prime, goodPlayers, cController));
+        List<Zp> toSendVerificationList = isCombinationLegal ? Shamir.evaluateAtPlayers(combinedF_j, numberOfPlayers, prime, true)
+                                                              : ZpMatrix.getRandomMatrix(1, numberOfPlayers, prime).getMatrixRow(0);
+        List<Zp> toRecvVerifyList = shareSimple(toSendVerificationList);
+        boolean foundWrongValue = !isCombinationLegal ||
+                compareCoordianteList(toRecvVerifyList, Shamir.evaluateAtPlayers(combinedG_j, numberOfPlayers, prime, true)).size() != 0;
 
-                // Count complaints number
-                int numOfcomplaints = getNumberOfComplaints(complaintesOnMe);
+        PlayerNotification complaintValue = new PlayerNotification(foundWrongValue ? PlayerNotification.Confirmation.COMPLAINT : PlayerNotification.Confirmation.APPROVAL);
+        List<PlayerNotification> recvComplaintesList = Sendable.asPlayerNotifications(BulletinBoard.publishAndRead(complaintValue, prime, goodPlayers, cController));
+        if (getNumberOfComplaints(recvComplaintesList) != 0)
+        {
+                proglog.printWarning("Inconsistency found in the combined sharing ! verifying the sharings one by one");
+                return false;
+        }
+        return true;
+    }
 
-                if (numOfcomplaints > polynomialDeg) {
-                    // Take the zero polynomial as my input (Not mandatory) and throw exception
-                    recvSecretShare_i.setValue(0);
-                    String errorStr = "Other players decided that I'm a cheater  :- (  -  taking my input as zero.";
-                    proglog.printError(errorStr);
-                    throw new IllegalStateException(errorStr);
-                }
-            }
+    /* A random part of the challenge of the batch verification and the nonce of its commitment - the part first */
+    private List<Zp> getChallengeOpening() {
+        SecureRandom random = new SecureRandom();
+        int chunkBits = Math.max(1, 31 - Integer.numberOfLeadingZeros(prime));   // always an element of the field
+        List<Zp> opening = new ArrayList<Zp>();
+        opening.add(new Zp(prime, random.nextInt(prime)));
+        for (int i = 0; i < (NONCE_BITS + chunkBits - 1) / chunkBits; i++){
+            opening.add(new Zp(prime, random.nextInt(1 << chunkBits)));
         }
+        return opening;
     }
 
-    protected void handleNotDealer(boolean isOrigPolyLegal, List<Coordinate> wrongCoordinatesList, int playerToVerify, Zp recvSecretShare_i, SecretPolynomials secretPoly_i) throws IOException {
-        /* Step 2 - Check and advertise results to players on the bulletin board  */
-        boolean foundWrongValue1 = (!isOrigPolyLegal) || (wrongCoordinatesList.size() != 0);
-        PlayerNotification complaintValue = new PlayerNotification(foundWrongValue1 ? PlayerNotification.Confirmation.COMPLAINT : PlayerNotification.Confirmation.APPROVAL);
-        List<PlayerNotification> recvComplaintesList = Sendable.asPlayerNotifications(BulletinBoard.publishAndRead(complaintValue, prime, goodPlayers, cController));
+    /* Opens the commitments the dealers sent with their polynomials (see batchInputStage) - returns the sum of the
+     * parts, or -1 if a good player did not open its commitment */
+    private int getChallenge(List<DealtPolynomials> recvDealt, List<Zp> myOpening) throws IOException {
+        List<ShareVector> openings = publishChallengeOpening(new ShareVector(myOpening));
+        ZpArithmetic field = ZpArithmetic.getInstance(prime);
+        int challenge = 0;
+        boolean isOpeningLegal = true;
+        for (int i = 0; i < numberOfPlayers; i++){
+            if (!goodPlayers[i])
+            {
+                    continue;
+            }
+            DealtPolynomials dealt = recvDealt.get(i);
+            ShareVector opening = openings.get(i);
+            if (dealt == null || opening == null || opening.getShares().size() != myOpening.size()
+                    || !Arrays.equals(getCommitment(i, opening.getShares()), dealt.getCommitment()))
+            {
+                    proglog.printWarning("Player " + i + " did not open its commitment to the challenge !");
+                    isOpeningLegal = false;
+                    continue;
+            }
+            challenge = field.add(challenge, opening.getShares().get(0).getValue());
+        }
+        return isOpeningLegal ? challenge : -1;
+    }
 
-        // Count complaints number
-        int numOfcomplaints = getNumberOfComplaints(recvComplaintesList);
+    /* Publishes the opening of the challenge part and returns the openings of all the players - a cheater may try to
+     * open a different part (see MPCProtocolCheaterPlayer) */
+    protected List<ShareVector> publishChallengeOpening(ShareVector myOpening) throws IOException {
+        return Sendable.asShareVectors(BulletinBoard.publishAndRead(myOpening, prime, goodPlayers, cController));
+    }
 
-        /* Step 3 - If there is a need, receive polynomials for the complainig sides and verify it */
-        // currently check only polynomials - not wrong coordinates
-        if (numOfcomplaints != 0) {
-            proglog.printWarning("Inconsistency 1 found ! checking if player " + playerToVerify + " is a cheater");
-            // Should get a list of the public polynomials from player  'playerToVerify'  -  get info from the bulletin board
-            Sendable sendablePolysRecv = BulletinBoard.read(playerToVerify, prime, cController);
+    /* SHA-256 of the player, the prime, the part and the nonce (the opening) */
+    protected byte[] getCommitment(int player, List<Zp> opening) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        updateDigest(digest, player);
+        updateDigest(digest, prime);
+        for (Zp zp : opening){
+            updateDigest(digest, zp.getValue());
+        }
+        return digest.digest();
+    }
 
-            List<SecretPolynomials> recvPublicPolysList1 = null;
-            if (sendablePolysRecv != null) {
-                recvPublicPolysList1 = sendablePolysRecv.asSecretPolynomialsBundle().getList();
-            }
+    private static void updateDigest(MessageDigest digest, int value) {
+        digest.update(new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+    }
 
-            if (foundWrongValue1) {
-                updateRecvShare(recvPublicPolysList1, recvSecretShare_i);
-            }
-            boolean foundWrongValue2 = (!isOrigPolyLegal) || isPublicDataContradictPrivate(secretPoly_i, recvPublicPolysList1, recvComplaintesList, recvSecretShare_i);
+    /* The polynomials this player sends in the input stage - a cheater sends different ones (see MPCProtocolCheaterPlayer) */
+    protected List<SecretPolynomials> getPolynomialsToShare(Zp input, List<SecretPolynomials> shareMySecrets) {
+        return shareMySecrets;
+    }
 
+    protected int getInputStageTimeOut() {
+        // 20 seconds
+        return 20000;
+    }
 
-            // Check and advertise results to players on the bulletin board
-            complaintValue = new PlayerNotification(foundWrongValue2 ? PlayerNotification.Confirmation.COMPLAINT : PlayerNotification.Confirmation.APPROVAL);
+    /* Publishes a complaint or an approval on every dealer in a single message, and returns the notifications
+     * on each dealer, by the index of the publishing player */
+    private List<List<PlayerNotification>> publishComplaints(boolean[] foundWrongValue, boolean[] isDisputed) throws IOException {
+        List<PlayerNotification> myComplaints = new ArrayList<PlayerNotification>(numberOfPlayers);
+        for (int i = 0; i < numberOfPlayers; i++){
+            // I'm not complaining on myself
+            boolean complain = (i != index) && isDisputed[i] && foundWrongValue[i];
+            myComplaints.add(new PlayerNotification(complain ? PlayerNotification.Confirmation.COMPLAINT : PlayerNotification.Confirmation.APPROVAL));
+        }
+        List<PlayerNotificationBundle> recvBundles =
+                Sendable.asPlayerNotificationBundles(BulletinBoard.publishAndRead(new PlayerNotificationBundle(myComplaints), prime, goodPlayers, cController));
 
-            recvComplaintesList = Sendable.asPlayerNotifications(BulletinBoard.publishAndRead(complaintValue, prime, goodPlayers, cController));
+        List<List<PlayerNotification>> recvComplaintesLists = new ArrayList<List<PlayerNotification>>(numberOfPlayers);
+        for (int i = 0; i < numberOfPlayers; i++){
+            recvComplaintesLists.add(new ArrayList<PlayerNotification>(numberOfPlayers));
+        }
+        for (PlayerNotificationBundle recvBundle : recvBundles){
+            List<PlayerNotification> recvComplaints = (recvBundle != null) ? recvBundle.getList() : null;
+            boolean isBundleLegal = (recvComplaints != null) && (recvComplaints.size() == numberOfPlayers);
+            for (int i = 0; i < numberOfPlayers; i++){
+                recvComplaintesLists.get(i).add(isBundleLegal ? recvComplaints.get(i) : null);
+            }
+        }
+        return recvComplaintesLists;
+    }
 
-            // Count complaints number
-            numOfcomplaints = getNumberOfComplaints(recvComplaintesList);
+    /* Publishes the polynomials of the players that complained on me (an empty bundle if no one did), and returns
+     * the polynomials every dealer published - null for a dealer that did not publish */
+    private List<List<SecretPolynomials>> publishWantedPolynomials(List<PlayerNotification> complaintesOnMe, List<SecretPolynomials> shareMySecrets) throws IOException {
+        List<SecretPolynomials> wantedPolysList = new ArrayList<SecretPolynomials>();
+        createWantedPolynomials(wantedPolysList, complaintesOnMe, shareMySecrets);
+        List<SecretPolynomialsBundle> recvBundles =
+                Sendable.asSecretPolynomialsBundles(BulletinBoard.publishAndRead(new SecretPolynomialsBundle(wantedPolysList), prime, goodPlayers, cController));
 
-            /* Step 4 - If there is a need, recieve polynomials for the complainig sides and verify it */
-            if (numOfcomplaints != 0) {
-                proglog.printWarning("Inconsistency 2 found ! checking if player " + playerToVerify + " is a cheater");
-                // Should get a list of the public polynomials from player  'playerToVerify' -  get info from the bulletin board
-                sendablePolysRecv = BulletinBoard.read(playerToVerify, prime, cController);
-                List<SecretPolynomials> recvPublicPolysList2 = null;
-                if (sendablePolysRecv != null) {
-                    recvPublicPolysList2 = sendablePolysRecv.asSecretPolynomialsBundle().getList();
-                }
+        List<List<SecretPolynomials>> recvPublicPolys = new ArrayList<List<SecretPolynomials>>(numberOfPlayers);
+        for (SecretPolynomialsBundle recvBundle : recvBundles){
+            recvPublicPolys.add((recvBundle != null) ? recvBundle.getList() : null);
+        }
+        return recvPublicPolys;
+    }
 
-                if (foundWrongValue2) {
-                    updateRecvShare(recvPublicPolysList2, recvSecretShare_i);
-                }
-                boolean foundWrongValue3 = (!isOrigPolyLegal) || isPublicDataContradictPrivate(secretPoly_i, recvPublicPolysList2, recvComplaintesList, recvSecretShare_i);
-                foundWrongValue3 = foundWrongValue3 || isNewPublicDataContradictOld(recvPublicPolysList1, recvPublicPolysList2);
-                // Check and advertise results to players on the bulletin board
-                complaintValue = new PlayerNotification(foundWrongValue3 ? PlayerNotification.Confirmation.COMPLAINT : PlayerNotification.Confirmation.APPROVAL);
-                recvComplaintesList = Sendable.asPlayerNotifications(BulletinBoard.publishAndRead(complaintValue, prime, goodPlayers, cController));
-
-                // Count complaints number
-                numOfcomplaints = getNumberOfComplaints(recvComplaintesList);
-
-                /* Step 5 - Check if there is more than 'polynomialDeg' complaintes or recption timeout occured  */
-                if (numOfcomplaints > polynomialDeg) {
-                    proglog.printWarning("Found a cheater ! player  " + playerToVerify + "  - taking its input as zero.");
-                    // Take the zero polynomial as this user input
-                    recvSecretShare_i.setValue(0);
-                     removeCheaterPlayer(playerToVerify);//don't send and receive from this player anymore...
-                }
+    private void removeCheaterDealers(List<List<PlayerNotification>> recvComplaintesLists, boolean[] isDisputed, List<Zp> recvSharesForComp) throws IOException {
+        if (isDisputed[index] && getNumberOfComplaints(recvComplaintesLists.get(index)) > polynomialDeg) {
+            // Take the zero polynomial as my input (Not mandatory) and throw exception
+            recvSharesForComp.get(index).setValue(0);
+            String errorStr = "Other players decided that I'm a cheater  :- (  -  taking my input as zero.";
+            proglog.printError(errorStr);
+            throw new IllegalStateException(errorStr);
+        }
+        for (int playerToVerify = 0; playerToVerify < numberOfPlayers; playerToVerify++){
+            if (playerToVerify != index && isDisputed[playerToVerify] && getNumberOfComplaints(recvComplaintesLists.get(playerToVerify)) > polynomialDeg) {
+                proglog.printWarning("Found a cheater ! player  " + playerToVerify + "  - taking its input as zero.");
+                // Take the zero polynomial as this user input
+                recvSharesForComp.get(playerToVerify).setValue(0);
+                removeCheaterPlayer(playerToVerify);//don't send and receive from this player anymore...
             }
         }
     }
@@ -530,13 +852,21 @@ public class MPCProtocolByzantineCase extends MPCProtocol{
 
     
     protected List<Zp> getMultStepCoeffsForCheaters(int j){
-            boolean[] rowsToRemove = new boolean[numberOfPlayers];
+            /* Row j of the inverse of the Vandermonde matrix of the good players' points, cached per set of good players */
+            int[] allPoints = Shamir.getEvaluationPoints(numberOfPlayers, prime, true);
+            int[] goodPoints = new int[getNumOfGoodPlayers()];
+            int k = 0;
             for (int i = 0; i < numberOfPlayers; i++){
-                rowsToRemove[i] = !goodPlayers[i];
+                if (goodPlayers[i]){
+                    goodPoints[k++] = allPoints[i];
+                }
             }
-            ZpMatrix vanderMonde = ZpMatrix.getSymmetricPrimitiveVandermondeMatrix(numberOfPlayers, prime).getTransposeMatrix();
-            ZpMatrix filteredMatrix =vanderMonde.removeRowsFromMatrix(rowsToRemove).getInverse();
-            return filteredMatrix.getMatrixRow(j);
+            int[] row = LagrangeCache.getCoefficientRow(prime, goodPoints, j);
+            List<Zp> coeffs = new ArrayList<Zp>(row.length);
+            for (int coeff : row){
+                coeffs.add(new Zp(prime, coeff));
+            }
+            return coeffs;
     }
 
 
@@ -622,8 +952,7 @@ public class MPCProtocolByzantineCase extends MPCProtocol{
             {
                     return false;
             }
-            int w = Zp.getFieldMinimumPrimitive(prime);
-            Zp w_InMyIndex = new Zp(prime, Zp.calculatePower(w, index, prime));
+            Zp w_InMyIndex = new Zp(prime, FieldContext.getInstance(prime).getGeneratorPower(index));
             Zp RjFromPublicPolynomial = Zp.evalutePolynomialAtPoint(RxPolynomial, w_InMyIndex);
 
             Zp temp = recvShareFromPlayer_i.getAShare().constMul(recvShareFromPlayer_i.getBShare()).constSub(recvShareFromPlayer_i.getAbShare());
@@ -772,84 +1101,127 @@ protected boolean  createWantedPolynomials(List<SecretPolynomials> wantedPolysLi
         }
 
 
-    // Implementation according to Ran Canetti
+    /* The verified step shares through VSS and may drop cheaters in the middle, so the gates of a level
+     * are still reduced one after the other. With batch verification the sharings of all the gates are verified
+     * together first (see batchInputStage), and all of them are shared again if a cheater was found */
     @Override
-    public  Zp  reductionRandomizationStep(Zp ab) throws IOException{
-        proglog.printInformation("performing Improved reduction & randomization step");
-
+    public List<Zp> reductionRandomizationStep(List<Zp> abList) throws IOException{
+        List<Zp> results = new ArrayList<Zp>(abList.size());
+        if (!isBatchVerification)
+        {
+                for (Zp ab : abList){
+                    results.add(reductionRandomizationStep(ab));
+                }
+                return results;
+        }
+        proglog.printInformation("performing Improved reduction & randomization step of " + abList.size() + " gates");
+        List<Zp> products = new ArrayList<Zp>(abList.size());
+        for (Zp ab : abList){
+            products.add(getProductToShare(ab));
+        }
         boolean cheaterFound = true;
-        List<Zp> recvSharesFromPlayers = null;
-
-        while(cheaterFound)
+        while (cheaterFound)
         {
-                  cheaterFound = false;
-                 
-                /* Share secret by VSS */
-                recvSharesFromPlayers = inputStage(ab);
-                /* Generate a t degree polynomial, hi(x) , with a  free coeef  that equals 'ab' and create share for users from it  */                
-                //List<Zp> shareResultWithPlayers = Shamir.primitiveShare(ab, numberOfPlayers , polynomialDeg);
-                /* Send to the j-th user hi(j) and receive from every other k player hk(i)  */
-                //recvSharesFromPlayers = shareSimple(shareResultWithPlayers);
-
-                /* Check if there were some null elements - from not playing players or cheater players and put zero instead - arbitrarily */
-                for (int i = recvSharesFromPlayers.size() - 1; i >=0 ; i--)
-                {
-                    if (recvSharesFromPlayers.get(i) == null)
+                cheaterFound = false;
+                results.clear();
+                for (List<Zp> recvSharesFromPlayers : batchInputStage(products)){
+                    Zp result = reduceVerifiedShares(recvSharesFromPlayers);
+                    if (result == null)
                     {
-                        recvSharesFromPlayers.set(i, new Zp(prime, 0));
-                    }
-                    if (!goodPlayers[i])
-                    {
-                                recvSharesFromPlayers.remove(i);
+                            cheaterFound = true;
+                            break;
                     }
+                    results.add(result);
                 }
-                
+        }
+        return results;
+    }
 
-                List<Zp> calculationPolyCoeffs = new ArrayList<Zp>();
-                /* Fill the first 2t+1 coeff with zero arbitrarily  */
-                for (int i= 0; i < 2 * polynomialDeg + 1; i++)
-                {
-                    calculationPolyCoeffs.add(new Zp(prime, 0));
-                }
+    /* The product this player shares in the reduction step - a cheater shares a different one (see MPCProtocolMultStepCheaterPlayer) */
+    protected Zp getProductToShare(Zp ab) {
+        return ab;
+    }
+
+    @Override
+    protected PendingReduction startReductionStep(List<Zp> abList) throws IOException{
+        return new PendingReduction(reductionRandomizationStep(abList));
+    }
 
-                /* Perform the following iteration to calculate the 2t+1...n  coeffs of the  calculation polynomial*/
-                 for (int k = 2 * polynomialDeg + 1; k < recvSharesFromPlayers.size(); k++)
-                 {
-                               List<Zp> K_LineAtInvVanderMonde = getMultStepCoeffsForCheaters(k);
-                               /* Calculate your share of the K-th coeff at the calculation polynomial */
-                               Zp myK_CoeffShare = new Zp(prime, 0);
-                               for (int i =0; i < recvSharesFromPlayers.size(); i++)
-                               {    
-                                     myK_CoeffShare.add( recvSharesFromPlayers.get(i).constMul(K_LineAtInvVanderMonde.get(i)));
-                               }
-
-                               /* Send this to all other players so all of you could recombine the real k-th coeff  - no need to use the bulletin board */
-                               List<Zp> K_CoeffShares = shareSimple(myK_CoeffShare);
-                               /* Fix the received codeword and get the Recombined result */
-                               calculationPolyCoeffs.add(getRecombinedResult(K_CoeffShares, prime));
-                 }
-                 Polynom calculationPoly = new Polynom(calculationPolyCoeffs);
-
-                 if (calculationPoly.getDegree() == -1 )
-                 {
-                     /* No one cheated at this stage  */
-                     break;
-                 }
-
-                List<Zp> XValues = new ArrayList<Zp>();
-                int w = Zp.getFieldMinimumPrimitive(prime);
-                for (int i = 0;i < numberOfPlayers; i++)
+    // Implementation according to Ran Canetti
+    @Override
+    public  Zp  reductionRandomizationStep(Zp ab) throws IOException{
+        proglog.printInformation("performing Improved reduction & randomization step");
+        ab = getProductToShare(ab);
+        while (true)
+        {
+                /* Share secret by VSS */
+                Zp result = reduceVerifiedShares(inputStage(ab));
+                if (result != null)
                 {
-                     XValues.add(new Zp(prime, Zp.calculatePower(w, i, prime) ));
+                        return result;
                 }
+        }
+    }
+
+    /* The reduction of the verified shares of a product from all the players (see inputStage) - returns null if a
+     * cheater was found and removed, and then the product must be shared again */
+    private Zp reduceVerifiedShares(List<Zp> recvSharesFromPlayers) throws IOException{
+        /* Generate a t degree polynomial, hi(x) , with a  free coeef  that equals 'ab' and create share for users from it  */                
+        //List<Zp> shareResultWithPlayers = Shamir.primitiveShare(ab, numberOfPlayers , polynomialDeg);
+        /* Send to the j-th user hi(j) and receive from every other k player hk(i)  */
+        //recvSharesFromPlayers = shareSimple(shareResultWithPlayers);
+
+        /* Check if there were some null elements - from not playing players or cheater players and put zero instead - arbitrarily */
+        for (int i = recvSharesFromPlayers.size() - 1; i >=0 ; i--)
+        {
+            if (recvSharesFromPlayers.get(i) == null)
+            {
+                recvSharesFromPlayers.set(i, new Zp(prime, 0));
+            }
+            if (!goodPlayers[i])
+            {
+                        recvSharesFromPlayers.remove(i);
+            }
+        }
+        
+
+        List<Zp> calculationPolyCoeffs = new ArrayList<Zp>();
+        /* Fill the first 2t+1 coeff with zero arbitrarily  */
+        for (int i= 0; i < 2 * polynomialDeg + 1; i++)
+        {
+            calculationPolyCoeffs.add(new Zp(prime, 0));
+        }
+
+        /* Perform the following iteration to calculate the 2t+1...n  coeffs of the  calculation polynomial*/
+         for (int k = 2 * polynomialDeg + 1; k < recvSharesFromPlayers.size(); k++)
+         {
+                       List<Zp> K_LineAtInvVanderMonde = getMultStepCoeffsForCheaters(k);
+                       /* Calculate your share of the K-th coeff at the calculation polynomial */
+                       Zp myK_CoeffShare = new Zp(prime, 0);
+                       for (int i =0; i < recvSharesFromPlayers.size(); i++)
+                       {    
+                             myK_CoeffShare.add( recvSharesFromPlayers.get(i).constMul(K_LineAtInvVanderMonde.get(i)));
+                       }
+
+                       /* Send this to all other players so all of you could recombine the real k-th coeff  - no need to use the bulletin board */
+                       List<Zp> K_CoeffShares = shareSimple(myK_CoeffShare);
+                       /* Fix the received codeword and get the Recombined result */
+                       calculationPolyCoeffs.add(getRecombinedResult(K_CoeffShares, prime));
+         }
+         Polynom calculationPoly = new Polynom(calculationPolyCoeffs);
+
+         if (calculationPoly.getDegree() != -1 )
+         {
+                /* Someone cheated at this stage - find it */
+                FieldContext fieldContext = FieldContext.getInstance(prime);
 
                 /* Create the distorted code word */
                 List<Zp> distortedCodeword = new ArrayList<Zp>();
                 for (int i = 0; i < numberOfPlayers; i++)
                 {
-                        distortedCodeword.add(calculationPoly.Sample(XValues.get(i)));
+                        distortedCodeword.add(calculationPoly.Sample(new Zp(prime, fieldContext.getGeneratorPower(i))));
                 }
-                List<Zp> fixedCodeword =  WelchBerlekampDecoder.decode(XValues, distortedCodeword, polynomialDeg, 2*polynomialDeg, prime);
+                List<Zp> fixedCodeword =  ReedSolomonDecoder.getPrimitiveInstance(numberOfPlayers, 2*polynomialDeg, prime).decode(distortedCodeword, polynomialDeg);
                 // Check For exception in codeword fixing
                 if (fixedCodeword == null)
                 {
@@ -858,17 +1230,22 @@ protected boolean  createWantedPolynomials(List<SecretPolynomials> wantedPolysLi
                       throw new IllegalStateException(errorStr);
                 }
 
-               for (int i = 0; i < fixedCodeword.size(); i++)
-               {
+                boolean cheaterFound = false;
+                for (int i = 0; i < fixedCodeword.size(); i++)
+                {
                         if (goodPlayers[i]  && !fixedCodeword.get(i).equals(distortedCodeword.get(i)))
                         {
                                 proglog.printWarning("Player Number " + i + " is a mult step cheater ! ");
                                 cheaterFound = true;
                                 removeCheaterPlayer(i);
-                                // Continue at iteration till no one will cheat
                         }
-               }
-        }
+                }
+                if (cheaterFound)
+                {
+                        // Share again till no one will cheat
+                        return null;
+                }
+         }
 
        /* Finally calculate your share  - we will get here if no one had tried to cheat */
        List<Zp> firstLineAtInvVanderMonde = getMultStepCoeffsForCheaters(0);
@@ -953,9 +1330,8 @@ public static void main(String[] args) {
 
 
         List<Zp> XValues = new ArrayList<Zp>();
-        int w = Zp.getFieldMinimumPrimitive(prime);
         for (int i = 0; i < playerNum; i++) {
-            XValues.add(new Zp(prime, Zp.calculatePower(w, i, prime)));
+            XValues.add(new Zp(prime, FieldContext.getInstance(prime).getGeneratorPower(i)));
         }
 
         List<Zp> resVector = new ArrayList<Zp>();
@@ -6,16 +6,26 @@
 package mpc.protocols;
 
 import mpc.ui.ProgressLog;
+import mpc.communication.LoopbackNetwork;
+import mpc.compiler.Parser;
 import mpc.circuit.Circuit;
 import mpc.sendables.SecretPolynomials;
-import mpc.sendables.Sendable;
+import mpc.sendables.ShareVector;
 import mpc.finite_field_math.Shamir;
 import mpc.finite_field_math.Zp;
 import mpc.finite_field_math.ZpMatrix;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 public class MPCProtocolCheaterPlayer  extends MPCProtocolByzantineCase{
@@ -38,8 +48,8 @@ public class MPCProtocolCheaterPlayer  extends MPCProtocolByzantineCase{
                 int i=0;
                 for (SecretPolynomials byzantineSecretPolys: byzantineSecretPolysList){
 
-                            if (i == 0){
-                                byzantineSecretPolys.setGi_yPolynomial(null);
+                            if (i == 0 && !isBatchVerification()){
+                                byzantineSecretPolys.setGi_yPolynomial(null);   // well formed with batch verification, so only the combined check can find it
                             } else {
                                 byzantineSecretPolys.setGi_yPolynomial(getRandomZpList(polynomialDeg + 1, input.prime));
                             }
@@ -54,104 +64,92 @@ public class MPCProtocolCheaterPlayer  extends MPCProtocolByzantineCase{
 
   
 
+    /* I'm a cheater so I send polynomials that are different from my original shares - but answer the complaints
+     * with the original ones */
     @Override
-   protected List<Zp> inputStage(Zp input) throws IOException{
-
-            // Set timeout is 20 seconds
-            cController.setTimeOut(2000000);
-            // Generated polynomials for users
-            List<SecretPolynomials> shareMySecrets = Shamir.shareByzantineCase(input, numberOfPlayers, polynomialDeg);
-            int playersNumForPrint = 0;
-            String toPrintStr = new String();
-            for (SecretPolynomials toSendSecretPoly: shareMySecrets){
-                toPrintStr +="\nPolys For Player "  + playersNumForPrint++ + " -  " ;
-                toPrintStr += (toSendSecretPoly != null) ?  toSendSecretPoly.toString() : null; // should be change for regualr player
-            }
-            proglog.printInformation2("My secret polynomials shares  are:" + toPrintStr);
-
-            proglog.printInformation("sharing secrets with other players");
-
-            // Share and receive polynomials from all players - I'm a cheater so I will send a random List that different from my original shares
-            // List<SecretPolynomials>  myRevcShare = shareComplex(shareMySecrets);
-            List<SecretPolynomials>  myRevcShare =
-                        Sendable.asSecretPolynomials(cController.shareSecrets(getByzantineSecretPolynomialList(input), prime));
+    protected List<SecretPolynomials> getPolynomialsToShare(Zp input, List<SecretPolynomials> shareMySecrets) {
+            return getByzantineSecretPolynomialList(input);
+    }
 
-            playersNumForPrint = 1;
-            toPrintStr = "";
-            for (SecretPolynomials toRecvSecretPoly: myRevcShare){
-                toPrintStr +="\nPolys For Player "  + playersNumForPrint++ + " -  ";
-                toPrintStr += (toRecvSecretPoly != null) ?  toRecvSecretPoly.toString() : null;
+    /* I also try to choose the challenge of the batch verification - I wait for the openings of all the others and then
+     * open the part that makes the challenge 0, so only the first dealer is checked. It does not match my commitment */
+    @Override
+    protected List<ShareVector> publishChallengeOpening(ShareVector myOpening) throws IOException {
+            List<ShareVector> openings = new ArrayList<ShareVector>();
+            Zp riggedPart = new Zp(prime, 0);
+            for (int i = 0; i < numberOfPlayers; i++){
+                    ShareVector opening = null;
+                    if (goodPlayers[i] && i != index)
+                    {
+                            opening = (ShareVector) cController.recieveSecrets(i, prime);
+                            if (opening != null && !opening.getShares().isEmpty())
+                            {
+                                    riggedPart.sub(opening.getShares().get(0));
+                            }
+                    }
+                    openings.add(opening);
             }
-            proglog.printInformation2("Received polynomials shares  are:"  + toPrintStr);
+            List<Zp> riggedOpening = new ArrayList<Zp>(myOpening.getShares());
+            riggedOpening.set(0, riggedPart);
+            openings.set(index, new ShareVector(riggedOpening));
+            cController.sendSercrets(openings.get(index), goodPlayers);
+            return openings;
+    }
 
-            List<Zp> recvSharesForComp = new ArrayList<Zp>();
-
-            // Input stage checking - check that each input is legal
-            int playerToVerify = 0;
-            Zp recvSecretShare_i;
-            boolean imTheDealer = false;
-
-            // Each iteration in the loop is a verification of player number  'playerToVerify'
-            for (SecretPolynomials  secretPoly_i : myRevcShare ) {
-
-                if (playerToVerify != index)
-                {
-                        proglog.printInformation2("Verifying input of player number... "  + playerToVerify);
-                }
-                else    // I'm the dealer
-                {
-                      proglog.printInformation2("Verifying my input...");
-                      imTheDealer = true;
-                }
-
-                /* Step 1 - Verify player 'playerToVerify' input  */
-                // Extract the received share from the polynomial you received from player Number 'playerToVerify'
-                // Assume I'm the j-th player-  Calculate fj(w^i)
-                List<Zp> toSendVerificationList_f_j_w_i = null;
-                List<Zp> toRecvVerifyList_f_i_w_j = null;
-                List<Zp> verifyWithList_g_j_w_i = null;
-                List<Coordinate>  wrongCoordinatesList = null;
-
-                // First check if you received a proper polynomial.
-                boolean isOrigPolyLegal = isSecretPolynomialsLegal(secretPoly_i);
-
-                if (isOrigPolyLegal)
-                {
-                        recvSecretShare_i = new Zp(secretPoly_i.getFi_xPolynomial().get(0));
-                        toSendVerificationList_f_j_w_i = secretPoly_i.calculateF_i_xValuesForPlayers(numberOfPlayers, prime);
-                        toRecvVerifyList_f_i_w_j = shareSimple(toSendVerificationList_f_j_w_i);
-                        verifyWithList_g_j_w_i  = secretPoly_i.calculateG_i_yValuesForVerification(numberOfPlayers, prime);
-                        // Need to change this comparison and its output
-                         wrongCoordinatesList = compareCoordianteList(toRecvVerifyList_f_i_w_j, verifyWithList_g_j_w_i);
-                }
-                else // Received polynomials are corrupted Send random List and remember to complain
-                {
-                         proglog.printWarning("Received a corrupted polynomials from player Number : " + playerToVerify);
-                        recvSecretShare_i = new Zp(prime, 0);
-                        toSendVerificationList_f_j_w_i = ZpMatrix.getRandomMatrix(1, numberOfPlayers, prime).getMatrixRow(0);
-                        toRecvVerifyList_f_i_w_j = shareSimple(toSendVerificationList_f_j_w_i);
-                        // don't have a need to compare the received results with somthing
+    @Override
+    protected int getInputStageTimeOut() {
+            return 2000000;
+    }
+
+    /* Batch verification with a cheater at index 1 that deals inconsistent shares and rigs the challenge - the honest
+     * players must still find it and take its input as 0: x = 2*0 + 4*5 + 6 */
+    public static void main(String[] args) {
+        final String text = "Inputs=a,b,c,d,e,f,g,h,i\nOutputs=x\nx=a*b+c*d+e";
+        final int prime = 65521, playerNum = 9, cheater = 1;
+        final LoopbackNetwork network = new LoopbackNetwork(playerNum, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(playerNum);
+        List<Future<Map<Integer, Zp>>> results = new ArrayList<Future<Map<Integer, Zp>>>();
+        for (int i = 0; i < playerNum; i++) {
+            final int index = i;
+            results.add(executor.submit(new Callable<Map<Integer, Zp>>() {
+                public Map<Integer, Zp> call() throws Exception {
+                    Parser parser = new Parser(text, prime);
+                    parser.parse();
+                    ProgressLog log = new ProgressLog((PrintStream) null);
+                    MPCProtocolByzantineCase protocol = index == cheater
+                            ? new MPCProtocolCheaterPlayer(parser.getCircuit(), log, index, prime)
+                            : new MPCProtocolByzantineCase(parser.getCircuit(), log, index, prime);
+                    protocol.init(network.getController(index));
+                    protocol.setBatchVerification(true);
+                    try {
+                        return protocol.calculate(new Zp(prime, index + 2));
+                    } finally {
+                        protocol.close();
+                    }
                 }
-
-
-                if (imTheDealer)
-                {
-                    handleDealer(shareMySecrets, recvSecretShare_i);
+            }));
+        }
+        boolean passed = true;
+        for (int i = 0; i < playerNum; i++) {
+            try {
+                Map<Integer, Zp> result = results.get(i).get(60, TimeUnit.SECONDS);
+                if (i == cheater || result.get(0).getValue() != 26) {
+                    System.out.println("FAILED: player " + i + " got " + result);
+                    passed = false;
                 }
-                else // I'm not the dealer
-                {
-                    handleNotDealer(isOrigPolyLegal, wrongCoordinatesList, playerToVerify, recvSecretShare_i, secretPoly_i);
+            } catch (ExecutionException ex) {
+                if (i != cheater) {
+                    System.out.println("FAILED: player " + i + " " + ex.getCause());
+                    passed = false;
                 }
-
-                // Finally  Add the secret share
-                recvSharesForComp.add(recvSecretShare_i);
-                imTheDealer = false;
-                playerToVerify++;
+            } catch (Exception ex) {
+                System.out.println("FAILED: player " + i + " " + ex);
+                passed = false;
             }
-
-            proglog.printInformation("Received secrets shares  are: " + recvSharesForComp.toString());
-            return recvSharesForComp;
-   }
+        }
+        executor.shutdownNow();
+        System.out.println(passed ? "Test Ended" : "Test FAILED");
+    }
 
 
 }
\ No newline at end of file
@@ -5,7 +5,6 @@
 
 package mpc.protocols;
 
-import java.io.IOException;
 import mpc.circuit.Circuit;
 import mpc.finite_field_math.Zp;
 import mpc.ui.ProgressLog;
@@ -21,16 +20,21 @@ public class MPCProtocolMultStepCheaterPlayer extends MPCProtocolByzantineCase{
         super(circuit, proglog, index, prime);
     }
 
+
+    @Override
+    public MPCProtocol createSubProtocol(Circuit subCircuit) {
+        return new MPCProtocolMultStepCheaterPlayer(this, subCircuit);
+    }
     
     @Override
-    public Zp reductionRandomizationStep(Zp ab) throws IOException {
+    protected Zp getProductToShare(Zp ab) {
         int randomNum = (int) (prime * Math.random());
         if (randomNum > 2/3*prime)
         {
               /* Don't send 'ab' - send a fabrication of it */
               ab = new Zp(prime, randomNum);
         }
-        return super.reductionRandomizationStep(ab);
+        return ab;
     }
 
 
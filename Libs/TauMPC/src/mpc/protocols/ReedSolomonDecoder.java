@@ -0,0 +1,313 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.protocols;
+
+import mpc.finite_field_math.Shamir;
+import mpc.finite_field_math.Zp;
+import mpc.finite_field_math.ZpArithmetic;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Decodes Reed-Solomon code words - the values of a polynomial of degree at most d at n points - with up to
+ * (n-d-1)/2 wrong values. A decoder belongs to a set of points and a degree, and keeps what does not depend on
+ * the values, so a calculation pays for it once (see getInstance).
+ * </p>
+ * <p>
+ * In an honest run there are no errors, so decode first checks the word against the parity checks of the code:
+ * y is a code word iff sum(v_i * x_i^j * y_i) = 0 for j < n-d-1, where v_i = 1 / prod_(k != i)(x_i - x_k).
+ * That is about 2n(n-d-1) multiplications. Only a word that fails the check is decoded, with Gao's
+ * algorithm: the extended Euclidean algorithm on prod(x - x_i) and the interpolation of the values, O(n^2) instead
+ * of the O(n^3) of the linear system of Welch-Berlekamp (see WelchBerlekampDecoder).
+ * </p>
+ */
+public final class ReedSolomonDecoder {
+    private static final int MAX_ENTRIES = 64;
+
+    private static final Map<List<Integer>, ReedSolomonDecoder> decoders = new LinkedHashMap<List<Integer>, ReedSolomonDecoder>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Integer>, ReedSolomonDecoder> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private final ZpArithmetic field;
+    private final int[] points;
+    private final int polynomDeg;
+    private final int[] parityWeights;  // v_i
+    private final int[] vanishing;      // prod(x - x_i), coefficients from low to high degree
+
+    private ReedSolomonDecoder(int[] points, int polynomDeg, int prime) {
+        if (polynomDeg < 0 || polynomDeg >= points.length) {
+            throw new IllegalArgumentException("Cannot decode polynomials of degree " + polynomDeg + " from " + points.length + " values");
+        }
+        this.field = ZpArithmetic.getInstance(prime);
+        this.points = points.clone();
+        this.polynomDeg = polynomDeg;
+        int n = points.length;
+
+        parityWeights = new int[n];
+        for (int i = 0; i < n; i++) {
+            int denominator = 1;
+            for (int k = 0; k < n; k++) {
+                if (k != i) {
+                    denominator = field.mul(denominator, field.sub(points[i], points[k]));
+                }
+            }
+            if (denominator == 0) {
+                throw new IllegalArgumentException("The evaluation points must be distinct");
+            }
+            parityWeights[i] = denominator;
+        }
+        field.batchInverse(parityWeights);
+
+        vanishing = new int[n + 1];
+        vanishing[0] = 1;
+        for (int i = 0; i < n; i++) {
+            int negPoint = field.neg(points[i]);
+            for (int k = i + 1; k > 0; k--) {
+                vanishing[k] = field.mulAdd(vanishing[k - 1], vanishing[k], negPoint);
+            }
+            vanishing[0] = field.mul(vanishing[0], negPoint);
+        }
+    }
+
+    /* The (shared) decoder of the code of polynomials of degree polynomDeg at the points */
+    public static ReedSolomonDecoder getInstance(int[] points, int polynomDeg, int prime) {
+        List<Integer> key = new ArrayList<Integer>(points.length + 2);
+        key.add(prime);
+        key.add(polynomDeg);
+        for (int point : points) {
+            key.add(point);
+        }
+        synchronized (decoders) {
+            ReedSolomonDecoder decoder = decoders.get(key);
+            if (decoder == null) {
+                decoder = new ReedSolomonDecoder(points, polynomDeg, prime);
+                decoders.put(key, decoder);
+            }
+            return decoder;
+        }
+    }
+
+    /* The decoder of the points of the players of the Byzantine case (see Shamir.primitiveShare) */
+    public static ReedSolomonDecoder getPrimitiveInstance(int numberOfPlayers, int polynomDeg, int prime) {
+        return getInstance(Shamir.getEvaluationPoints(numberOfPlayers, prime, true), polynomDeg, prime);
+    }
+
+    /* The number of errors that can always be corrected */
+    public int getMaxErrors() {
+        return (points.length - polynomDeg - 1) / 2;
+    }
+
+    /* True if the values are the values of a polynomial of degree polynomDeg at the points */
+    public boolean isCodeword(int[] values) {
+        int n = points.length;
+        int[] terms = new int[n];   // v_i * x_i^j * y_i for the current j
+        for (int i = 0; i < n; i++) {
+            terms[i] = field.mul(parityWeights[i], values[i]);
+        }
+        for (int j = 0; j < n - polynomDeg - 1; j++) {
+            int check = 0;
+            for (int i = 0; i < n; i++) {
+                check = field.add(check, terms[i]);
+                terms[i] = field.mul(terms[i], points[i]);
+            }
+            if (check != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* The code word nearest to the values, or null if it is more than maxErrors away */
+    public int[] decode(int[] values, int maxErrors) {
+        if (isCodeword(values)) {
+            return values.clone();
+        }
+        int[] polynomial = decodeGao(values);
+        if (polynomial == null) {
+            return null;
+        }
+        int[] codeword = new int[points.length];
+        field.evaluate(polynomial, points, codeword);
+        int errors = 0;
+        for (int i = 0; i < codeword.length; i++) {
+            if (codeword[i] != values[i]) {
+                errors++;
+            }
+        }
+        return errors <= maxErrors ? codeword : null;
+    }
+
+    public List<Zp> decode(List<Zp> values, int maxErrors) {
+        int prime = field.prime;
+        int[] word = new int[values.size()];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = values.get(i).getValue();
+        }
+        int[] codeword = decode(word, maxErrors);
+        if (codeword == null) {
+            return null;
+        }
+        List<Zp> fixed = new ArrayList<Zp>(codeword.length);
+        for (int value : codeword) {
+            fixed.add(new Zp(prime, value));
+        }
+        return fixed;
+    }
+
+    /* Same arguments as WelchBerlekampDecoder.decode - the fixed code word, or null if it has more than e errors */
+    public static List<Zp> decode(List<Zp> XValues, List<Zp> YValues, int e, int polynomDeg, int prime) {
+        int[] points = new int[XValues.size()];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = XValues.get(i).getValue();
+        }
+        return getInstance(points, polynomDeg, prime).decode(YValues, e);
+    }
+
+    /* The interpolation of the values - sum(y_i * v_i * prod(x - x_k) / (x - x_i)) */
+    private int[] interpolate(int[] values) {
+        int n = points.length;
+        int[] result = new int[n];
+        int[] quotient = new int[n];
+        for (int i = 0; i < n; i++) {
+            int scale = field.mul(values[i], parityWeights[i]);
+            if (scale == 0) {
+                continue;
+            }
+            // prod(x - x_k) / (x - x_i) by synthetic division from the top coefficient down
+            int carry = 0;
+            for (int k = n; k > 0; k--) {
+                carry = field.mulAdd(vanishing[k], carry, points[i]);
+                quotient[k - 1] = carry;
+            }
+            for (int k = 0; k < n; k++) {
+                result[k] = field.mulAdd(result[k], scale, quotient[k]);
+            }
+        }
+        return result;
+    }
+
+    /* Gao's algorithm - run the extended Euclidean algorithm on g0 = prod(x - x_i) and the interpolation g1 until
+     * the remainder g has degree below (n + d + 1) / 2, with g = u*g0 + v*g1. The polynomial is g / v if v divides g
+     * and the quotient has degree at most d */
+    private int[] decodeGao(int[] values) {
+        int n = points.length;
+        int[] previous = vanishing.clone();
+        int[] remainder = trim(interpolate(values));
+        int[] previousV = new int[0];
+        int[] v = {1};
+        while (2 * degree(remainder) >= n + polynomDeg + 1) {
+            int[][] division = divide(previous, remainder);
+            int[] nextV = subtract(previousV, multiply(division[0], v));
+            previous = remainder;
+            remainder = division[1];
+            previousV = v;
+            v = nextV;
+        }
+        int[][] division = divide(remainder, v);
+        if (degree(division[1]) >= 0 || degree(division[0]) > polynomDeg) {
+            return null;
+        }
+        return Arrays.copyOf(division[0], polynomDeg + 1);
+    }
+
+    private static int degree(int[] polynomial) {
+        int degree = polynomial.length - 1;
+        while (degree >= 0 && polynomial[degree] == 0) {
+            degree--;
+        }
+        return degree;
+    }
+
+    private static int[] trim(int[] polynomial) {
+        return Arrays.copyOf(polynomial, degree(polynomial) + 1);
+    }
+
+    private int[] multiply(int[] a, int[] b) {
+        if (a.length == 0 || b.length == 0) {
+            return new int[0];
+        }
+        int[] product = new int[a.length + b.length - 1];
+        for (int i = 0; i < a.length; i++) {
+            for (int j = 0; j < b.length; j++) {
+                product[i + j] = field.mulAdd(product[i + j], a[i], b[j]);
+            }
+        }
+        return trim(product);
+    }
+
+    private int[] subtract(int[] a, int[] b) {
+        int[] difference = Arrays.copyOf(a, Math.max(a.length, b.length));
+        for (int i = 0; i < b.length; i++) {
+            difference[i] = field.sub(difference[i], b[i]);
+        }
+        return trim(difference);
+    }
+
+    /* {quotient, remainder} of a / b; b must not be 0 */
+    private int[][] divide(int[] a, int[] b) {
+        int divisorDegree = degree(b);
+        int[] remainder = trim(a);
+        if (remainder.length <= divisorDegree) {
+            return new int[][] {new int[0], remainder};
+        }
+        int[] quotient = new int[remainder.length - divisorDegree];
+        int leadInverse = field.inverse(b[divisorDegree]);
+        for (int k = remainder.length - 1; k >= divisorDegree; k--) {
+            int coeff = field.mul(remainder[k], leadInverse);
+            quotient[k - divisorDegree] = coeff;
+            if (coeff == 0) {
+                continue;
+            }
+            int negCoeff = field.neg(coeff);
+            for (int j = 0; j <= divisorDegree; j++) {
+                remainder[k - divisorDegree + j] = field.mulAdd(remainder[k - divisorDegree + j], negCoeff, b[j]);
+            }
+        }
+        return new int[][] {trim(quotient), trim(Arrays.copyOf(remainder, divisorDegree))};
+    }
+
+    public static void main(String[] args) {
+        int prime = 1231;
+        Zp secret = new Zp(prime, 3);
+        for (int numberOfPlayers = 5; numberOfPlayers < 300; numberOfPlayers++) {
+            int polynomDeg = (numberOfPlayers - 1) / 4;
+            List<Zp> shares = Shamir.primitiveShare(secret, numberOfPlayers, polynomDeg);
+            ReedSolomonDecoder decoder = getPrimitiveInstance(numberOfPlayers, polynomDeg, prime);
+            if (!shares.equals(decoder.decode(shares, 0))) {
+                System.out.println("FAILED without errors for " + numberOfPlayers + " players");
+                return;
+            }
+            // the most errors the decoder can fix, at random positions
+            List<Zp> distorted = new ArrayList<Zp>();
+            for (Zp zp : shares) {
+                distorted.add(new Zp(zp));
+            }
+            for (int errors = 0; errors < decoder.getMaxErrors(); ) {
+                int i = (int) (Math.random() * numberOfPlayers);
+                if (distorted.get(i).equals(shares.get(i))) {
+                    distorted.get(i).setValue(shares.get(i).getValue() + 1 + (int) (Math.random() * (prime - 1)));
+                    errors++;
+                }
+            }
+            if (!shares.equals(decoder.decode(distorted, decoder.getMaxErrors()))) {
+                System.out.println("FAILED with " + decoder.getMaxErrors() + " errors for " + numberOfPlayers + " players");
+                return;
+            }
+            if (decoder.getMaxErrors() > 0 && decoder.decode(distorted, decoder.getMaxErrors() - 1) != null) {
+                System.out.println("FAILED - accepted too many errors for " + numberOfPlayers + " players");
+                return;
+            }
+        }
+        System.out.println("Test Ended");
+    }
+}
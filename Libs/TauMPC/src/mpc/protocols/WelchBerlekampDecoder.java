@@ -5,6 +5,7 @@ package mpc.protocols;
 import mpc.finite_field_math.Polynom;
 import mpc.finite_field_math.Shamir;
 import mpc.finite_field_math.Zp;
+import mpc.finite_field_math.ZpArithmetic;
 import mpc.finite_field_math.ZpMatrix;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -106,9 +107,10 @@ public class WelchBerlekampDecoder {
 
 
         private static Zp[] getWelchBerlekampConstraintVector(List<Zp> XVlaues, List<Zp> YVlaues, int n, int e, int prime){
+                ZpArithmetic field = ZpArithmetic.getInstance(prime);
                 Zp[] bVector = new Zp[n];
                 for (int i = 0; i < n; i++){
-                        bVector[i] = new Zp (prime, Zp.calculatePower(XVlaues.get(i).getValue(), e, prime) * YVlaues.get(i).getValue());
+                        bVector[i] = new Zp (prime, field.mul(field.pow(XVlaues.get(i).getValue(), e), YVlaues.get(i).getValue()));
                 }
                 return bVector;
         }
@@ -125,7 +127,7 @@ public class WelchBerlekampDecoder {
      * Note : matrix A changes (gets converted to row echelon form).
      */
     private static Zp[]  LinearSolve (ZpMatrix A, ZpMatrix B , int prime) {
-      int[] invArray = Zp.getFieldInverseArr(prime);
+      ZpArithmetic field = ZpArithmetic.getInstance(prime);
       ZpMatrix C = ZpMatrix.getConcatenationMatrix(A, B);
       int n = C.getRowNumber();
       int[] solution = new int[n];
@@ -150,7 +152,7 @@ public class WelchBerlekampDecoder {
            temp = cContent[row][n];
            int col;
            for (col = n-1; col>=firstDeterminedValue; col-- ){
-               temp = Zp.modulo(temp - (cContent[row][col] * solution[col]), prime);
+               temp = field.sub(temp, field.mul(cContent[row][col], solution[col]));
            }
 
             // now we need to find the first nonzero coefficient in this row
@@ -174,7 +176,7 @@ public class WelchBerlekampDecoder {
               }  
               // Now determine the variable at the nonzero coefficient
               //div(solution[col], temp, A.getContent()[row][col]);
-              solution[col] = temp * invArray[Zp.modulo(cContent[row][col], prime)];
+              solution[col] = field.div(temp, cContent[row][col]);
               firstDeterminedValue = col;
         }
         else
@@ -218,10 +220,9 @@ public class WelchBerlekampDecoder {
                     for (int i = 0; i < polynomDeg; i++){
                          sharesCopy.get(i).setValue( (int ) (Math.random() * prime));
                     }
-                    int w = Zp.getFieldMinimumPrimitive(prime);
                     List<Zp> XValues = new ArrayList<Zp>();
-                    for (int i = 0; i < numberOfPlayers; i++){
-                        XValues.add(new Zp(prime, Zp.calculatePower(w, i, prime)));
+                    for (int point : Shamir.getEvaluationPoints(numberOfPlayers, prime, true)){
+                        XValues.add(new Zp(prime, point));
                     }
 
                     List<Zp> retCodeWord = decode(XValues, sharesCopy, polynomDeg, polynomDeg, prime);
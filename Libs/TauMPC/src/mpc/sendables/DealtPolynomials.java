@@ -0,0 +1,93 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package mpc.sendables;
+
+import mpc.communication.BitStream;
+import mpc.finite_field_math.Zp;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* The polynomials a dealer sends a player for several sharings at once (batch verification of the input stage),
+ * with the commitment of the dealer to its part of the challenge of the verification */
+public class DealtPolynomials extends SendableList<SecretPolynomials> {
+
+    private byte[] commitment;
+
+    public DealtPolynomials(List<SecretPolynomials> secretPolysList, byte[] commitment) {
+        super(secretPolysList);
+        this.commitment = commitment;
+    }
+
+    public DealtPolynomials() {
+    }
+
+    public byte[] getCommitment() {
+        return commitment;
+    }
+
+    @Override
+    public MessageType getMessageType() {
+        return MessageType.DEALT_POLYNOMIALS;
+    }
+
+    @Override
+    public SecretPolynomials getNewInstrance() {
+        return new SecretPolynomials();
+    }
+
+    @Override
+    public void writeToBitStreamNoHeader(BitStream bs) {
+        super.writeToBitStreamNoHeader(bs);
+        bs.writeLength(commitment.length, BitStream.BYTE_LENGTH);
+        for (byte b : commitment) {
+            bs.writeInt(b & 0xff, BitStream.BYTE_LENGTH);
+        }
+    }
+
+    @Override
+    protected void loadFromByteArrayNoHeader(BitStream bs, int prime) throws IOException {
+        super.loadFromByteArrayNoHeader(bs, prime);
+        commitment = new byte[bs.readLength(BitStream.BYTE_LENGTH)];
+        for (int i = 0; i < commitment.length; i++) {
+            commitment[i] = bs.readByte();
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof DealtPolynomials && super.equals(obj) && Arrays.equals(commitment, ((DealtPolynomials) obj).commitment);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(commitment);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int prime = 65521;
+        List<SecretPolynomials> polys = new ArrayList<SecretPolynomials>();
+        for (int i = 0; i < 4; i++) {
+            List<Zp> x = new ArrayList<Zp>();
+            List<Zp> y = new ArrayList<Zp>();
+            for (int j = 0; j < 3; j++) {
+                x.add(new Zp(prime, 1000 * i + j));
+                y.add(new Zp(prime, 60000 - j * i));
+            }
+            SecretPolynomials secretPolynomials = new SecretPolynomials();
+            secretPolynomials.setFi_xPolynomial(x);
+            secretPolynomials.setGi_yPolynomial(y);
+            polys.add(i == 2 ? null : secretPolynomials);
+        }
+        byte[] commitment = new byte[32];
+        for (int i = 0; i < commitment.length; i++) {
+            commitment[i] = (byte) (i * 37 - 128);
+        }
+        DealtPolynomials dealt = new DealtPolynomials(polys, commitment);
+        Sendable loaded = Sendable.loadFromByteArray(dealt.writeToByteArray(), prime);
+        System.out.println(dealt.equals(loaded) ? "Test Ended" : "FAILED - " + loaded);
+    }
+}
@@ -8,6 +8,8 @@ package mpc.sendables;
 import mpc.communication.BitStream;
 import mpc.finite_field_math.Zp;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 
 
@@ -69,6 +71,10 @@ public class MultStepBCaseShare  extends Sendable {
     }
     
     public void writeToBitStreamNoHeader(BitStream bs){
+        if (bs.getFormatVersion() != BitStream.LEGACY_FORMAT_VERSION) {
+            bs.writeList(Arrays.asList(aShare, bShare, abShare, rShare));
+            return;
+        }
         writeSecret(bs, aShare);
         writeSecret(bs, bShare);
         writeSecret(bs, abShare);
@@ -83,6 +89,17 @@ public class MultStepBCaseShare  extends Sendable {
         
     @Override
     protected void loadFromByteArrayNoHeader(BitStream bs, int prime) throws IOException {
+        if (bs.getFormatVersion() != BitStream.LEGACY_FORMAT_VERSION) {
+            List<Zp> shares = bs.readList(prime);
+            if (shares.size() != 4) {
+                throw new IOException("Expected 4 shares in a multiplication step message, got " + shares.size());
+            }
+            aShare = shares.get(0);
+            bShare = shares.get(1);
+            abShare = shares.get(2);
+            rShare = shares.get(3);
+            return;
+        }
         aShare = readSecret(bs, prime);
         bShare = readSecret(bs, prime);
         abShare = readSecret(bs, prime);
@@ -92,13 +109,13 @@ public class MultStepBCaseShare  extends Sendable {
     private void writeSecret(BitStream bs, Zp secret) {
         bs.writeBoolean(secret != null);
         if (secret != null) {
-            bs.writeInt(secret.getValue(), BitStream.LENGTH_OF_SECRET);
+            bs.writeSecret(secret);
         }
     }
     
     private Zp readSecret(BitStream bs, int prime) throws IOException{
         if (bs.readBoolean()){
-            return new Zp(prime, bs.readInt(BitStream.LENGTH_OF_SECRET));
+            return bs.readSecret(prime);
         }else{
             return null;
         }
@@ -47,6 +47,7 @@ public class PlayerNotification extends Sendable {
     @Override
     public byte[] writeToByteArray() throws IOException {
         BitStream bs = new BitStream();
+        bs.writeMessageType(MessageType.MESSAGE);
         writeToBitStreamNoHeader(bs);
         bs.close();
         return bs.getByteArray();
@@ -54,7 +55,6 @@ public class PlayerNotification extends Sendable {
 
     @Override
     public void writeToBitStreamNoHeader(BitStream bs) {
-        bs.writeMessageType(MessageType.MESSAGE);
         assert msg != null;
         bs.writeInt(msg.code, CONFIRMATION_LENGTH);
     }        
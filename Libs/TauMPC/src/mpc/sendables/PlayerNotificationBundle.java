@@ -0,0 +1,50 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package mpc.sendables;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/* The notifications of a player on all the dealers of the input stage, published together on the bulletin board */
+public class PlayerNotificationBundle extends SendableList<PlayerNotification> {
+
+    public PlayerNotificationBundle(List<PlayerNotification> notifications) {
+        super(notifications);
+    }
+
+    public PlayerNotificationBundle() {
+    }
+
+    @Override
+    public MessageType getMessageType() {
+        return MessageType.MESSAGE_BUNDLE;
+    }
+
+    @Override
+    public PlayerNotification getNewInstrance() {
+        return new PlayerNotification();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int prime = 7;
+        List<PlayerNotification> notes = new ArrayList<PlayerNotification>();
+        for (int i = 0; i < 40; i++) {
+            notes.add((i % 3) == 0 ? null : new PlayerNotification((i % 3) == 1 ? PlayerNotification.Confirmation.APPROVAL : PlayerNotification.Confirmation.COMPLAINT));
+        }
+        PlayerNotificationBundle bundle = new PlayerNotificationBundle(notes);
+        Sendable sendable = Sendable.loadFromByteArray(bundle.writeToByteArray(), prime);
+        List<PlayerNotification> loaded = sendable.asPlayerNotificationBundle().getList();
+        for (int i = 0; i < notes.size(); i++) {
+            PlayerNotification.Confirmation expected = notes.get(i) == null ? null : notes.get(i).getMsg();
+            PlayerNotification.Confirmation actual = loaded.get(i) == null ? null : loaded.get(i).getMsg();
+            if (expected != actual) {
+                System.out.println("FAILED at notification " + i);
+                return;
+            }
+        }
+        System.out.println("Test Ended");
+    }
+}
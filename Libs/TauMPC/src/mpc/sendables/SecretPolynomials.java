@@ -6,6 +6,7 @@ package mpc.sendables;
 
 import mpc.communication.BitStream;
 import mpc.finite_field_math.Zp;
+import mpc.finite_field_math.Shamir;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -82,38 +83,21 @@ public class SecretPolynomials extends Sendable {
 
     public List<Zp> calculateF_i_xValuesForPlayers(int numOfPlayers, int prime) {
 
-        int w_i, w = Zp.getFieldMinimumPrimitive(prime);
-
-        int value;
-        List<Zp> f_i_xValues = new ArrayList<Zp>();
-        for (int playerNum = 0; playerNum < numOfPlayers; playerNum++) {
-            w_i = Zp.calculatePower(w, playerNum, prime);
-            value = 0;
-            for (int j = 0; j < fi_x.size(); j++) {
-                value += Zp.calculatePower(w_i, j, prime) * fi_x.get(j).getValue();
-            }
-            f_i_xValues.add(new Zp(prime, value));
-        }
-
-        return f_i_xValues;
+        return evaluateAtPlayersPoints(fi_x, numOfPlayers, prime);
     }
 
     public List<Zp> calculateG_i_yValuesForVerification(int numOfPlayers, int prime) {
 
-        int w_i, w = Zp.getFieldMinimumPrimitive(prime);
+        return evaluateAtPlayersPoints(gi_y, numOfPlayers, prime);
+    }
 
-        int value;
-        List<Zp> f_i_xValues = new ArrayList<Zp>();
-        for (int playerNum = 0; playerNum < numOfPlayers; playerNum++) {
-            w_i = Zp.calculatePower(w, playerNum, prime);
-            value = 0;
-            for (int j = 0; j < gi_y.size(); j++) {
-                value += Zp.calculatePower(w_i, j, prime) * gi_y.get(j).getValue();
-            }
-            f_i_xValues.add(new Zp(prime, value));
+    /* Evaluates the polynomial at w^i for each player i */
+    private static List<Zp> evaluateAtPlayersPoints(List<Zp> polynomial, int numOfPlayers, int prime) {
+        int[] coeffs = new int[polynomial.size()];
+        for (int j = 0; j < coeffs.length; j++) {
+            coeffs[j] = polynomial.get(j).getValue();
         }
-
-        return f_i_xValues;
+        return Shamir.evaluateAtPlayers(coeffs, numOfPlayers, prime, true);
     }
 
     @Override
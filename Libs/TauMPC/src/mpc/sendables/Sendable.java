@@ -23,7 +23,10 @@ public abstract class Sendable {
        MULT_STEP_BCASE_BUNDLE(5),
        MULT_STEP_VERIFY_POLY(6),
        TO_SERVER_OBJECT(7),
-       FROM_SERVER_OBJECT(8);
+       FROM_SERVER_OBJECT(8),
+       SHARE_VECTOR(9),
+       MESSAGE_BUNDLE(10),
+       DEALT_POLYNOMIALS(11);
         
         public final int code;
         private MessageType(int code) {
@@ -70,6 +73,15 @@ public abstract class Sendable {
             case FROM_SERVER_OBJECT:
                 sendable = new FromServerObject();
                 break;
+            case SHARE_VECTOR:
+                sendable = new ShareVector();
+                break;
+            case MESSAGE_BUNDLE:
+                sendable = new PlayerNotificationBundle();
+                break;
+            case DEALT_POLYNOMIALS:
+                sendable = new DealtPolynomials();
+                break;
                 
             default:
                 assert false;
@@ -127,6 +139,18 @@ public abstract class Sendable {
         return PlayerNotifications;        
     }
     
+    public static List<PlayerNotificationBundle> asPlayerNotificationBundles(List<? extends Sendable> sendables){
+        List<PlayerNotificationBundle> playerNotificationBundles = new ArrayList<PlayerNotificationBundle>();
+        for (Sendable sendable : sendables){
+            if (sendable != null){
+                    playerNotificationBundles.add(sendable.asPlayerNotificationBundle());
+            }else {
+                    playerNotificationBundles.add(null);
+            }
+        }
+        return playerNotificationBundles;        
+    }
+    
     public static List<MultStepBCaseShare> asMultStepBCaseShares(List<? extends Sendable> sendables){
         List<MultStepBCaseShare> multStepVerifys = new ArrayList<MultStepBCaseShare>();
         for (Sendable sendable : sendables){
@@ -151,6 +175,30 @@ public abstract class Sendable {
         return multStepBCaseShareBundles;        
     }
     
+    public static List<ShareVector> asShareVectors(List<? extends Sendable> sendables){
+        List<ShareVector> shareVectors = new ArrayList<ShareVector>();
+        for (Sendable sendable : sendables){
+            if (sendable != null){
+                    shareVectors.add(sendable.asShareVector());
+            }else {
+                    shareVectors.add(null);
+            }
+        }
+        return shareVectors;        
+    }
+    
+    public static List<DealtPolynomials> asDealtPolynomials(List<? extends Sendable> sendables){
+        List<DealtPolynomials> dealtPolynomials = new ArrayList<DealtPolynomials>();
+        for (Sendable sendable : sendables){
+            if (sendable != null){
+                    dealtPolynomials.add(sendable.asDealtPolynomials());
+            }else {
+                    dealtPolynomials.add(null);
+            }
+        }
+        return dealtPolynomials;
+    }
+
     public static List<MultStepVerificationPoly> asMultStepVerificationPolys(List<? extends Sendable> sendables){
         List<MultStepVerificationPoly> multStepVerificationPolys = new ArrayList<MultStepVerificationPoly>();
         for (Sendable sendable : sendables){
@@ -192,6 +240,13 @@ public abstract class Sendable {
         return null;
     }
     
+    public PlayerNotificationBundle asPlayerNotificationBundle() {
+        if (this instanceof PlayerNotificationBundle){
+            return (PlayerNotificationBundle)this;
+        }
+        return null;
+    }
+    
     public MultStepBCaseShare asMultStepBCaseShare() {
         if (this instanceof MultStepBCaseShare){
             return (MultStepBCaseShare)this;
@@ -206,6 +261,20 @@ public abstract class Sendable {
         return null;
     }      
     
+    public ShareVector asShareVector() {
+        if (this instanceof ShareVector){
+            return (ShareVector)this;
+        }
+        return null;
+    }    
+    
+    public DealtPolynomials asDealtPolynomials() {
+        if (this instanceof DealtPolynomials){
+            return (DealtPolynomials)this;
+        }
+        return null;
+    }
+
     public MultStepVerificationPoly asMultStepVerificationPoly() {
         if (this instanceof MultStepVerificationPoly){
             return (MultStepVerificationPoly)this;
@@ -13,7 +13,7 @@ import java.util.List;
 
 public abstract class SendableList<T extends Sendable> extends Sendable{
     
-    public static final int BITS_FOR_LENGTH_OF_LIST = 5;
+    public static final int BITS_FOR_LENGTH_OF_LIST = 5;// legacy format only
     protected List<T> sendableList;
     
     public abstract MessageType getMessageType();
@@ -47,7 +47,7 @@ public abstract class SendableList<T extends Sendable> extends Sendable{
     @Override
     public void writeToBitStreamNoHeader(BitStream bs) {
         bs.writeMessageType(getMessageType());
-        bs.writeInt(sendableList.size(), BITS_FOR_LENGTH_OF_LIST);
+        bs.writeLength(sendableList.size(), BITS_FOR_LENGTH_OF_LIST);
         for (T senable : sendableList) {
                 bs.writeBoolean(senable != null);
                 if (senable != null)
@@ -60,7 +60,7 @@ public abstract class SendableList<T extends Sendable> extends Sendable{
     @Override
     protected void loadFromByteArrayNoHeader(BitStream bs, int prime) throws IOException {
         sendableList = new ArrayList<T>();
-        int length = bs.readInt(BITS_FOR_LENGTH_OF_LIST);
+        int length = bs.readLength(BITS_FOR_LENGTH_OF_LIST);
         for (int i = 0; i < length; i++) {
             if (bs.readBoolean()) {
                 T sendable = getNewInstrance();
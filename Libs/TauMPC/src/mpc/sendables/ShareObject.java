@@ -35,7 +35,7 @@ public class ShareObject extends Sendable{
     public void writeToBitStreamNoHeader(BitStream bs) {
         bs.writeBoolean(sharedSecret != null);
         if (sharedSecret != null){
-            bs.writeInt(sharedSecret.getValue(), BitStream.LENGTH_OF_SECRET);            
+            bs.writeSecret(sharedSecret);            
         }
         
         bs.writeBoolean(gateIndex != null);
@@ -48,8 +48,7 @@ public class ShareObject extends Sendable{
     
     protected void loadFromByteArrayNoHeader(BitStream bs, int prime) throws IOException{
         if (bs.readBoolean()) {
-            int shared = bs.readInt(BitStream.LENGTH_OF_SECRET);
-            sharedSecret = new Zp(prime, shared);
+            sharedSecret = bs.readSecret(prime);
         }
         if (bs.readBoolean()) {
             gateIndex = bs.readInt(BitStream.LENGTH_OF_GATE_INDEX);
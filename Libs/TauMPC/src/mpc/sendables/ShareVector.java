@@ -0,0 +1,83 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package mpc.sendables;
+
+import mpc.communication.BitStream;
+import mpc.finite_field_math.Zp;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/* A vector of shares sent to a single player in one message, e.g. the shares of
+ * all the multiplication gates of a circuit level. Entries may not be null. */
+public class ShareVector extends Sendable{
+
+    public static final int BITS_FOR_LENGTH_OF_VECTOR = 16;// legacy format only
+
+    private List<Zp> shares;
+
+    public ShareVector() {
+    }
+
+    public ShareVector(List<Zp> shares) {
+        this.shares = shares;
+    }
+
+    public List<Zp> getShares() {
+        return shares;
+    }
+
+    @Override
+    public byte[] writeToByteArray() throws IOException {
+        BitStream bs = new BitStream();
+        bs.writeMessageType(MessageType.SHARE_VECTOR);
+        writeToBitStreamNoHeader(bs);
+        bs.close();
+        return bs.getByteArray();
+    }
+
+    @Override
+    protected void loadFromByteArrayNoHeader(BitStream bs, int prime) throws IOException {
+        int length = bs.readLength(BITS_FOR_LENGTH_OF_VECTOR);
+        shares = new ArrayList<Zp>();
+        if (bs.getFormatVersion() == BitStream.LEGACY_FORMAT_VERSION) {
+            for (int i = 0; i < length; i++) {
+                shares.add(bs.readSecret(prime));
+            }
+            return;
+        }
+        for (int value : bs.readSecrets(length, prime)) {
+            shares.add(new Zp(prime, value));
+        }
+    }
+
+    @Override
+    public void writeToBitStreamNoHeader(BitStream bs) {
+        bs.writeLength(shares.size(), BITS_FOR_LENGTH_OF_VECTOR);
+        if (bs.getFormatVersion() == BitStream.LEGACY_FORMAT_VERSION) {
+            for (Zp share : shares) {
+                bs.writeSecret(share);
+            }
+            return;
+        }
+        bs.writeSecrets(shares);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ShareVector)){
+            return false;
+        }
+        ShareVector second = (ShareVector)obj;
+        return shares == null ? second.shares == null : shares.equals(second.shares);
+    }
+
+    @Override
+    public int hashCode() {
+        return shares == null ? 0 : shares.hashCode();
+    }
+}
@@ -6,6 +6,7 @@
 package mpc.ui;
 
 import java.awt.Color;
+import java.io.PrintStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JTextPane;
@@ -18,6 +19,7 @@ import javax.swing.text.StyledDocument;
 public class ProgressLog {
     private JTextPane progressTextPane;
     private StyledDocument doc;
+    private PrintStream out;
    private String[] initStyles = { "black", "blue", "red","green","gray"};
 
     public ProgressLog(JTextPane textPane) {
@@ -28,6 +30,30 @@ public class ProgressLog {
 
     }
 
+    /* Without a text pane (headless runs) - the log goes to out, or nowhere if out is null */
+    public ProgressLog(PrintStream out) {
+        this.out=out;
+    }
+
+    /* False if nothing is printed - callers may skip building messages */
+    public boolean isEnabled() {
+        return doc != null || out != null;
+    }
+
+    private void print(String text, int style) {
+        if (doc == null) {
+            if (out != null) {
+                out.println(text);
+            }
+            return;
+        }
+        try {
+            doc.insertString(doc.getLength(), text + "\n", doc.getStyle(initStyles[style]));
+        } catch (BadLocationException ex) {
+            Logger.getLogger(ProgressLog.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
     private void initStyles()
     {
         javax.swing.text.Style def = StyleContext.getDefaultStyleContext().getStyle(StyleContext.DEFAULT_STYLE);
@@ -50,48 +76,31 @@ public class ProgressLog {
     }
 
     public void printError(String text) {
-        try {
-            doc.insertString(doc.getLength(), "Error:  "+text +"\n" , doc.getStyle(initStyles[2]));
-        } catch (BadLocationException ex) {
-            Logger.getLogger(ProgressLog.class.getName()).log(Level.SEVERE, null, ex);
-        }
+        print("Error:  " + text, 2);
     }
 
   public void printWarning(String text) {
-        try {
-            doc.insertString(doc.getLength(),"Warning: "+ text + "\n", doc.getStyle(initStyles[3]));
-        } catch (BadLocationException ex) {
-            Logger.getLogger(ProgressLog.class.getName()).log(Level.SEVERE, null, ex);
-        }
+        print("Warning: " + text, 3);
     }
 
     public void printInformation(String text) {
-        try {
-            doc.insertString(doc.getLength(), "Info: "+text + "\n", doc.getStyle(initStyles[0]));
-        } catch (BadLocationException ex) {
-            Logger.getLogger(ProgressLog.class.getName()).log(Level.SEVERE, null, ex);
-        }
+        print("Info: " + text, 0);
     }
 
     public void printInformation2(String text) {
-        try {
-            doc.insertString(doc.getLength(), "Info: "+text + "\n", doc.getStyle(initStyles[4]));
-        } catch (BadLocationException ex) {
-            Logger.getLogger(ProgressLog.class.getName()).log(Level.SEVERE, null, ex);
-        }
+        print("Info: " + text, 4);
     }
 
 
 public void printResult(String text) {
-        try {
-            doc.insertString(doc.getLength(), "Result: "+text + "\n", doc.getStyle(initStyles[1]));
-        } catch (BadLocationException ex) {
-            Logger.getLogger(ProgressLog.class.getName()).log(Level.SEVERE, null, ex);
-        }
+        print("Result: " + text, 1);
     }
 
 public void clearProgressLog()
 {
+    if (doc == null) {
+        return;
+    }
     int length= doc.getLength();
         try {
             doc.remove(0, length);
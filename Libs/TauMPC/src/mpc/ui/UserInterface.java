@@ -691,6 +691,7 @@ public class UserInterface extends javax.swing.JFrame {
 
         String str=funcSourceEditorPane.getText();
         Parser parser = new Parser(str, prime);
+        parser.setOptimizing(true);
         try
         {
             parser.parse();